@@ -0,0 +1,46 @@
+package com.horhge.sql.service;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.StatementCallback;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+/**
+ * Generated inputs for the benchmarks, built through H2 so results go through the same JDBC read path
+ * as real queries.
+ */
+final class BenchmarkData {
+    private BenchmarkData() {
+    }
+
+    /**
+     * In-memory H2 database kept open for the lifetime of the returned template
+     * @param name Database name
+     * @return template over a single shared connection
+     */
+    static JdbcTemplate h2(String name) {
+        SingleConnectionDataSource ds = new SingleConnectionDataSource(
+            "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "", true);
+        return new JdbcTemplate(ds);
+    }
+
+    /**
+     * Sales-like result: one label column plus numeric measures
+     * @param rows Row count
+     * @param columns 2 (label, amount) or 4 (label, amount, quantity, region)
+     * @return columnar result as returned by the execution stage
+     */
+    static ColumnarResult salesResult(int rows, int columns) {
+        JdbcTemplate jdbc = h2("rows" + rows + "x" + columns);
+        String sql = columns == 2
+            ? "SELECT CAST(DATEADD('DAY', X, DATE '2000-01-01') AS VARCHAR) AS order_date, "
+                + "ROUND(1000 + 500 * SIN(X / 10.0) + MOD(X * 7919, 113), 2) AS amount FROM SYSTEM_RANGE(1, " + rows + ")"
+            : "SELECT CAST(DATEADD('DAY', X, DATE '2000-01-01') AS VARCHAR) AS order_date, "
+                + "ROUND(1000 + 500 * SIN(X / 10.0) + MOD(X * 7919, 113), 2) AS amount, "
+                + "MOD(X * 31, 97) AS quantity, "
+                + "CASEWHEN(MOD(X, 3) = 0, 'north', CASEWHEN(MOD(X, 3) = 1, 'south', 'west')) AS region "
+                + "FROM SYSTEM_RANGE(1, " + rows + ")";
+        ColumnarResult result = jdbc.execute((StatementCallback<ColumnarResult>) stmt -> ColumnarResult.read(stmt.executeQuery(sql)));
+        jdbc.execute("SHUTDOWN");
+        return result;
+    }
+}
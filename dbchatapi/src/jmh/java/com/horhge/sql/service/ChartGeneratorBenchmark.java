@@ -0,0 +1,53 @@
+package com.horhge.sql.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chart building, drawing and PNG encoding on the calling thread, one label per row before
+ * downsampling (the worst case for bar and pie), at two PNG compression levels.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ChartGeneratorBenchmark {
+
+    @Param({"10", "1000", "10000", "100000"})
+    public int rows;
+
+    @Param({"bar", "line", "pie"})
+    public String chartType;
+
+    @Param({"1", "6"})
+    public int compression;
+
+    private ColumnarResult data;
+    private ChartRenderer renderer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        data = BenchmarkData.salesResult(rows, 2);
+        renderer = new ChartRenderer(Runnable::run, new SimpleMeterRegistry(), compression);
+    }
+
+    @Benchmark
+    public byte[] generateChart() {
+        return renderer.renderNow(data, ChartGenerator.kind(chartType), ChartOptions.DEFAULT);
+    }
+}
@@ -0,0 +1,47 @@
+package com.horhge.sql.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AiService.buildJsonFromRowData: the row data sent with the insights prompt.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowJsonBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int rows;
+
+    @Param({"2", "4"})
+    public int columns;
+
+    private final AiService aiService = new AiService();
+    private ColumnarResult data;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        data = BenchmarkData.salesResult(rows, columns);
+    }
+
+    @Benchmark
+    public String buildJsonFromRowData() throws Exception {
+        return aiService.buildJsonFromRowData(data);
+    }
+}
@@ -0,0 +1,72 @@
+package com.horhge.sql.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schema introspection (what AiService.getDatabaseSchema and the schema cache call) against an
+ * embedded H2 database with generated tables: 6 columns each, a primary key, and a foreign key to the
+ * previous table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class SchemaIntrospectionBenchmark {
+
+    @Param({"10", "100", "1000", "5000"})
+    public int tables;
+
+    private JdbcTemplate jdbc;
+    private SchemaIntrospector introspector;
+    private SqlDialect dialect;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        jdbc = BenchmarkData.h2("schema" + tables);
+        jdbc.execute("CREATE SCHEMA IF NOT EXISTS bench");
+        for (int t = 0; t < tables; t++) {
+            StringBuilder ddl = new StringBuilder("CREATE TABLE bench.table_").append(t).append(" (")
+                .append("id BIGINT PRIMARY KEY, name VARCHAR(100), amount DECIMAL(12, 2), created_at TIMESTAMP, ")
+                .append("active BOOLEAN, parent_id BIGINT");
+            if (t > 0) {
+                ddl.append(", FOREIGN KEY (parent_id) REFERENCES bench.table_").append(t - 1).append("(id)");
+            }
+            jdbc.execute(ddl.append(")").toString());
+        }
+        introspector = new SchemaIntrospector();
+        dialect = introspector.detectDialect(jdbc);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        jdbc.execute("SHUTDOWN");
+    }
+
+    @Benchmark
+    public String readSchema() throws SQLException {
+        return introspector.readSchema(jdbc);
+    }
+
+    @Benchmark
+    public Object introspect() throws SQLException {
+        return introspector.introspect(jdbc, dialect);
+    }
+}
@@ -0,0 +1,76 @@
+package com.horhge.sql.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SQL extraction from model answers in the shapes models actually return: the requested JSON (short,
+ * and with a long explanation and inline data), fenced markdown with and without a language tag, and
+ * prose without any SQL (the slowest path, every strategy fails). The streaming extractor is measured
+ * on the same text fed in 8-character deltas.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SqlExtractionBenchmark {
+    private static final String SQL = "SELECT c.customer_name, SUM(o.total_amount) AS revenue\\n"
+        + "FROM sales.orders o\\nJOIN sales.customers c ON c.customer_id = o.customer_id\\n"
+        + "WHERE o.order_date >= '2024-01-01'\\nGROUP BY c.customer_name\\nORDER BY revenue DESC\\nLIMIT 10";
+
+    @Param({"json", "json_long", "markdown_sql", "markdown_plain", "prose"})
+    public String shape;
+
+    private final AiService aiService = new AiService();
+    private String answer;
+    private String[] deltas;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String explanation = "The query joins orders to customers, filters to the current year and ranks customers by revenue. ";
+        answer = switch (shape) {
+            case "json" -> "{\"Summary\": \"Top 10 customers by revenue\", \"SQL\": \"" + SQL + "\", "
+                + "\"Explanation\": \"" + explanation + "\", \"Data\": \"\", \"ChartType\": \"bar\"}";
+            case "json_long" -> "{\"Summary\": \"Top 10 customers by revenue\", \"SQL\": \"" + SQL + "\", "
+                + "\"Explanation\": \"" + explanation.repeat(20) + "\", "
+                + "\"Data\": \"" + "| Acme Corp | 125000.00 |\\n".repeat(50) + "\", \"ChartType\": \"bar\"}";
+            case "markdown_sql" -> "Here is the query you asked for:\n\n```sql\n" + SQL.replace("\\n", "\n") + "\n```\n\n" + explanation;
+            case "markdown_plain" -> "Here is the query you asked for:\n\n```\n" + SQL.replace("\\n", "\n") + "\n```\n\n" + explanation;
+            default -> "I could not find a table that stores customer revenue in this schema. " + explanation.repeat(5);
+        };
+        deltas = new String[(answer.length() + 7) / 8];
+        for (int i = 0; i < deltas.length; i++) {
+            deltas[i] = answer.substring(i * 8, Math.min(answer.length(), i * 8 + 8));
+        }
+    }
+
+    @Benchmark
+    public String extractSqlFromMarkdown() {
+        return aiService.extractSqlFromMarkdown(answer);
+    }
+
+    @Benchmark
+    public String streamingExtractor() {
+        StreamingSqlExtractor extractor = new StreamingSqlExtractor();
+        for (String delta : deltas) {
+            if (extractor.append(delta)) {
+                return extractor.getSql();
+            }
+        }
+        return null;
+    }
+}
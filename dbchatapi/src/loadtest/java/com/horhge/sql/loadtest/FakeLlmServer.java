@@ -0,0 +1,207 @@
+package com.horhge.sql.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for the completion API: OpenAI-style /v1/chat/completions (JSON or SSE when "stream" is
+ * set) and Ollama /api/chat and /api/generate (JSON or NDJSON). SQL prompts are answered with canned
+ * queries for the synthetic schema picked by keywords in the question; insights prompts get a short
+ * markdown summary. Latency is a fixed time to first byte plus a delay per streamed chunk, and a share
+ * of requests can be failed with 503 to exercise the client's retry and breaker handling.
+ * <p>
+ * Standalone: {@code FakeLlmServer --port 18099 --latency-ms 300 --chunk-ms 5 --error-rate 0}
+ */
+public class FakeLlmServer implements AutoCloseable {
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final int CHUNK_CHARS = 8;
+
+    // keyword -> canned SQL for SyntheticDatabase's schema
+    private static final Map<String, String> CANNED_SQL = new LinkedHashMap<>();
+    static {
+        // Raw rows, for charts the database has to aggregate
+        CANNED_SQL.put("daily", "SELECT o.order_date, i.quantity * i.unit_price AS amount FROM sales.orders o "
+            + "JOIN sales.order_items i ON i.order_id = o.id ORDER BY o.order_date");
+        CANNED_SQL.put("distribution", "SELECT unit_price FROM sales.order_items");
+        CANNED_SQL.put("versus", "SELECT quantity, unit_price FROM sales.order_items");
+        CANNED_SQL.put("region", "SELECT c.region, ROUND(SUM(i.quantity * i.unit_price), 2) AS revenue "
+            + "FROM sales.orders o JOIN sales.customers c ON c.id = o.customer_id "
+            + "JOIN sales.order_items i ON i.order_id = o.id GROUP BY c.region ORDER BY revenue DESC");
+        CANNED_SQL.put("month", "SELECT FORMATDATETIME(o.order_date, 'yyyy-MM') AS order_month, COUNT(*) AS orders "
+            + "FROM sales.orders o GROUP BY order_month ORDER BY order_month");
+        CANNED_SQL.put("product", "SELECT p.name, SUM(i.quantity) AS units FROM sales.order_items i "
+            + "JOIN sales.products p ON p.id = i.product_id GROUP BY p.name ORDER BY units DESC LIMIT 10");
+        CANNED_SQL.put("categor", "SELECT p.category, COUNT(*) AS products, ROUND(AVG(p.price), 2) AS avg_price "
+            + "FROM sales.products p GROUP BY p.category ORDER BY products DESC");
+        CANNED_SQL.put("customer", "SELECT id, name, region, created_at FROM sales.customers ORDER BY id LIMIT 500");
+        CANNED_SQL.put("status", "SELECT status, COUNT(*) AS orders FROM sales.orders GROUP BY status");
+        // Unknown column, for the SQL error path
+        CANNED_SQL.put("broken", "SELECT no_such_column FROM sales.orders");
+    }
+    private static final String DEFAULT_SQL = "SELECT COUNT(*) AS orders FROM sales.orders";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "fake-llm");
+        t.setDaemon(true);
+        return t;
+    });
+    private final long latencyMs;
+    private final long chunkMs;
+    private final double errorRate;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * @param port Port to listen on, 0 for any free port
+     * @param latencyMs Time before the first byte of every answer
+     * @param chunkMs Delay between streamed chunks
+     * @param errorRate Share of requests answered with 503 (0..1)
+     */
+    public FakeLlmServer(int port, long latencyMs, long chunkMs, double errorRate) throws IOException {
+        this.latencyMs = latencyMs;
+        this.chunkMs = chunkMs;
+        this.errorRate = errorRate;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 512);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return completion URL for dbchat.llm.url
+     */
+    public String getCompletionsUrl() {
+        return "http://127.0.0.1:" + getPort() + "/v1/chat/completions";
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requests.incrementAndGet();
+            JsonNode body = mapper.readTree(exchange.getRequestBody());
+            sleep(latencyMs);
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                failures.incrementAndGet();
+                send(exchange, 503, "application/json", "{\"error\":\"fake backend overloaded\"}");
+                return;
+            }
+            String content = answer(lastUserMessage(body));
+            boolean ollama = exchange.getRequestURI().getPath().startsWith("/api/");
+            boolean generate = exchange.getRequestURI().getPath().startsWith("/api/generate");
+            if (!body.path("stream").asBoolean(false)) {
+                Map<String, Object> response = ollama
+                    ? (generate ? Map.of("response", content, "done", true)
+                        : Map.of("message", Map.of("role", "assistant", "content", content), "done", true))
+                    : Map.of("choices", List.of(Map.of("index", 0,
+                        "message", Map.of("role", "assistant", "content", content))));
+                send(exchange, 200, "application/json", mapper.writeValueAsString(response));
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", ollama ? "application/x-ndjson" : "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            for (int i = 0; i < content.length(); i += CHUNK_CHARS) {
+                String piece = content.substring(i, Math.min(content.length(), i + CHUNK_CHARS));
+                Object chunk = ollama
+                    ? (generate ? Map.of("response", piece, "done", false)
+                        : Map.of("message", Map.of("role", "assistant", "content", piece), "done", false))
+                    : Map.of("choices", List.of(Map.of("index", 0, "delta", Map.of("content", piece))));
+                String line = ollama ? mapper.writeValueAsString(chunk) + "\n" : "data: " + mapper.writeValueAsString(chunk) + "\n\n";
+                out.write(line.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                sleep(chunkMs);
+            }
+            out.write((ollama ? "{\"done\":true}\n" : "data: [DONE]\n\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String lastUserMessage(JsonNode body) {
+        JsonNode messages = body.path("messages");
+        if (messages.isArray() && messages.size() > 0) {
+            return messages.get(messages.size() - 1).path("content").asText("");
+        }
+        return body.path("prompt").asText("");
+    }
+
+    private static String answer(String prompt) throws IOException {
+        if (prompt.startsWith("Given the following")) {
+            return "**Summary:** the result shows the expected distribution. The largest group accounts for "
+                + "roughly a third of the total; no anomalies stand out.";
+        }
+        int question = prompt.lastIndexOf("User question:");
+        String lower = (question >= 0 ? prompt.substring(question) : prompt).toLowerCase(Locale.ROOT);
+        String sql = DEFAULT_SQL;
+        for (Map.Entry<String, String> entry : CANNED_SQL.entrySet()) {
+            if (lower.contains(entry.getKey())) {
+                sql = entry.getValue();
+                break;
+            }
+        }
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("Summary", "Answer generated by the load-test stand-in");
+        json.put("SQL", sql);
+        json.put("Explanation", "The query aggregates the synthetic sales data to answer the question.");
+        json.put("Data", "");
+        json.put("ChartType", sql.contains("GROUP BY") ? "bar" : "");
+        return mapper.writeValueAsString(json);
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestArgs options = new LoadTestArgs(args);
+        FakeLlmServer server = new FakeLlmServer(options.getInt("port", 18099), options.getLong("latency-ms", 300),
+            options.getLong("chunk-ms", 5), options.getDouble("error-rate", 0));
+        System.out.println("Fake LLM listening on " + server.getCompletionsUrl());
+        Thread.currentThread().join();
+    }
+}
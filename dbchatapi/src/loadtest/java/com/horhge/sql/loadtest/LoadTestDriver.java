@@ -0,0 +1,394 @@
+package com.horhge.sql.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.horhge.sql.SqlApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Closed-loop load test of the API against a local LLM stand-in and a synthetic H2 database.
+ * Virtual users repeatedly pick an operation by weight: /api/query on one of a few pre-created
+ * connections, /api/create-connection (followed by DELETE /api/connections/{id} so pools do not pile
+ * up), or GET /api/connections. After a warm-up, client-side latency is recorded per endpoint and the
+ * per-stage server timings are taken from the dbchat_query_stage histograms in /actuator/prometheus.
+ * Results are printed and written as JSON.
+ * <p>
+ * Options (all optional):
+ * <pre>
+ * --users 16              concurrent virtual users
+ * --duration-s 60         measured run length; --warmup-s 10 before it
+ * --mix query=90,create=5,list=5
+ * --unique-prompts 0.2    share of questions made unique (SQL cache misses)
+ * --chart true            ask for charts with each query
+ * --llm-latency-ms 300    fake LLM time to first byte; --llm-chunk-ms 5 per streamed chunk
+ * --llm-error-rate 0      share of LLM calls failed with 503
+ * --customers 10000       synthetic data size; --db-port 9092 for the H2 TCP server
+ * --connections 4         connections shared by the query traffic
+ * --target URL            test an already running API (it must use the fake LLM) instead of starting one
+ * --app.NAME=VALUE        extra property for the in-process API, e.g. --app.dbchat.llm.stream=false
+ * --output target/loadtest-result.json
+ * </pre>
+ */
+public class LoadTestDriver {
+    private static final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private static final double[] PERCENTILES = {0.50, 0.95, 0.99};
+    private static final List<String> QUESTIONS = List.of(
+        "What is the revenue by region?",
+        "How many orders were placed per month?",
+        "Show the top 10 products by units sold",
+        "How many products are in each category and what is their average price?",
+        "List the customers",
+        "How many orders are in each status?",
+        "How many orders are there in total?");
+
+    private final LoadTestArgs options;
+    private final HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+    private final Map<String, Recorder> recorders = new ConcurrentHashMap<>();
+    private volatile boolean recording;
+    private String baseUrl;
+    private List<String> connectionIds;
+
+    LoadTestDriver(LoadTestArgs options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestDriver driver = new LoadTestDriver(new LoadTestArgs(args));
+        int status = driver.run();
+        System.exit(status);
+    }
+
+    int run() throws Exception {
+        int users = options.getInt("users", 16);
+        long durationMs = options.getLong("duration-s", 60) * 1000;
+        long warmupMs = options.getLong("warmup-s", 10) * 1000;
+
+        System.out.println("Seeding synthetic database...");
+        try (FakeLlmServer llm = new FakeLlmServer(0, options.getLong("llm-latency-ms", 300),
+                options.getLong("llm-chunk-ms", 5), options.getDouble("llm-error-rate", 0));
+             SyntheticDatabase database = new SyntheticDatabase("loadtest", options.getInt("customers", 10000),
+                options.getInt("db-port", 9092))) {
+            ConfigurableApplicationContext app = null;
+            String target = options.get("target", null);
+            if (target != null) {
+                baseUrl = target.replaceAll("/+$", "");
+            } else {
+                app = startApi(llm);
+                baseUrl = "http://127.0.0.1:" + app.getEnvironment().getProperty("local.server.port");
+            }
+            try {
+                System.out.println("API at " + baseUrl + ", fake LLM at " + llm.getCompletionsUrl()
+                    + ", H2 on port " + database.getPort());
+                connectionIds = new ArrayList<>();
+                for (int i = 0; i < options.getInt("connections", 4); i++) {
+                    JsonNode created = postJson("/api/create-connection", database.connectionConfig());
+                    if (!created.path("success").asBoolean()) {
+                        throw new IllegalStateException("Could not create a connection: " + created);
+                    }
+                    connectionIds.add(created.path("connectionId").asText());
+                }
+
+                System.out.printf("Warming up for %d s with %d users...%n", warmupMs / 1000, users);
+                runUsers(users, warmupMs, database);
+                Map<String, Map<String, Double>> before = scrapeHistograms();
+                System.out.printf("Measuring for %d s...%n", durationMs / 1000);
+                recording = true;
+                long started = System.nanoTime();
+                runUsers(users, durationMs, database);
+                double elapsedS = (System.nanoTime() - started) / 1e9;
+                recording = false;
+                Map<String, Map<String, Double>> after = scrapeHistograms();
+
+                Map<String, Object> report = report(users, elapsedS, before, after, llm);
+                File output = new File(options.get("output", "target/loadtest-result.json"));
+                if (output.getParentFile() != null) {
+                    output.getParentFile().mkdirs();
+                }
+                mapper.writeValue(output, report);
+                System.out.println("Results written to " + output.getPath());
+                return 0;
+            } finally {
+                if (app != null) {
+                    SpringApplication.exit(app);
+                }
+            }
+        }
+    }
+
+    private ConfigurableApplicationContext startApi(FakeLlmServer llm) {
+        List<String> args = new ArrayList<>(List.of(
+            "--server.port=0",
+            "--dbchat.llm.url=" + llm.getCompletionsUrl(),
+            "--dbchat.llm.token=",
+            "--dbchat.connections.allow-h2=true",
+            "--logging.level.root=WARN",
+            "--logging.level.com.horhge.sql=WARN"));
+        options.forEachPrefixed("app.", (name, value) -> args.add("--" + name + "=" + value));
+        return SpringApplication.run(SqlApplication.class, args.toArray(new String[0]));
+    }
+
+    private void runUsers(int users, long durationMs, SyntheticDatabase database) throws InterruptedException {
+        Map<String, Integer> mix = parseMix(options.get("mix", "query=90,create=5,list=5"));
+        int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        long deadline = System.currentTimeMillis() + durationMs;
+        CountDownLatch done = new CountDownLatch(users);
+        for (int u = 0; u < users; u++) {
+            Thread user = new Thread(() -> {
+                try {
+                    while (System.currentTimeMillis() < deadline) {
+                        int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+                        for (Map.Entry<String, Integer> op : mix.entrySet()) {
+                            pick -= op.getValue();
+                            if (pick < 0) {
+                                runOperation(op.getKey(), database);
+                                break;
+                            }
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }, "load-user-" + u);
+            user.setDaemon(true);
+            user.start();
+        }
+        done.await();
+    }
+
+    private void runOperation(String operation, SyntheticDatabase database) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch (operation) {
+            case "query" -> {
+                String question = QUESTIONS.get(random.nextInt(QUESTIONS.size()));
+                if (random.nextDouble() < options.getDouble("unique-prompts", 0.2)) {
+                    question += " for segment " + Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+                }
+                Map<String, Object> body = Map.of(
+                    "prompt", question,
+                    "enableChart", Boolean.parseBoolean(options.get("chart", "true")),
+                    "connectionId", connectionIds.get(random.nextInt(connectionIds.size())));
+                timed("POST /api/query", () -> {
+                    JsonNode response = postJson("/api/query", body);
+                    return !response.has("error");
+                });
+            }
+            case "create" -> {
+                String[] id = new String[1];
+                timed("POST /api/create-connection", () -> {
+                    JsonNode response = postJson("/api/create-connection", database.connectionConfig());
+                    id[0] = response.path("connectionId").asText(null);
+                    return response.path("success").asBoolean();
+                });
+                if (id[0] != null) {
+                    timed("DELETE /api/connections/{id}", () -> send(HttpRequest.newBuilder(uri("/api/connections/" + id[0]))
+                        .DELETE().build()).statusCode() == 200);
+                }
+            }
+            case "list" -> timed("GET /api/connections", () -> send(HttpRequest.newBuilder(uri("/api/connections"))
+                .GET().build()).statusCode() == 200);
+            default -> throw new IllegalArgumentException("Unknown operation in --mix: " + operation);
+        }
+    }
+
+    private interface Call {
+        boolean run() throws Exception;
+    }
+
+    private void timed(String endpoint, Call call) {
+        long start = System.nanoTime();
+        boolean ok;
+        try {
+            ok = call.run();
+        } catch (Exception e) {
+            ok = false;
+        }
+        if (recording) {
+            recorders.computeIfAbsent(endpoint, k -> new Recorder()).add(System.nanoTime() - start, ok);
+        }
+    }
+
+    private JsonNode postJson(String path, Object body) throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(uri(path))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(body)))
+            .build());
+        return mapper.readTree(response.body());
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws Exception {
+        return http.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private URI uri(String path) {
+        return URI.create(baseUrl + path);
+    }
+
+    private static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String part : mix.split(",")) {
+            String[] kv = part.trim().split("=");
+            weights.put(kv[0].trim(), Integer.parseInt(kv[1].trim()));
+        }
+        return weights;
+    }
+
+    // Client-side latencies of one endpoint
+    private static class Recorder {
+        private long[] nanos = new long[1024];
+        private int count;
+        private int errors;
+
+        synchronized void add(long elapsed, boolean ok) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = elapsed;
+            if (!ok) errors++;
+        }
+
+        synchronized Map<String, Object> summary(double elapsedS) {
+            long[] sorted = Arrays.copyOf(nanos, count);
+            Arrays.sort(sorted);
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("count", count);
+            summary.put("errors", errors);
+            summary.put("throughputPerSecond", round(count / elapsedS));
+            for (double p : PERCENTILES) {
+                summary.put(percentileKey(p), count == 0 ? 0 : round(sorted[(int) Math.ceil(p * count) - 1] / 1e6));
+            }
+            summary.put("maxMs", count == 0 ? 0 : round(sorted[count - 1] / 1e6));
+            return summary;
+        }
+    }
+
+    // Cumulative bucket counts per series ("dbchat_query_stage:schema" -> le -> count), summed over outcomes
+    private Map<String, Map<String, Double>> scrapeHistograms() throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/actuator/prometheus")).GET().build());
+        Pattern line = Pattern.compile("^(dbchat_query(?:_stage)?)_seconds_bucket\\{(.*)} (\\S+)$");
+        Pattern label = Pattern.compile("(\\w+)=\"([^\"]*)\"");
+        Map<String, Map<String, Double>> series = new TreeMap<>();
+        for (String text : response.body().split("\n")) {
+            Matcher m = line.matcher(text);
+            if (!m.matches()) {
+                continue;
+            }
+            Map<String, String> labels = new LinkedHashMap<>();
+            Matcher l = label.matcher(m.group(2));
+            while (l.find()) {
+                labels.put(l.group(1), l.group(2));
+            }
+            if (!"h2".equals(labels.get("connection_type"))) {
+                continue;
+            }
+            String name = m.group(1).equals("dbchat_query") ? "total" : labels.get("stage");
+            series.computeIfAbsent(name, k -> new TreeMap<>())
+                .merge(labels.get("le"), Double.parseDouble(m.group(3)), Double::sum);
+        }
+        return series;
+    }
+
+    private Map<String, Object> report(int users, double elapsedS, Map<String, Map<String, Double>> before,
+                                       Map<String, Map<String, Double>> after, FakeLlmServer llm) {
+        Map<String, Object> endpoints = new TreeMap<>();
+        recorders.forEach((endpoint, recorder) -> endpoints.put(endpoint, recorder.summary(elapsedS)));
+
+        Map<String, Object> stages = new LinkedHashMap<>();
+        for (String stage : List.of("schema", "sql_generation", "execution", "insights", "chart", "total")) {
+            Map<String, Double> end = after.get(stage);
+            if (end == null) {
+                continue;
+            }
+            Map<String, Double> start = before.getOrDefault(stage, Map.of());
+            // Bucket deltas over the measured window, ordered by upper bound
+            TreeMap<Double, Double> buckets = new TreeMap<>();
+            end.forEach((le, count) -> buckets.put(le.equals("+Inf") ? Double.POSITIVE_INFINITY : Double.parseDouble(le),
+                count - start.getOrDefault(le, 0.0)));
+            double total = buckets.lastEntry().getValue();
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("count", (long) total);
+            for (double p : PERCENTILES) {
+                summary.put(percentileKey(p), round(quantile(buckets, p * total) * 1000));
+            }
+            stages.put(stage, summary);
+        }
+
+        System.out.println();
+        System.out.printf("%-32s %8s %7s %9s %9s %9s %9s %9s%n", "Endpoint", "count", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        endpoints.forEach((endpoint, s) -> {
+            Map<?, ?> m = (Map<?, ?>) s;
+            System.out.printf("%-32s %8s %7s %9s %9s %9s %9s %9s%n", endpoint, m.get("count"), m.get("errors"),
+                m.get("throughputPerSecond"), m.get("p50Ms"), m.get("p95Ms"), m.get("p99Ms"), m.get("maxMs"));
+        });
+        System.out.println();
+        System.out.printf("%-32s %8s %9s %9s %9s%n", "Stage (server, histogram)", "count", "p50 ms", "p95 ms", "p99 ms");
+        stages.forEach((stage, s) -> {
+            Map<?, ?> m = (Map<?, ?>) s;
+            System.out.printf("%-32s %8s %9s %9s %9s%n", stage, m.get("count"), m.get("p50Ms"), m.get("p95Ms"), m.get("p99Ms"));
+        });
+        System.out.println();
+
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("users", users);
+        config.put("durationSeconds", round(elapsedS));
+        config.put("mix", options.get("mix", "query=90,create=5,list=5"));
+        config.put("uniquePrompts", options.getDouble("unique-prompts", 0.2));
+        config.put("chart", Boolean.parseBoolean(options.get("chart", "true")));
+        config.put("llmLatencyMs", options.getLong("llm-latency-ms", 300));
+        config.put("llmChunkMs", options.getLong("llm-chunk-ms", 5));
+        config.put("llmErrorRate", options.getDouble("llm-error-rate", 0));
+        config.put("customers", options.getInt("customers", 10000));
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("config", config);
+        report.put("endpoints", endpoints);
+        report.put("stages", stages);
+        report.put("llmRequests", llm.getRequests());
+        return report;
+    }
+
+    // Linear interpolation inside the bucket holding the target rank (seconds)
+    private static double quantile(TreeMap<Double, Double> buckets, double rank) {
+        double previousBound = 0;
+        double previousCount = 0;
+        for (Map.Entry<Double, Double> bucket : buckets.entrySet()) {
+            if (bucket.getValue() >= rank && bucket.getValue() > previousCount) {
+                if (bucket.getKey().isInfinite()) {
+                    return previousBound;
+                }
+                double share = (rank - previousCount) / (bucket.getValue() - previousCount);
+                return previousBound + (bucket.getKey() - previousBound) * share;
+            }
+            previousBound = bucket.getKey();
+            previousCount = bucket.getValue();
+        }
+        return previousBound;
+    }
+
+    private static String percentileKey(double p) {
+        return "p" + Math.round(p * 100) + "Ms";
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
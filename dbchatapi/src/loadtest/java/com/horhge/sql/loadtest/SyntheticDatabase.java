@@ -0,0 +1,89 @@
+package com.horhge.sql.loadtest;
+
+import org.h2.tools.Server;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+/**
+ * In-memory H2 database with a small sales schema, served over H2's TCP server so the API can connect
+ * to it like any other database (connection type "h2", database "mem:&lt;name&gt;").
+ * <pre>
+ * sales.customers(id, name, region, created_at)
+ * sales.products(id, name, category, price)
+ * sales.orders(id, customer_id, order_date, status)
+ * sales.order_items(order_id, line_no, product_id, quantity, unit_price)
+ * </pre>
+ */
+public class SyntheticDatabase implements AutoCloseable {
+    private final String name;
+    private final Connection keepAlive;
+    private final Server tcpServer;
+
+    /**
+     * @param name Database name
+     * @param customers Customer rows; products are customers / 10, orders 10x and items 30x customers
+     * @param tcpPort Port for the TCP server, 0 for any free port
+     */
+    public SyntheticDatabase(String name, int customers, int tcpPort) throws SQLException {
+        this.name = name;
+        // The open connection keeps the in-memory database alive
+        keepAlive = DriverManager.getConnection("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "");
+        int products = Math.max(10, customers / 10);
+        int orders = customers * 10;
+        try (Statement stmt = keepAlive.createStatement()) {
+            stmt.execute("CREATE SCHEMA sales");
+            stmt.execute("CREATE TABLE sales.customers (id BIGINT PRIMARY KEY, name VARCHAR(100) NOT NULL, "
+                + "region VARCHAR(20) NOT NULL, created_at TIMESTAMP NOT NULL)");
+            stmt.execute("CREATE TABLE sales.products (id BIGINT PRIMARY KEY, name VARCHAR(100) NOT NULL, "
+                + "category VARCHAR(40) NOT NULL, price DECIMAL(10, 2) NOT NULL)");
+            stmt.execute("CREATE TABLE sales.orders (id BIGINT PRIMARY KEY, "
+                + "customer_id BIGINT NOT NULL REFERENCES sales.customers(id), order_date DATE NOT NULL, "
+                + "status VARCHAR(20) NOT NULL)");
+            stmt.execute("CREATE TABLE sales.order_items (order_id BIGINT NOT NULL REFERENCES sales.orders(id), "
+                + "line_no INT NOT NULL, product_id BIGINT NOT NULL REFERENCES sales.products(id), "
+                + "quantity INT NOT NULL, unit_price DECIMAL(10, 2) NOT NULL, PRIMARY KEY (order_id, line_no))");
+
+            stmt.execute("INSERT INTO sales.customers SELECT X, 'Customer ' || X, "
+                + "ARRAY['north', 'south', 'east', 'west', 'central'][MOD(X, 5) + 1], "
+                + "DATEADD('DAY', -MOD(X * 37, 1500), TIMESTAMP '2025-01-01 00:00:00') FROM SYSTEM_RANGE(1, " + customers + ")");
+            stmt.execute("INSERT INTO sales.products SELECT X, 'Product ' || X, "
+                + "'Category ' || (MOD(X, 12) + 1), ROUND(5 + MOD(X * 7919, 495) + MOD(X, 100) / 100.0, 2) "
+                + "FROM SYSTEM_RANGE(1, " + products + ")");
+            stmt.execute("INSERT INTO sales.orders SELECT X, MOD(X * 31, " + customers + ") + 1, "
+                + "DATEADD('DAY', -MOD(X * 13, 730), DATE '2025-01-01'), "
+                + "ARRAY['shipped', 'delivered', 'pending', 'cancelled'][MOD(X, 4) + 1] FROM SYSTEM_RANGE(1, " + orders + ")");
+            stmt.execute("INSERT INTO sales.order_items SELECT o.X, l.X, MOD(o.X * 17 + l.X * 101, " + products + ") + 1, "
+                + "MOD(o.X + l.X, 5) + 1, ROUND(5 + MOD((o.X + l.X) * 7919, 495), 2) "
+                + "FROM SYSTEM_RANGE(1, " + orders + ") o, SYSTEM_RANGE(1, 3) l");
+            stmt.execute("ANALYZE");
+        }
+        tcpServer = Server.createTcpServer("-tcpPort", String.valueOf(tcpPort), "-tcpAllowOthers").start();
+    }
+
+    public int getPort() {
+        return tcpServer.getPort();
+    }
+
+    /**
+     * @return /api/create-connection body for this database
+     */
+    public Map<String, Object> connectionConfig() {
+        return Map.of(
+            "type", "h2",
+            "host", "127.0.0.1",
+            "port", String.valueOf(getPort()),
+            "database", "mem:" + name,
+            "username", "sa",
+            "encryptedKey", "");
+    }
+
+    @Override
+    public void close() throws SQLException {
+        tcpServer.stop();
+        keepAlive.close();
+    }
+}
@@ -0,0 +1,57 @@
+package com.horhge.sql.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Executors for the query pipeline stages. LLM calls and JDBC work are I/O bound: with virtual
+ * threads enabled (spring.threads.virtual.enabled) each task gets its own virtual thread and the
+ * limits sit on the scarce resources instead (connection pools, the LLM limiter); otherwise they get
+ * bounded pools. Chart rendering is CPU bound and always runs on a pool sized to the available cores.
+ */
+@Configuration
+public class ExecutorConfig {
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Bean(name = "llmExecutor")
+    public AsyncTaskExecutor llmExecutor(@Value("${dbchat.executor.llm.threads:16}") int threads,
+                                         @Value("${dbchat.executor.llm.queue:200}") int queue) {
+        return virtualThreads ? virtualExecutor("llm-") : executor("llm-", threads, queue);
+    }
+
+    @Bean(name = "dbExecutor")
+    public AsyncTaskExecutor dbExecutor(@Value("${dbchat.executor.db.threads:16}") int threads,
+                                        @Value("${dbchat.executor.db.queue:200}") int queue) {
+        return virtualThreads ? virtualExecutor("db-") : executor("db-", threads, queue);
+    }
+
+    @Bean(name = "chartExecutor")
+    public ThreadPoolTaskExecutor chartExecutor(@Value("${dbchat.executor.chart.threads:0}") int threads,
+                                                @Value("${dbchat.executor.chart.queue:100}") int queue) {
+        int size = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        return executor("chart-", size, queue);
+    }
+
+    private AsyncTaskExecutor virtualExecutor(String prefix) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(prefix);
+        executor.setVirtualThreads(true);
+        return executor;
+    }
+
+    private ThreadPoolTaskExecutor executor(String prefix, int threads, int queue) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix(prefix);
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queue);
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.initialize();
+        return executor;
+    }
+}
@@ -0,0 +1,107 @@
+package com.horhge.sql.config;
+
+import com.horhge.sql.service.AiService;
+import com.horhge.sql.service.ChartCache;
+import com.horhge.sql.service.LlmBackendGuard;
+import com.horhge.sql.service.PromptSimilarityIndex;
+import com.horhge.sql.service.ResultCache;
+import com.horhge.sql.service.ResultPager;
+import com.horhge.sql.service.SqlCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Cache, cursor, request-coalescing and LLM guard metrics, read from the components' stats() maps at
+ * scrape time. Connection pool metrics (hikaricp_*) are registered by the pools themselves.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder dbchatMetrics(SqlCache sqlCache, PromptSimilarityIndex promptSimilarityIndex,
+                                     ResultCache resultCache, ResultPager resultPager, AiService aiService,
+                                     ChartCache chartCache, LlmBackendGuard llmBackendGuard,
+                                     @Qualifier("chartExecutor") ThreadPoolTaskExecutor chartExecutor) {
+        return registry -> {
+            cache(registry, "sql", sqlCache, SqlCache::stats, List.of("entries", "bytes"), List.of("hits", "misses", "evictions"));
+            cache(registry, "results", resultCache, ResultCache::stats, List.of("entries", "bytes"),
+                List.of("hits", "misses", "shared", "evictions"));
+            cache(registry, "charts", chartCache, ChartCache::stats, List.of("entries", "bytes"),
+                List.of("hits", "misses", "shared", "evictions"));
+            cache(registry, "similar_prompts", promptSimilarityIndex, PromptSimilarityIndex::stats, List.of("entries"),
+                List.of("lookups", "matches"));
+            gauge(registry, "dbchat.cursors.open", resultPager, ResultPager::stats, "openCursors");
+            // Chart renders waiting for a worker, and workers busy rendering
+            Gauge.builder("dbchat.chart.queue", chartExecutor, ThreadPoolTaskExecutor::getQueueSize).register(registry);
+            Gauge.builder("dbchat.chart.active", chartExecutor, ThreadPoolTaskExecutor::getActiveCount).register(registry);
+
+            for (String work : List.of("schemaLoads", "sqlGenerations", "aiCalls")) {
+                counter(registry, "dbchat.singleflight.calls", aiService, AiService::singleFlightStats, work, "calls");
+                counter(registry, "dbchat.singleflight.suppressed", aiService, AiService::singleFlightStats, work, "suppressed");
+            }
+
+            gauge(registry, "dbchat.llm.limit", llmBackendGuard, LlmBackendGuard::state, "limiter", "limit");
+            gauge(registry, "dbchat.llm.inflight", llmBackendGuard, LlmBackendGuard::state, "limiter", "inFlight");
+            gauge(registry, "dbchat.llm.queued", llmBackendGuard, LlmBackendGuard::state, "limiter", "queued");
+            counter(registry, "dbchat.llm.rejected", llmBackendGuard, LlmBackendGuard::state, "limiter", "rejected");
+            counter(registry, "dbchat.llm.retries", llmBackendGuard, LlmBackendGuard::state, "retries");
+            counter(registry, "dbchat.llm.short.circuited", llmBackendGuard, LlmBackendGuard::state, "breaker", "shortCircuited");
+            // 0 = closed, 1 = half-open, 2 = open
+            Gauge.builder("dbchat.llm.breaker.state", llmBackendGuard, guard -> switch (guard.getBreakerState()) {
+                    case CLOSED -> 0;
+                    case HALF_OPEN -> 1;
+                    case OPEN -> 2;
+                })
+                .register(registry);
+        };
+    }
+
+    // Meters only hold their state object weakly; the beans themselves are used so they stay reachable
+    private static <T> void cache(MeterRegistry registry, String cache, T component, Function<T, Map<String, Object>> stats,
+                                  List<String> gauges, List<String> counters) {
+        for (String key : gauges) {
+            Gauge.builder("dbchat.cache." + key, component, c -> value(stats.apply(c), key)).tag("cache", cache).register(registry);
+        }
+        for (String key : counters) {
+            FunctionCounter.builder("dbchat.cache." + key, component, c -> value(stats.apply(c), key)).tag("cache", cache)
+                .register(registry);
+        }
+    }
+
+    private static <T> void gauge(MeterRegistry registry, String name, T component, Function<T, Map<String, Object>> stats,
+                                  String... path) {
+        Gauge.builder(name, component, c -> value(stats.apply(c), path)).tags(tags(name, path)).register(registry);
+    }
+
+    private static <T> void counter(MeterRegistry registry, String name, T component, Function<T, Map<String, Object>> stats,
+                                    String... path) {
+        FunctionCounter.builder(name, component, c -> value(stats.apply(c), path)).tags(tags(name, path)).register(registry);
+    }
+
+    // Single-flight counters are tagged with the work unit (the first path element)
+    private static String[] tags(String name, String[] path) {
+        return name.startsWith("dbchat.singleflight.") ? new String[]{"work", path[0]} : new String[0];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static double value(Map<String, Object> stats, String... path) {
+        Object node = stats;
+        for (String key : path) {
+            if (!(node instanceof Map)) {
+                return Double.NaN;
+            }
+            node = ((Map<String, Object>) node).get(key);
+        }
+        return node instanceof Number number ? number.doubleValue() : Double.NaN;
+    }
+}
@@ -2,10 +2,37 @@ package com.horhge.sql.controller;
 
 import  com.horhge.sql.service.AiService;
 import com.horhge.sql.service.HuggingFaceClient;
+import com.horhge.sql.service.ChartCache;
+import com.horhge.sql.service.ChartOptions;
+import com.horhge.sql.service.ChartRenderer;
 import com.horhge.sql.service.ConnectionManager;
+import com.horhge.sql.service.LlmBackendGuard;
+import com.horhge.sql.service.PipelineMetrics;
+import com.horhge.sql.service.PromptSimilarityIndex;
+import com.horhge.sql.service.QueryEventListener;
+import com.horhge.sql.service.QueryCostGuard;
+import com.horhge.sql.service.ResultCache;
+import com.horhge.sql.service.ResultPager;
+import com.horhge.sql.service.SchemaCache;
+import com.horhge.sql.service.SchemaSnapshot;
+import com.horhge.sql.service.SqlCache;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.HttpStatus;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -24,32 +51,130 @@ public class QueryController {
     @Autowired
     private ConnectionManager connectionManager;
 
+    @Autowired
+    private HuggingFaceClient huggingFaceClient;
+
+    @Autowired
+    private SchemaCache schemaCache;
+
+    @Autowired
+    private SqlCache sqlCache;
+
+    @Autowired
+    private PromptSimilarityIndex promptSimilarityIndex;
+
+    @Autowired
+    private ResultCache resultCache;
+
+    @Autowired
+    private ResultPager resultPager;
+
+    @Autowired
+    private QueryCostGuard queryCostGuard;
+
+    @Autowired
+    private ChartCache chartCache;
+
+    @Autowired
+    private ChartRenderer chartRenderer;
+
+    @Autowired
+    private LlmBackendGuard llmBackendGuard;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    @Qualifier("dbExecutor")
+    private Executor dbExecutor;
+
+    @Autowired
+    @Qualifier("llmExecutor")
+    private Executor llmExecutor;
+
+    @Value("${dbchat.stream.timeout-ms:120000}")
+    private long streamTimeoutMs;
+
+    @Value("${dbchat.request.timeout-ms:120000}")
+    private long requestTimeoutMs;
+
     @PostMapping("/query")
-    public ResponseEntity<Map<String, Object>> query(@RequestBody Map<String, Object> body) {
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> query(@RequestBody Map<String, Object> body, HttpServletRequest request) {
         String prompt = (String) body.getOrDefault("prompt", "");
         boolean enableChart = body.get("enableChart") instanceof Boolean ? (Boolean) body.get("enableChart") : true;
         String connectionId = (String) body.get("connectionId");
+        boolean paged = Boolean.TRUE.equals(body.get("paged"));
+        ChartOptions chartOptions = chartOptions(body);
+        String confirmToken = (String) body.get("confirmToken");
 
-        logger.info("/api/query called with prompt: {} (enableChart={}, connectionId={})", prompt, enableChart, connectionId);
+        logger.info("/api/query called with prompt: {} (enableChart={}, connectionId={}, paged={})", prompt, enableChart, connectionId, paged);
+        request.setAttribute(PipelineMetrics.CONNECTION_TYPE_ATTRIBUTE, pipelineMetrics.connectionType(connectionId));
 
-        Map<String, Object> response = aiService.queryAi(prompt, enableChart, connectionId);
-        logger.info("/api/query response: {}", response.keySet());
+        // The servlet thread is released here; the pipeline runs on the llm/db/chart executors
+        return withTimeout("/api/query", aiService.queryAiAsync(prompt, enableChart, connectionId, paged, chartOptions, confirmToken,
+                QueryEventListener.NONE)
+            .thenApply(response -> {
+                logger.info("/api/query response: {}", response.keySet());
 
-        if (response.containsKey("error")) {
-            logger.error("/api/query error: {}", response.get("error"));
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
-        }
-        if (response.containsKey("chartImageError")) {
-            logger.error("/api/query chart image error: {}", response.get("chartImageError"));
-            // Still return 200, but log the error for chart image only
-        }
-        return ResponseEntity.ok(response);
+                if (response.get("costEstimate") instanceof Map<?, ?> cost && "rejected".equals(cost.get("outcome"))) {
+                    logger.warn("/api/query rejected by cost guard: {}", response.get("error"));
+                    return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(response);
+                }
+                if (response.containsKey("error")) {
+                    logger.error("/api/query error: {}", response.get("error"));
+                    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+                }
+                if (response.containsKey("chartImageError")) {
+                    logger.error("/api/query chart image error: {}", response.get("chartImageError"));
+                    // Still return 200, but log the error for chart image only
+                }
+                return ResponseEntity.ok(response);
+            }));
+    }
+
+    @PostMapping(value = "/query/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter queryStream(@RequestBody Map<String, Object> body, HttpServletRequest request) {
+        String prompt = (String) body.getOrDefault("prompt", "");
+        boolean enableChart = body.get("enableChart") instanceof Boolean ? (Boolean) body.get("enableChart") : true;
+        String connectionId = (String) body.get("connectionId");
+        boolean paged = Boolean.TRUE.equals(body.get("paged"));
+        ChartOptions chartOptions = chartOptions(body);
+        String confirmToken = (String) body.get("confirmToken");
+
+        logger.info("/api/query/stream called with prompt: {} (enableChart={}, connectionId={}, paged={})", prompt, enableChart, connectionId, paged);
+        request.setAttribute(PipelineMetrics.CONNECTION_TYPE_ATTRIBUTE, pipelineMetrics.connectionType(connectionId));
+
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        QueryEventListener listener = (event, data) -> {
+            try {
+                emitter.send(SseEmitter.event().name(event).data(data, MediaType.APPLICATION_JSON));
+            } catch (Exception e) {
+                // Client went away; the pipeline still finishes so caches stay warm
+                logger.debug("/api/query/stream: could not send {} event: {}", event, e.getMessage());
+            }
+        };
+
+        aiService.queryAiAsync(prompt, enableChart, connectionId, paged, chartOptions, confirmToken, listener).whenComplete((response, ex) -> {
+            Map<String, Object> done = new HashMap<>();
+            if (response != null && response.containsKey("warning")) {
+                done.put("warning", response.get("warning"));
+            }
+            listener.onEvent("done", done);
+            emitter.complete();
+            logger.info("/api/query/stream completed: {}", response != null ? response.keySet() : "no response");
+        });
+        return emitter;
     }
 
     @PostMapping("/create-connection")
-    public ResponseEntity<Map<String, Object>> createConnection(@RequestBody Map<String, Object> dbConfig) {
-        Map<String, Object> result = new HashMap<>();
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> createConnection(@RequestBody Map<String, Object> dbConfig) {
         logger.info("/api/create-connection called");
+        // Opening the pool blocks on the database
+        return async("/api/create-connection", dbExecutor, () -> doCreateConnection(dbConfig));
+    }
+
+    private ResponseEntity<Map<String, Object>> doCreateConnection(Map<String, Object> dbConfig) {
+        Map<String, Object> result = new HashMap<>();
 
         try {
             String connectionId = connectionManager.createConnection(dbConfig);
@@ -75,9 +200,13 @@ public class QueryController {
     }
 
     @PostMapping("/test-connection")
-    public ResponseEntity<Map<String, Object>> testConnection(@RequestBody Map<String, Object> dbConfig) {
-        Map<String, Object> result = new HashMap<>();
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> testConnection(@RequestBody Map<String, Object> dbConfig) {
         logger.info("/api/test-connection called");
+        return async("/api/test-connection", dbExecutor, () -> doTestConnection(dbConfig));
+    }
+
+    private ResponseEntity<Map<String, Object>> doTestConnection(Map<String, Object> dbConfig) {
+        Map<String, Object> result = new HashMap<>();
 
         try {
             // Create a temporary connection just for testing
@@ -125,6 +254,10 @@ public class QueryController {
         Map<String, Object> result = new HashMap<>();
         try {
             connectionManager.removeConnection(connectionId);
+            schemaCache.evict(connectionId);
+            resultCache.invalidate(connectionId);
+            queryCostGuard.invalidate(connectionId);
+            resultPager.closeAll(connectionId);
             result.put("success", true);
             result.put("message", "Connection removed successfully");
             logger.info("/api/connections/{}: Connection removed", connectionId);
@@ -137,13 +270,154 @@ public class QueryController {
         }
     }
 
+    @PostMapping("/connections/{connectionId}/schema/refresh")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> refreshSchema(@PathVariable String connectionId) {
+        return async("/api/connections/" + connectionId + "/schema/refresh", dbExecutor, () -> doRefreshSchema(connectionId));
+    }
+
+    private ResponseEntity<Map<String, Object>> doRefreshSchema(String connectionId) {
+        Map<String, Object> result = new HashMap<>();
+        JdbcTemplate jdbc = connectionManager.getConnection(connectionId);
+        if (jdbc == null) {
+            result.put("success", false);
+            result.put("message", "Invalid or expired connection ID. Please reconnect to the database.");
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(result);
+        }
+        try {
+            SchemaSnapshot snapshot = schemaCache.refresh(connectionId, jdbc);
+            queryCostGuard.invalidate(connectionId);
+            result.put("success", true);
+            result.put("message", "Schema refreshed successfully");
+            result.put("schemaChars", snapshot.getSchemaText().length());
+            result.put("builtAt", snapshot.getBuiltAt());
+            logger.info("/api/connections/{}/schema/refresh: Schema refreshed", connectionId);
+            return ResponseEntity.ok(result);
+        } catch (Exception e) {
+            logger.error("/api/connections/{}/schema/refresh error: {}", connectionId, e.getMessage(), e);
+            result.put("success", false);
+            result.put("message", "Failed to refresh schema: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(result);
+        }
+    }
+
+    @GetMapping("/cache/stats")
+    public ResponseEntity<Map<String, Object>> cacheStats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("sql", sqlCache.stats());
+        result.put("similarPrompts", promptSimilarityIndex.stats());
+        result.put("results", resultCache.stats());
+        result.put("charts", chartCache.stats());
+        result.put("cursors", resultPager.stats());
+        result.put("plans", queryCostGuard.stats());
+        result.put("singleFlight", aiService.singleFlightStats());
+        return ResponseEntity.ok(result);
+    }
+
+    @GetMapping("/llm/state")
+    public ResponseEntity<Map<String, Object>> llmState() {
+        return ResponseEntity.ok(llmBackendGuard.state());
+    }
+
+    @DeleteMapping("/cache/sql")
+    public ResponseEntity<Map<String, Object>> clearSqlCache() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", true);
+        result.put("removed", sqlCache.invalidateAll());
+        promptSimilarityIndex.clear();
+        logger.info("/api/cache/sql: SQL cache cleared");
+        return ResponseEntity.ok(result);
+    }
+
+    @DeleteMapping("/cache/results")
+    public ResponseEntity<Map<String, Object>> clearResultCache() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", true);
+        result.put("removed", resultCache.invalidateAll());
+        logger.info("/api/cache/results: Result cache cleared");
+        return ResponseEntity.ok(result);
+    }
+
+    @DeleteMapping("/cache/results/{connectionId}")
+    public ResponseEntity<Map<String, Object>> clearResultCache(@PathVariable String connectionId) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", true);
+        result.put("removed", resultCache.invalidate(connectionId));
+        logger.info("/api/cache/results/{}: Result cache cleared", connectionId);
+        return ResponseEntity.ok(result);
+    }
+
+    @GetMapping("/results/{handle}")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> resultPage(@PathVariable String handle,
+                                                                             @RequestParam(defaultValue = "1") int page) {
+        // Reads the next rows from the open cursor
+        return async("/api/results/" + handle, dbExecutor, () -> doResultPage(handle, page));
+    }
+
+    private ResponseEntity<Map<String, Object>> doResultPage(String handle, int page) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            ResultPager.Page rows = resultPager.page(handle, page);
+            if (rows == null) {
+                result.put("error", "Result handle expired or unknown. Please run the query again.");
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(result);
+            }
+            result.put("rowData", rows.getRows());
+            result.put("page", rows.getPage());
+            result.put("hasMore", rows.hasMore());
+            return ResponseEntity.ok(result);
+        } catch (ResultPager.PageGoneException e) {
+            result.put("error", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(result);
+        } catch (Exception e) {
+            logger.error("/api/results/{} error: {}", handle, e.getMessage(), e);
+            result.put("error", "SQL Error: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(result);
+        }
+    }
+
+    @GetMapping(value = "/charts/{hash:[0-9a-f]+}.png", produces = MediaType.IMAGE_PNG_VALUE)
+    public ResponseEntity<byte[]> chart(@PathVariable String hash, WebRequest request) {
+        // The URL names the content, so the image never changes and can be cached for good
+        String etag = "\"" + hash + "\"";
+        if (request.checkNotModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .eTag(etag)
+                .cacheControl(CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable())
+                .build();
+        }
+        byte[] png = chartCache.get(hash);
+        if (png == null) {
+            logger.info("/api/charts/{}.png: not cached (evicted or from before a restart)", hash);
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+            .eTag(etag)
+            .cacheControl(CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable())
+            .contentType(MediaType.IMAGE_PNG)
+            .body(png);
+    }
+
+    @DeleteMapping("/results/{handle}")
+    public ResponseEntity<Map<String, Object>> closeResult(@PathVariable String handle) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", resultPager.close(handle));
+        return ResponseEntity.ok(result);
+    }
+
     @PostMapping("/huggingface")
-    public ResponseEntity<Map<String, Object>> huggingFace(@RequestBody Map<String, String> body) {
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> huggingFace(@RequestBody Map<String, String> body) {
         String prompt = body.getOrDefault("prompt", "");
         logger.info("/api/huggingface called with prompt: {}", prompt);
+        return withTimeout("/api/huggingface", huggingFaceClient.generateTextAsync(prompt)
+            .handle((hfResponse, ex) -> huggingFaceResponse(hfResponse, ex)));
+    }
+
+    private ResponseEntity<Map<String, Object>> huggingFaceResponse(String hfResponse, Throwable failure) {
         Map<String, Object> result = new HashMap<>();
         try {
-            String hfResponse = HuggingFaceClient.generateText(prompt);
+            if (failure != null) {
+                throw failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+            }
             ObjectMapper mapper = new ObjectMapper();
             JsonNode root = mapper.readTree(hfResponse);
             String content = "";
@@ -156,7 +430,7 @@ public class QueryController {
             result.put("huggingface", content);
             logger.info("/api/huggingface response: content length {}", content.length());
             return ResponseEntity.ok(result);
-        } catch (Exception e) {
+        } catch (Throwable e) {
             logger.error("/api/huggingface error: {}", e.getMessage(), e);
             result.put("error", e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(result);
@@ -164,12 +438,16 @@ public class QueryController {
     }
 
     @PostMapping("/generate-image")
-    public ResponseEntity<Map<String, Object>> generateImage(@RequestBody Map<String, String> body) {
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> generateImage(@RequestBody Map<String, String> body) {
+        return async("/api/generate-image", llmExecutor, () -> doGenerateImage(body));
+    }
+
+    private ResponseEntity<Map<String, Object>> doGenerateImage(Map<String, String> body) {
         Map<String, Object> result = new HashMap<>();
         try {
             String prompt = body.get("prompt");
             logger.info("/api/generate-image called with prompt: {}", prompt);
-            String image = HuggingFaceClient.generateImage(prompt);
+            String image = huggingFaceClient.generateImage(prompt);
             result.put("image", image);
             logger.info("/api/generate-image response: image length {}", image != null ? image.length() : 0);
             return ResponseEntity.ok(result);
@@ -179,4 +457,48 @@ public class QueryController {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(result);
         }
     }
+
+    // Run blocking endpoint work off the servlet thread
+    private CompletableFuture<ResponseEntity<Map<String, Object>>> async(String endpoint, Executor executor,
+                                                                        Supplier<ResponseEntity<Map<String, Object>>> work) {
+        return withTimeout(endpoint, CompletableFuture.supplyAsync(work, executor));
+    }
+
+    // Answer 503 once dbchat.request.timeout-ms passes (the work itself keeps running so caches stay warm)
+    // and 500 when the work fails unexpectedly, in the same error shape as the endpoints themselves
+    private CompletableFuture<ResponseEntity<Map<String, Object>>> withTimeout(String endpoint,
+                                                                              CompletableFuture<ResponseEntity<Map<String, Object>>> work) {
+        return work.orTimeout(requestTimeoutMs, TimeUnit.MILLISECONDS).exceptionally(ex -> {
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            Map<String, Object> result = new HashMap<>();
+            if (cause instanceof TimeoutException) {
+                logger.warn("{} timed out after {} ms", endpoint, requestTimeoutMs);
+                result.put("error", "Request timed out after " + requestTimeoutMs + " ms");
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(result);
+            }
+            logger.error("{} error: {}", endpoint, cause.getMessage(), cause);
+            result.put("error", cause.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(result);
+        });
+    }
+
+    // Optional chartWidth, chartHeight (CSS pixels) and chartDpi in the request body, clamped to the limits
+    private ChartOptions chartOptions(Map<String, Object> body) {
+        return chartRenderer.options(intParam(body, "chartWidth"), intParam(body, "chartHeight"), intParam(body, "chartDpi"));
+    }
+
+    private static Integer intParam(Map<String, Object> body, String name) {
+        Object value = body.get(name);
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        if (value instanceof String && !((String) value).isBlank()) {
+            try {
+                return (int) Double.parseDouble((String) value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
 }
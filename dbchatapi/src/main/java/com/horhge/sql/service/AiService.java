@@ -2,13 +2,22 @@ package com.horhge.sql.service;
 
 import org.springframework.stereotype.Service;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.StatementCallback;
 import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.sql.ResultSet;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,8 +31,81 @@ public class AiService {
     @Autowired
     private ConnectionManager connectionManager;
 
+    @Autowired
+    private HuggingFaceClient huggingFaceClient;
+
+    @Autowired
+    private SchemaIntrospector schemaIntrospector;
+
+    @Autowired
+    private SchemaCache schemaCache;
+
+    @Autowired
+    private SchemaRetriever schemaRetriever;
+
+    @Autowired
+    private SqlCache sqlCache;
+
+    @Autowired
+    private PromptSimilarityIndex promptSimilarityIndex;
+
+    @Autowired
+    private ResultCache resultCache;
+
+    @Autowired
+    private ResultPager resultPager;
+
+    @Autowired
+    private ChartCache chartCache;
+
+    @Autowired
+    private ChartPlanner chartPlanner;
+
+    @Autowired
+    private QueryCostGuard queryCostGuard;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Value("${dbchat.results.fetch-size:500}")
+    private int resultFetchSize;
+
+    @Value("${dbchat.results.max-rows:100000}")
+    private int maxResultRows;
+
+    @Value("${dbchat.insights.raw-row-limit:100}")
+    private int insightsRawRowLimit;
+
+    @Value("${dbchat.insights.top-values:5}")
+    private int insightsTopValues;
+
+    @Value("${dbchat.insights.sample-rows:5}")
+    private int insightsSampleRows;
+
+    @Value("${dbchat.llm.stream:true}")
+    private boolean streamLlm;
+
+    @Value("${dbchat.stream.row-batch-size:500}")
+    private int rowBatchSize;
+
+    @Autowired
+    @Qualifier("llmExecutor")
+    private Executor llmExecutor;
+
+    @Autowired
+    @Qualifier("dbExecutor")
+    private Executor dbExecutor;
+
+
     private final ObjectMapper mapper = new ObjectMapper();
 
+    // Identical work already in flight is joined instead of started again: schema loads per connection,
+    // SQL generation per (schema fingerprint, normalized prompt), other AI calls per prompt text.
+    // SQL execution per normalized statement is coalesced by the result cache.
+    private final SingleFlight<String, SchemaSnapshot> schemaLoads = new SingleFlight<>();
+    private final SingleFlight<String, SqlGeneration> sqlGenerations = new SingleFlight<>();
+    private final SingleFlight<String, String> aiCalls = new SingleFlight<>();
+
     public Map<String, Object> queryAiTest(String prompt, boolean enableChart, Map<String, Object> dbConfig) {
         Map<String, Object> result = new HashMap<>();
         DriverManagerDataSource ds = null;
@@ -81,296 +163,539 @@ public class AiService {
         }
     }
 
-    public Map<String, Object> queryAi(String prompt, boolean enableChart, Map<String, Object> dbConfig) {
+    /**
+     * Run the query pipeline without blocking the caller
+     * @param prompt User question
+     * @param enableChart Whether to render a chart
+     * @param connectionId Connection ID, or null for the fallback DataSource
+     * @param paged Return only the first page of rows plus a handle for fetching the rest
+     * @param chartOptions Chart size and DPI
+     * @param confirmToken Token from an earlier response held back by the cost guard, to run that statement anyway
+     * @param listener Receives each stage's output as soon as it is available
+     * @return future completing with the full response map (never completes exceptionally)
+     */
+    public CompletableFuture<Map<String, Object>> queryAiAsync(String prompt, boolean enableChart, String connectionId,
+                                                               boolean paged, ChartOptions chartOptions, String confirmToken,
+                                                               QueryEventListener listener) {
         Map<String, Object> result = new HashMap<>();
         JdbcTemplate jdbc = null;
-        boolean usedFallback = false;
-        try {
-            logger.info("Received prompt: {} (enableChart={})", prompt, enableChart);
-            if (dbConfig != null) {
-                // Build JDBC URL based on dbConfig.type
-                String type = (String) dbConfig.getOrDefault("type", "mysql");
-                String host = (String) dbConfig.getOrDefault("host", "localhost");
-                String port = (String) dbConfig.getOrDefault("port", "3306");
-                String database = (String) dbConfig.getOrDefault("database", "");
-                String username = (String) dbConfig.getOrDefault("username", "");
-                String encryptedKey = (String) dbConfig.getOrDefault("encryptedKey", "");
-                String url = "";
-                String driverClass = "";
-                switch (type) {
-                    case "mysql":
-                        url = "jdbc:mysql://" + host + ":" + port + "/" + database + "?useSSL=false&serverTimezone=UTC";
-                        driverClass = "com.mysql.cj.jdbc.Driver";
-                        break;
-                    case "postgresql":
-                        url = "jdbc:postgresql://" + host + ":" + port + "/" + database;
-                        driverClass = "org.postgresql.Driver";
-                        break;
-                    case "mssql":
-                        url = "jdbc:sqlserver://" + host + ":" + port + ";databaseName=" + database;
-                        driverClass = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-                        break;
-                    case "oracle":
-                        url = "jdbc:oracle:thin:@" + host + ":" + port + ":" + database;
-                        driverClass = "oracle.jdbc.driver.OracleDriver";
-                        break;
-                    default:
-                        result.put("error", "Unsupported database type: " + type);
-                        return result;
-                }
-                DriverManagerDataSource ds = new DriverManagerDataSource();
-                ds.setDriverClassName(driverClass);
-                ds.setUrl(url);
-                ds.setUsername(username);
-                ds.setPassword(encryptedKey);
-                jdbc = new JdbcTemplate(ds);
-                logger.info("Using dynamic DB connection for queryAi.");
-            } else {
+
+        logger.info("Received prompt: {} (enableChart={}, connectionId={})", prompt, enableChart, connectionId);
+
+        if (connectionId != null && !connectionId.isEmpty()) {
+            // Use secure connection by ID
+            jdbc = connectionManager.getConnection(connectionId);
+            if (jdbc == null) {
+                return CompletableFuture.completedFuture(failed(result,
+                    "Invalid or expired connection ID. Please reconnect to the database.", listener));
+            }
+            logger.info("Using secure connection ID: {}", connectionId);
+        } else {
+            // Check if fallback connection is available
+            if (this.jdbcTemplate != null) {
                 jdbc = this.jdbcTemplate;
-                usedFallback = true;
-                logger.warn("No dbConfig provided, using fallback DataSource for queryAi.");
+                logger.warn("No connectionId provided, using fallback DataSource for queryAi.");
+                result.put("warning", "No database connection provided. Used fallback DataSource.");
+            } else {
+                return CompletableFuture.completedFuture(failed(result,
+                    "No database connection available. Please configure a database connection first.", listener));
             }
-            // Build schema-aware prompt
-            String schemaInfo = getDatabaseSchema(jdbc);
-            String fullPrompt = "Database schema:\n" + schemaInfo + "\n\nUser question: " + prompt;
-            // 1st AI call: generate SQL
-            logger.debug("Sending prompt to HuggingFace for SQL generation");
-            String hfResponse = HuggingFaceClient.generateText(fullPrompt);
+        }
 
-            // Check for API error in the response JSON
-            try {
-                JsonNode errorCheck = mapper.readTree(hfResponse);
-                if (errorCheck.has("error")) {
-                    String errMsg = errorCheck.get("error").asText();
-                    logger.error("Hugging Face API error: {}", errMsg);
-                    result.put("error", errMsg);
-                    return result;
-                }
-            } catch (Exception e) {
-                logger.warn("Could not parse Hugging Face response for error: {}", e.getMessage());
+        // Stage graph: schema -> SQL generation -> cost guard -> execution -> (insights || chart).
+        // SQL generation completes as soon as the SQL is known, which with a streamed completion is before
+        // the model has finished writing the rest of its answer; the chart waits for the full answer
+        // (ChartType). The cost guard may hold the statement back, in which case nothing runs after it.
+        // Insights and chart only depend on the executed rows, so they run at the same time.
+        final JdbcTemplate queryJdbc = jdbc;
+        String cacheKey = connectionId != null && !connectionId.isEmpty() ? connectionId : SchemaCache.DEFAULT_KEY;
+        // Every stage is timed (dbchat.query.stage) and tagged with the database type
+        String connectionType = pipelineMetrics.connectionType(connectionId);
+        long started = System.nanoTime();
+        try {
+            CompletableFuture<PromptSchema> schemaStage = pipelineMetrics.timeStage("schema", connectionType,
+                () -> loadSchemaStage(cacheKey, queryJdbc, prompt, connectionType));
+            CompletableFuture<SqlGeneration> sqlStage = schemaStage.thenComposeAsync(
+                schema -> pipelineMetrics.timeStage("sql_generation", connectionType,
+                    () -> generateSqlStage(schema, cacheKey, prompt, confirmToken, connectionType, listener)), llmExecutor);
+            CompletableFuture<QueryCostGuard.Check> guardStage = sqlStage.thenApplyAsync(
+                generation -> generation.sql != null ? pipelineMetrics.time("cost_guard", connectionType,
+                    () -> costGuardStage(cacheKey, connectionId, queryJdbc, schemaStage.join().dialect, generation.sql,
+                        confirmToken, listener)) : null, dbExecutor);
+            CompletableFuture<Execution> executionStage = guardStage.thenApplyAsync(
+                check -> check != null && !check.isHeld() ? pipelineMetrics.time("execution", connectionType,
+                    () -> executeStage(cacheKey, check, queryJdbc, paged, connectionType, listener)) : null, dbExecutor);
+            CompletableFuture<String> insightsStage = executionStage.thenComposeAsync(
+                execution -> execution != null ? pipelineMetrics.timeStage("insights", connectionType,
+                        () -> generateInsightsStage(prompt, execution.getRows(), connectionType, listener))
+                    : CompletableFuture.<String>completedFuture(null), llmExecutor);
+            CompletableFuture<String> completionStage = sqlStage.thenCompose(generation -> generation.completion);
+            // Rendering itself is queued on the chart pool; the stage time includes the wait
+            CompletableFuture<Map<String, Object>> chartStage = executionStage.thenCompose(execution ->
+                completionStage.thenCompose(aiContent -> enableChart && execution != null
+                    ? pipelineMetrics.timeStage("chart", connectionType,
+                        () -> chartStage(prompt, extractChartTypeFromJson(aiContent), guardStage.join(), execution,
+                            cacheKey, queryJdbc, schemaStage.join().dialect, chartOptions, listener))
+                    : CompletableFuture.completedFuture(Map.<String, Object>of())));
+            CompletableFuture<Void> rememberStage = executionStage.thenAcceptBoth(completionStage,
+                (execution, aiContent) -> rememberSql(cacheKey, prompt, schemaStage.join(), sqlStage.join(),
+                    guardStage.join(), execution, aiContent));
+
+            return CompletableFuture.allOf(insightsStage, chartStage, completionStage, rememberStage).handle((ignored, ex) -> {
+                Map<String, Object> response = collectResult(result, sqlStage, guardStage, executionStage, insightsStage,
+                    chartStage, listener);
+                pipelineMetrics.recordQuery(connectionType, System.nanoTime() - started, response.containsKey("error"));
+                return response;
+            });
+        } catch (Exception e) {
+            logger.error("Error in queryAi: {}", e.getMessage(), e);
+            return CompletableFuture.completedFuture(failed(result, e.getMessage(), listener));
+        }
+    }
+
+    /**
+     * Counters for request coalescing
+     * @return per work unit: calls, duplicates suppressed by joining an in-flight call, calls in flight
+     */
+    public Map<String, Object> singleFlightStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("schemaLoads", schemaLoads.stats());
+        stats.put("sqlGenerations", sqlGenerations.stats());
+        stats.put("aiCalls", aiCalls.stats());
+        stats.put("sqlExecutions", Map.of("suppressed", resultCache.stats().get("shared")));
+        return stats;
+    }
+
+    // Assemble the response once every stage has finished
+    private Map<String, Object> collectResult(Map<String, Object> result,
+                                              CompletableFuture<SqlGeneration> sqlStage,
+                                              CompletableFuture<QueryCostGuard.Check> guardStage,
+                                              CompletableFuture<Execution> executionStage,
+                                              CompletableFuture<String> insightsStage,
+                                              CompletableFuture<Map<String, Object>> chartStage,
+                                              QueryEventListener listener) {
+        try {
+            SqlGeneration generation = sqlStage.join();
+            String aiContent = generation.completion.join();
+            result.put("aiResponse", aiContent);
+            if (generation.sql == null) {
+                logger.warn("No SQL extracted from AI content. Returning AI content as summary.");
+                result.put("summary", aiContent);
+                listener.onEvent("summary", Map.of("summary", aiContent));
+                return result;
+            }
+            result.put("query", generation.sql);
+            if (generation.cacheMatch != null) {
+                result.put("sqlCache", generation.cacheMatch);
+            }
+            if (generation.similarMatch != null) {
+                result.put("similarPrompt", generation.similarMatch.getPrompt());
+            }
+            QueryCostGuard.Check check = guardStage.join();
+            if (check.getDetails() != null) {
+                result.put("costEstimate", check.getDetails());
+            }
+            if (check.getOutcome().equals("confirm")) {
+                // Not an error: the client shows the estimate and may repeat the request with the token
+                result.put("confirmRequired", true);
+                result.put("confirmToken", check.getConfirmToken());
+                result.put("message", check.getMessage());
+                return result;
+            }
+            if (check.isHeld()) {
+                failed(result, check.getMessage(), listener);
+                return result;
+            }
+            Execution execution = executionStage.join();
+            result.put("rowData", execution.getRows());
+            if (execution.source != null) {
+                result.put("resultCache", execution.source);
             }
+            result.putAll(execution.paging());
+            result.putAll(chartStage.join());
+            result.put("summary", insightsStage.join());
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            logger.error("Error in queryAi: {}", cause.getMessage(), cause);
+            failed(result, cause.getMessage(), listener);
+        }
+        return result;
+    }
 
-            JsonNode root = mapper.readTree(hfResponse);
-            String aiContent = extractContent(root);
-            result.put("aiResponse", aiContent); // keep original AI response for reference
+    private Map<String, Object> failed(Map<String, Object> result, String message, QueryEventListener listener) {
+        String error = message != null ? message : "Unknown error";
+        result.put("error", error);
+        listener.onEvent("error", Map.of("error", error));
+        return result;
+    }
 
-            // Extract SQL code
-            String sql = extractSqlFromMarkdown(aiContent);
-            if (sql != null && !sql.isEmpty()) {
-                logger.info("Extracted SQL");
-                result.put("query", sql);
+    // Result of the schema stage
+    private static class PromptSchema {
+        final String fingerprint;
+        final String schemaInfo;
+        final SqlDialect dialect;
 
-                // Execute query and fetch results
-                List<List<Object>> rowData = executeSqlQueryWithJdbc(sql, jdbc);
-                result.put("rowData", rowData);
+        PromptSchema(String fingerprint, String schemaInfo, SqlDialect dialect) {
+            this.fingerprint = fingerprint;
+            this.schemaInfo = schemaInfo;
+            this.dialect = dialect;
+        }
+    }
 
-                // Build JSON array of results for insights
-                String dataJson = buildJsonFromRowData(rowData);
+    // Result of the SQL generation stage
+    private static class SqlGeneration {
+        final String sql;
+        // Full AI answer; may still be streaming when the SQL is already known
+        final CompletableFuture<String> completion;
+        // "exact" or "similar" when served from the SQL cache, "held" for the statement the cost guard held
+        // for confirmation, null when generated by the AI
+        final String cacheMatch;
+        final PromptSimilarityIndex.Match similarMatch;
+        // SQL cache entry the statement came from, or is stored under once it has run
+        final String cacheKey;
+
+        SqlGeneration(String sql, CompletableFuture<String> completion, String cacheMatch,
+                      PromptSimilarityIndex.Match similarMatch, String cacheKey) {
+            this.sql = sql != null && !sql.isEmpty() ? sql : null;
+            this.completion = completion;
+            this.cacheMatch = cacheMatch;
+            this.similarMatch = similarMatch;
+            this.cacheKey = cacheKey;
+        }
+    }
 
-                // 2nd AI call: ask for summary/insights based on data
-                String insightsPrompt = "Given the following SQL result data and the original question, provide a concise summary or insights in markdown format.\n"
-                        + "Original question: " + prompt + "\n"
-                        + "Data: " + dataJson;
+    // Result of the execution stage: the rows, where they came from, and the cursor page in paged mode
+    private class Execution {
+        final ColumnarResult rows;
+        final String source;
+        final ResultPager.Page page;
 
-                logger.debug("Sending data to HuggingFace for summary/insights");
-                String insightsResponse = HuggingFaceClient.generateText(insightsPrompt);
+        Execution(ColumnarResult rows, String source, ResultPager.Page page) {
+            this.rows = rows;
+            this.source = source;
+            this.page = page;
+        }
 
-                // Check for API error in the insights response
-                try {
-                    JsonNode errorCheck = mapper.readTree(insightsResponse);
-                    if (errorCheck.has("error")) {
-                        String errMsg = errorCheck.get("error").asText();
-                        logger.error("Hugging Face API error (insights): {}", errMsg);
-                        result.put("error", errMsg);
-                        return result;
-                    }
-                } catch (Exception e) {
-                    logger.warn("Could not parse Hugging Face insights response for error: {}", e.getMessage());
-                }
+        ColumnarResult getRows() {
+            return rows;
+        }
 
-                JsonNode insightsRoot = mapper.readTree(insightsResponse);
-                String insightsContent = extractContent(insightsRoot);
-                result.put("summary", insightsContent);
+        // False when only the first page was read or the row cap cut the result short
+        boolean isComplete() {
+            return page != null ? !page.hasMore() : rows.getRowCount() < maxResultRows;
+        }
+
+        Map<String, Object> paging() {
+            Map<String, Object> paging = new HashMap<>();
+            if (page != null) {
+                paging.put("page", page.getPage());
+                paging.put("pageSize", resultPager.getPageSize());
+                paging.put("hasMore", page.hasMore());
+                if (page.hasMore()) {
+                    paging.put("resultHandle", page.getHandle());
+                }
+            } else if (!rows.isError() && rows.getRowCount() >= maxResultRows) {
+                paging.put("truncated", true);
+            }
+            return paging;
+        }
+    }
 
-                // Try to extract ChartType from the AI's JSON response
-                String aiChartType = null;
+    // Stage 1: schema text for the prompt, from the schema cache (one load per connection at a time)
+    private CompletableFuture<PromptSchema> loadSchemaStage(String cacheKey, JdbcTemplate jdbc, String prompt,
+                                                            String connectionType) {
+        return schemaLoads.execute(cacheKey, () -> CompletableFuture.supplyAsync(() -> {
                 try {
-                    JsonNode summaryJson = null;
-                    try { summaryJson = mapper.readTree(insightsContent); } catch (Exception ignore) {}
-                    if (summaryJson != null && summaryJson.has("ChartType")) {
-                        aiChartType = summaryJson.get("ChartType").asText();
-                        logger.info("AI suggested chart type: {}", aiChartType);
-                    }
+                    return schemaCache.getSchema(cacheKey, jdbc);
                 } catch (Exception e) {
-                    logger.warn("Could not extract ChartType from AI summary: {}", e.getMessage());
+                    throw new CompletionException(e);
                 }
+            }, dbExecutor))
+            .thenApplyAsync(schema -> {
+                String schemaInfo = schemaRetriever.selectSchema(schema, prompt);
+                pipelineMetrics.recordSize("dbchat.query.schema.chars", "chars", connectionType, schemaInfo.length());
+                return new PromptSchema(schema.getFingerprint(), schemaInfo, schema.getDialect());
+            }, dbExecutor);
+    }
 
-                // 3rd: generate chart image if data exists and charting is enabled
-                if (enableChart && rowData.size() > 1) {
-                    String chartType = (aiChartType != null && !aiChartType.isBlank()) ?
-                                      aiChartType : extractChartTypeFromPrompt(prompt);
-                    try {
-                        String chartImage = ChartGenerator.generateChart(rowData, chartType);
-                        logger.info("Chart generated using JFreeChart, type: {}", chartType);
-                        result.put("chartImage", chartImage);
-                    } catch (Exception e) {
-                        logger.error("Error generating chart image: {}", e.getMessage(), e);
-                        result.put("chartImageError", e.getMessage());
-                    }
-                }
-            } else {
-                logger.warn("No SQL extracted from AI content. Returning AI content as summary.");
-                // If no SQL, just return the original AI response as summary
-                result.put("summary", aiContent);
+    // Stage 2: 1st AI call, generate SQL (skipped when the same or a near-identical question
+    // was answered for the same schema, or when confirming a statement the cost guard held back)
+    private CompletableFuture<SqlGeneration> generateSqlStage(PromptSchema schema, String cacheKey, String prompt,
+                                                              String confirmToken, String connectionType,
+                                                              QueryEventListener listener) {
+        String sqlCacheKey = SqlCache.key(schema.fingerprint, prompt);
+        SqlGeneration generation = null;
+        QueryCostGuard.HeldSql held = confirmToken != null ? queryCostGuard.held(confirmToken, cacheKey, prompt) : null;
+        SqlCache.CachedSql cached = held == null ? sqlCache.get(sqlCacheKey) : null;
+        if (held != null) {
+            logger.info("Confirmed statement held by the cost guard, skipping SQL generation");
+            generation = new SqlGeneration(held.getSql(), CompletableFuture.completedFuture(held.getAiResponse()),
+                "held", null, sqlCacheKey);
+        } else if (cached != null) {
+            logger.info("SQL cache hit, skipping SQL generation");
+            generation = new SqlGeneration(cached.getSql(), CompletableFuture.completedFuture(cached.getAiResponse()),
+                "exact", null, sqlCacheKey);
+        } else {
+            PromptSimilarityIndex.Match match = promptSimilarityIndex.findSimilar(schema.fingerprint, prompt);
+            String similarKey = match != null ? SqlCache.key(schema.fingerprint, match.getPrompt()) : null;
+            SqlCache.CachedSql similar = similarKey != null ? sqlCache.get(similarKey) : null;
+            if (similar != null) {
+                logger.info("Rephrased prompt found, skipping SQL generation");
+                generation = new SqlGeneration(similar.getSql(), CompletableFuture.completedFuture(similar.getAiResponse()),
+                    "similar", match, similarKey);
             }
-        } catch (IOException e) {
-            logger.error("Error in queryAi: {}", e.getMessage(), e);
-            // Propagate Hugging Face API error to frontend
-            result.put("error", e.getMessage());
-        } catch (Exception e) {
-            logger.error("Error in queryAi: {}", e.getMessage(), e);
-            result.put("error", e.getMessage());
         }
-        if (usedFallback) {
-            result.put("warning", "No database configuration provided. Used fallback DataSource.");
+        if (generation != null) {
+            return CompletableFuture.completedFuture(announceSql(generation, listener));
         }
-        return result;
+        // Every concurrent asker of the same question shares one AI call and sees the SQL at the same time
+        return sqlGenerations.execute(sqlCacheKey, () -> generateSql(schema, prompt, sqlCacheKey, connectionType))
+            .thenApply(generated -> announceSql(generated, listener));
     }
 
-    // New secure queryAi method that uses connection ID
-    public Map<String, Object> queryAi(String prompt, boolean enableChart, String connectionId) {
-        Map<String, Object> result = new HashMap<>();
-        JdbcTemplate jdbc = null;
-
-        try {
-            logger.info("Received prompt: {} (enableChart={}, connectionId={})", prompt, enableChart, connectionId);
-
-            if (connectionId != null && !connectionId.isEmpty()) {
-                // Use secure connection by ID
-                jdbc = connectionManager.getConnection(connectionId);
-                if (jdbc == null) {
-                    result.put("error", "Invalid or expired connection ID. Please reconnect to the database.");
-                    return result;
-                }
-                logger.info("Using secure connection ID: {}", connectionId);
-            } else {
-                // Check if fallback connection is available
-                if (this.jdbcTemplate != null) {
-                    jdbc = this.jdbcTemplate;
-                    logger.warn("No connectionId provided, using fallback DataSource for queryAi.");
-                    result.put("warning", "No database connection provided. Used fallback DataSource.");
-                } else {
-                    result.put("error", "No database connection available. Please configure a database connection first.");
-                    return result;
-                }
+    // Generated SQL is cached only once it has run without error; cached SQL that now fails is dropped,
+    // and a statement held by the cost guard is kept aside for the request that confirms it
+    private void rememberSql(String cacheKey, String prompt, PromptSchema schema, SqlGeneration generation,
+                             QueryCostGuard.Check check, Execution execution, String aiContent) {
+        if (generation.sql == null) {
+            return;
+        }
+        if (execution == null) {
+            if (check != null && check.getOutcome().equals("confirm")) {
+                queryCostGuard.hold(check.getConfirmToken(), cacheKey, prompt, generation.sql, aiContent);
             }
+            return;
+        }
+        if (execution.getRows().isError()) {
+            if ("exact".equals(generation.cacheMatch) || "similar".equals(generation.cacheMatch)) {
+                logger.info("Cached SQL failed, removing it from the SQL cache");
+                sqlCache.remove(generation.cacheKey);
+            }
+            return;
+        }
+        if (generation.cacheMatch == null || generation.cacheMatch.equals("held")) {
+            sqlCache.put(generation.cacheKey, generation.sql, aiContent);
+            promptSimilarityIndex.add(schema.fingerprint, prompt);
+        }
+    }
 
-            // Build schema-aware prompt
-            String schemaInfo = getDatabaseSchema(jdbc);
-            String fullPrompt = "Database schema:\n" + schemaInfo + "\n\nUser question: " + prompt;
-
-            // 1st AI call: generate SQL
-            logger.debug("Sending prompt to HuggingFace for SQL generation");
-            String hfResponse = HuggingFaceClient.generateText(fullPrompt);
-
-            // Check for API error in the response JSON
-            try {
-                JsonNode errorCheck = mapper.readTree(hfResponse);
-                if (errorCheck.has("error")) {
-                    String errMsg = errorCheck.get("error").asText();
-                    logger.error("Hugging Face API error: {}", errMsg);
-                    result.put("error", errMsg);
-                    return result;
+    private CompletableFuture<SqlGeneration> generateSql(PromptSchema schema, String prompt, String sqlCacheKey,
+                                                         String connectionType) {
+        String fullPrompt = "Database schema:\n" + schema.schemaInfo + "\n\nUser question: " + prompt;
+        pipelineMetrics.recordSize("dbchat.query.prompt.chars", "chars", connectionType, fullPrompt.length(), "prompt", "sql");
+        logger.debug("Sending prompt to HuggingFace for SQL generation");
+        // sqlReady completes as soon as the SQL is known: mid-stream when the "SQL" field or ```sql block
+        // closes, otherwise from the full answer. No thread waits on the HTTP call.
+        CompletableFuture<SqlGeneration> sqlReady = new CompletableFuture<>();
+        CompletableFuture<String> completion = new CompletableFuture<>();
+        CompletableFuture<String> response;
+        if (streamLlm) {
+            StreamingSqlExtractor extractor = new StreamingSqlExtractor();
+            response = huggingFaceClient.streamText(fullPrompt, delta -> {
+                if (extractor.append(delta)) {
+                    logger.info("SQL complete mid-stream, starting execution");
+                    sqlReady.complete(new SqlGeneration(extractor.getSql(), completion, null, null, sqlCacheKey));
                 }
-            } catch (Exception e) {
-                logger.warn("Could not parse Hugging Face response for error: {}", e.getMessage());
+            });
+        } else {
+            response = callAiAsync(fullPrompt, "");
+        }
+        response.whenCompleteAsync((aiContent, ex) -> {
+            if (ex != null) {
+                completion.completeExceptionally(ex);
+                sqlReady.completeExceptionally(ex);
+                return;
             }
+            completion.complete(aiContent);
+            if (!sqlReady.isDone()) {
+                sqlReady.complete(new SqlGeneration(extractSqlFromMarkdown(aiContent), completion, null, null, sqlCacheKey));
+            }
+        }, llmExecutor);
+        return sqlReady;
+    }
 
-            JsonNode root = mapper.readTree(hfResponse);
-            String aiContent = extractContent(root);
-            result.put("aiResponse", aiContent);
+    private SqlGeneration announceSql(SqlGeneration generation, QueryEventListener listener) {
+        if (generation.sql != null) {
+            logger.info("Extracted SQL");
+            listener.onEvent("sql", generation.similarMatch != null
+                ? Map.of("query", generation.sql, "similarPrompt", generation.similarMatch.getPrompt())
+                : Map.of("query", generation.sql));
+        }
+        return generation;
+    }
 
-            // Extract SQL code
-            String sql = extractSqlFromMarkdown(aiContent);
-            if (sql != null && !sql.isEmpty()) {
-                logger.info("Extracted SQL");
-                result.put("query", sql);
+    // Stage 3: check the optimizer's estimate before anything runs (statements the execution stage refuses
+    // anyway are not explained)
+    private QueryCostGuard.Check costGuardStage(String cacheKey, String connectionId, JdbcTemplate jdbc, SqlDialect dialect,
+                                                String sql, String confirmToken, QueryEventListener listener) {
+        if (isForbiddenSql(sql)) {
+            return new QueryCostGuard.Check(sql, "unchecked", null, null);
+        }
+        QueryCostGuard.Check check = queryCostGuard.check(cacheKey, connectionId, jdbc, dialect, sql, confirmToken);
+        if (check.getDetails() != null) {
+            listener.onEvent("cost", check.getDetails());
+        }
+        return check;
+    }
 
-                // Execute query and fetch results
-                List<List<Object>> rowData = executeSqlQueryWithJdbc(sql, jdbc);
-                result.put("rowData", rowData);
+    // Stage 4: execute the SQL (or reuse a cached/in-flight result for the same statement; in paged mode
+    // open a cursor and read only the first page), streaming rows out in batches (the first batch starts
+    // with the header row)
+    private Execution executeStage(String cacheKey, QueryCostGuard.Check check, JdbcTemplate jdbc, boolean paged,
+                                   String connectionType, QueryEventListener listener) {
+        String sql = check.getSql();
+        int rowLimit = check.getMaxRows();
+        Execution execution;
+        if (paged) {
+            execution = openPagedStage(cacheKey, sql, rowLimit, jdbc);
+        } else if (rowLimit > 0) {
+            // A cut-off result must not be served later to a run of the same statement without the limit
+            execution = new Execution(executeSqlQueryWithJdbc(sql, jdbc, Math.min(rowLimit, maxResultRows)), "executed", null);
+        } else {
+            ResultCache.Result cached = resultCache.getOrExecute(cacheKey, sql,
+                () -> executeSqlQueryWithJdbc(sql, jdbc, maxResultRows));
+            execution = new Execution(cached.getRows(), cached.getSource(), null);
+        }
+        ColumnarResult rowData = execution.getRows();
+        pipelineMetrics.recordSize("dbchat.query.rows", "rows", connectionType, rowData.getRowCount());
+        if (listener != QueryEventListener.NONE) {
+            int size = rowData.rowsWithHeader();
+            for (int offset = 0; offset < size; offset += rowBatchSize) {
+                int end = Math.min(offset + rowBatchSize, size);
+                listener.onEvent("rows", Map.of(
+                    "offset", offset,
+                    "rows", rowData.window(offset, end),
+                    "last", end == size));
+            }
+            Map<String, Object> paging = execution.paging();
+            if (!paging.isEmpty()) {
+                listener.onEvent("paging", paging);
+            }
+        }
+        return execution;
+    }
 
-                // Build JSON array of results for insights
-                String dataJson = buildJsonFromRowData(rowData);
+    private Execution openPagedStage(String cacheKey, String sql, int rowLimit, JdbcTemplate jdbc) {
+        if (isForbiddenSql(sql)) {
+            logger.warn("Blocked forbidden SQL command: {}", sql);
+            return new Execution(ColumnarResult.error("SQL Error: Only SELECT queries are allowed for security reasons."), null, null);
+        }
+        try {
+            logger.debug("Opening paged SQL query: {}", sql);
+            ResultPager.Page page = resultPager.open(cacheKey, jdbc, sql, rowLimit);
+            return new Execution(page.getRows(), null, page);
+        } catch (Exception e) {
+            logger.error("SQL execution error: {}", e.getMessage(), e);
+            return new Execution(ColumnarResult.error("SQL Error: " + e.getMessage()), null, null);
+        }
+    }
 
-                // 2nd AI call: ask for summary/insights based on data
-                String insightsPrompt = "Given the following SQL result data and the original question, provide a concise summary or insights in markdown format.\n"
+    // Stage 5a: 2nd AI call, ask for summary/insights based on data
+    // Small results are sent as rows; larger ones as a one-pass statistical profile
+    private CompletableFuture<String> generateInsightsStage(String prompt, ColumnarResult rowData, String connectionType,
+                                                            QueryEventListener listener) {
+        String insightsPrompt;
+        try {
+            if (rowData.getRowCount() > insightsRawRowLimit) {
+                String profileJson = mapper.writeValueAsString(
+                    ResultProfiler.profile(rowData, insightsTopValues, insightsSampleRows));
+                insightsPrompt = "Given the following statistical profile of an SQL result (per-column count, nulls, min/max, mean/stddev, "
+                        + "approximate distinct count, most frequent values, and a few sample rows) and the original question, "
+                        + "provide a concise summary or insights in markdown format.\n"
                         + "Original question: " + prompt + "\n"
-                        + "Data: " + dataJson;
-
-                logger.debug("Sending data to HuggingFace for summary/insights");
-                String insightsResponse = HuggingFaceClient.generateText(insightsPrompt);
+                        + "Profile: " + profileJson;
+            } else {
+                insightsPrompt = "Given the following SQL result data and the original question, provide a concise summary or insights in markdown format.\n"
+                        + "Original question: " + prompt + "\n"
+                        + "Data: " + buildJsonFromRowData(rowData);
+            }
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+        pipelineMetrics.recordSize("dbchat.query.prompt.chars", "chars", connectionType, insightsPrompt.length(), "prompt", "insights");
+        logger.debug("Sending data to HuggingFace for summary/insights");
+        return callAiAsync(insightsPrompt, " (insights)").thenApply(summary -> {
+            listener.onEvent("summary", Map.of("summary", summary));
+            return summary;
+        });
+    }
 
-                // Check for API error in the insights response
-                try {
-                    JsonNode errorCheck = mapper.readTree(insightsResponse);
-                    if (errorCheck.has("error")) {
-                        String errMsg = errorCheck.get("error").asText();
-                        logger.error("Hugging Face API error (insights): {}", errMsg);
-                        result.put("error", errMsg);
-                        return result;
-                    }
-                } catch (Exception e) {
-                    logger.warn("Could not parse Hugging Face insights response for error: {}", e.getMessage());
+    // Stage 5b: plan the chart data (aggregated by the database when the fetched rows are incomplete), then
+    // render it (or find it cached); runs alongside the insights call
+    private CompletableFuture<Map<String, Object>> chartStage(String prompt, String aiChartType, QueryCostGuard.Check check,
+                                                              Execution execution,
+                                                              String cacheKey, JdbcTemplate jdbc, SqlDialect dialect,
+                                                              ChartOptions chartOptions, QueryEventListener listener) {
+        ColumnarResult rowData = execution.getRows();
+        if (rowData.isError() || rowData.getRowCount() == 0) {
+            return CompletableFuture.completedFuture(Map.of());
+        }
+        // Explicit request in the prompt wins, then the model's suggestion, then a guess from the result shape
+        String chartType = extractChartTypeFromPrompt(prompt);
+        if (chartType == null) chartType = aiChartType;
+        if (chartType == null) chartType = guessChartType(rowData);
+        String kind = ChartGenerator.kind(chartType);
+        // A histogram can be drawn from a single column; everything else needs a category and a value
+        if (rowData.getColumnCount() < 2 && !kind.equals("histogram")) {
+            return CompletableFuture.completedFuture(Map.of());
+        }
+        // Normally only the URL goes out; the PNG is served (and cached by browsers) from /api/charts
+        // A statement the cost guard cut off is charted from the rows it returned; aggregating it in the
+        // database would run it in full
+        boolean complete = execution.isComplete() || check.getMaxRows() > 0;
+        return chartPlanner.plan(cacheKey, jdbc, dialect, check.getSql(), rowData, complete, kind, chartOptions.getWidth())
+            .thenCompose(data -> chartCache.getOrRender(data.getRows(), kind, chartOptions).thenApply(rendered -> {
+                Map<String, Object> chart = new HashMap<>();
+                putChart(chart, rendered);
+                chart.put("chartWidth", chartOptions.getWidth());
+                chart.put("chartHeight", chartOptions.getHeight());
+                if (data.getNote() != null) {
+                    chart.put("chartNote", data.getNote());
                 }
-
-                JsonNode insightsRoot = mapper.readTree(insightsResponse);
-                String insightsContent = extractContent(insightsRoot);
-                result.put("summary", insightsContent);
-
-                // Try to extract ChartType from the AI's JSON response
-                String aiChartType = null;
-                try {
-                    JsonNode summaryJson = null;
-                    try { summaryJson = mapper.readTree(insightsContent); } catch (Exception ignore) {}
-                    if (summaryJson != null && summaryJson.has("ChartType")) {
-                        aiChartType = summaryJson.get("ChartType").asText();
-                        logger.info("AI suggested chart type: {}", aiChartType);
-                    }
-                } catch (Exception e) {
-                    logger.warn("Could not extract ChartType from AI summary: {}", e.getMessage());
+                return chart;
+            }))
+            .handle((chart, ex) -> {
+                if (ex == null) {
+                    logger.info("Chart generated using JFreeChart, type: {}", kind);
+                } else {
+                    Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                    logger.error("Error generating chart image: {}", cause.getMessage(), cause);
+                    chart = Map.of("chartImageError", String.valueOf(cause.getMessage()));
                 }
+                listener.onEvent("chart", chart);
+                return chart;
+            });
+    }
 
-                // 3rd: generate chart image if data exists and charting is enabled
-                if (enableChart && rowData.size() > 1) {
-                    String chartType = (aiChartType != null && !aiChartType.isBlank()) ?
-                                      aiChartType : extractChartTypeFromPrompt(prompt);
-                    try {
-                        String chartImage = ChartGenerator.generateChart(rowData, chartType);
-                        logger.info("Chart generated using JFreeChart, type: {}", chartType);
-                        result.put("chartImage", chartImage);
-                    } catch (Exception e) {
-                        logger.error("Error generating chart image: {}", e.getMessage(), e);
-                        result.put("chartImageError", e.getMessage());
-                    }
-                }
-            } else {
-                logger.warn("No SQL extracted from AI content. Returning AI content as summary.");
-                result.put("summary", aiContent);
-            }
-        } catch (IOException e) {
-            logger.error("Error in queryAi: {}", e.getMessage(), e);
-            result.put("error", e.getMessage());
-        } catch (Exception e) {
-            logger.error("Error in queryAi: {}", e.getMessage(), e);
-            result.put("error", e.getMessage());
+    // A chart the cache could not keep goes inline, since its URL would 404
+    private static void putChart(Map<String, Object> out, ChartCache.Chart chart) {
+        if (chart.getUncachedPng() != null) {
+            out.put("chartImage", Base64.getEncoder().encodeToString(chart.getUncachedPng()));
+        } else {
+            out.put("chartUrl", "/api/charts/" + chart.getHash() + ".png");
         }
+    }
 
-        return result;
+    // Call the AI without blocking; the future carries the assistant content, or fails the stage on API errors.
+    // Callers sending the same prompt while a call is in flight share it.
+    private CompletableFuture<String> callAiAsync(String prompt, String label) {
+        return aiCalls.execute(prompt, () -> huggingFaceClient.generateTextAsync(prompt).thenApply(response -> {
+            try {
+                JsonNode root = mapper.readTree(response);
+                if (root.has("error")) {
+                    String errMsg = root.get("error").asText();
+                    logger.error("Hugging Face API error{}: {}", label, errMsg);
+                    throw new CompletionException(new IOException(errMsg));
+                }
+                return extractContent(root);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }));
     }
 
-    // Extract SQL from JSON or markdown text
-    private String extractSqlFromMarkdown(String text) {
+    // Extract SQL from JSON or markdown text (package-private for the benchmarks)
+    String extractSqlFromMarkdown(String text) {
         // Try to parse as JSON and extract "SQL" field
         try {
             JsonNode node = mapper.readTree(text);
@@ -435,95 +760,76 @@ public class AiService {
     }
 
     // Execute query with headers
-    private List<List<Object>> executeSqlQuery(String sql) {
-        List<List<Object>> rows = new ArrayList<>();
-        String trimmed = sql.trim().toLowerCase(Locale.ROOT);
+    private ColumnarResult executeSqlQuery(String sql) {
+        return executeSqlQueryWithJdbc(sql, jdbcTemplate, maxResultRows);
+    }
 
+    // Execute query with headers using a specific JdbcTemplate, reading at most maxRows rows straight into columns
+    private ColumnarResult executeSqlQueryWithJdbc(String sql, JdbcTemplate jdbc, int maxRows) {
         // Security check - only allow SELECT queries
-        if (trimmed.startsWith("create") || trimmed.startsWith("insert") ||
-            trimmed.startsWith("update") || trimmed.startsWith("delete") ||
-            trimmed.startsWith("drop") || trimmed.startsWith("alter")) {
+        if (isForbiddenSql(sql)) {
             logger.warn("Blocked forbidden SQL command: {}", sql);
-            rows.add(List.of("SQL Error: Only SELECT queries are allowed for security reasons."));
-            return rows;
+            return ColumnarResult.error("SQL Error: Only SELECT queries are allowed for security reasons.");
         }
-
         try {
             logger.debug("Executing SQL query: {}", sql);
-            jdbcTemplate.query(sql, rs -> {
-                int columnCount = rs.getMetaData().getColumnCount();
-                if (rows.isEmpty()) {
-                    List<Object> headers = new ArrayList<>();
-                    for (int i = 1; i <= columnCount; i++) {
-                        headers.add(rs.getMetaData().getColumnLabel(i));
-                    }
-                    rows.add(headers);
+            // Fetch size and row cap are set per statement so the shared JdbcTemplate stays untouched
+            return jdbc.execute((StatementCallback<ColumnarResult>) statement -> {
+                statement.setFetchSize(resultFetchSize);
+                statement.setMaxRows(maxRows);
+                try (ResultSet rs = statement.executeQuery(sql)) {
+                    return ColumnarResult.read(rs);
                 }
-                List<Object> row = new ArrayList<>();
-                for (int i = 1; i <= columnCount; i++) {
-                    row.add(rs.getObject(i));
-                }
-                rows.add(row);
             });
         } catch (Exception e) {
             logger.error("SQL execution error: {}", e.getMessage(), e);
-            rows.add(List.of("SQL Error: " + e.getMessage()));
+            return ColumnarResult.error("SQL Error: " + e.getMessage());
         }
-        return rows;
     }
 
-    // Execute query with headers using a specific JdbcTemplate
-    private List<List<Object>> executeSqlQueryWithJdbc(String sql, JdbcTemplate jdbc) {
-        List<List<Object>> rows = new ArrayList<>();
+    private static boolean isForbiddenSql(String sql) {
         String trimmed = sql.trim().toLowerCase(Locale.ROOT);
-        // Security check - only allow SELECT queries
-        if (trimmed.startsWith("create") || trimmed.startsWith("insert") ||
+        return trimmed.startsWith("create") || trimmed.startsWith("insert") ||
             trimmed.startsWith("update") || trimmed.startsWith("delete") ||
-            trimmed.startsWith("drop") || trimmed.startsWith("alter")) {
-            logger.warn("Blocked forbidden SQL command: {}", sql);
-            rows.add(List.of("SQL Error: Only SELECT queries are allowed for security reasons."));
-            return rows;
-        }
-        try {
-            logger.debug("Executing SQL query: {}", sql);
-            jdbc.query(sql, rs -> {
-                int columnCount = rs.getMetaData().getColumnCount();
-                if (rows.isEmpty()) {
-                    List<Object> headers = new ArrayList<>();
-                    for (int i = 1; i <= columnCount; i++) {
-                        headers.add(rs.getMetaData().getColumnLabel(i));
-                    }
-                    rows.add(headers);
-                }
-                List<Object> row = new ArrayList<>();
-                for (int i = 1; i <= columnCount; i++) {
-                    row.add(rs.getObject(i));
-                }
-                rows.add(row);
-            });
-        } catch (Exception e) {
-            logger.error("SQL execution error: {}", e.getMessage(), e);
-            rows.add(List.of("SQL Error: " + e.getMessage()));
-        }
-        return rows;
+            trimmed.startsWith("drop") || trimmed.startsWith("alter");
     }
 
-    // Convert query result into JSON string
-    private String buildJsonFromRowData(List<List<Object>> rowData) throws Exception {
-        if (rowData.isEmpty()) return "[]";
+    // Convert query result into a JSON array of objects keyed by column name (package-private for the benchmarks)
+    String buildJsonFromRowData(ColumnarResult rowData) throws Exception {
+        if (rowData.isError()) return "[]";
 
-        List<Object> headers = rowData.get(0);
-        List<Map<String, Object>> jsonRows = new ArrayList<>();
+        // Duplicate labels keep the last column's value at the first column's position, as a map would
+        Map<String, Integer> keyColumns = new LinkedHashMap<>();
+        for (int j = 0; j < rowData.getColumnCount(); j++) {
+            keyColumns.put(rowData.getColumnName(j), j);
+        }
 
-        for (int i = 1; i < rowData.size(); i++) {
-            Map<String, Object> rowObj = new LinkedHashMap<>();
-            for (int j = 0; j < Math.min(headers.size(), rowData.get(i).size()); j++) {
-                rowObj.put(headers.get(j).toString(), rowData.get(i).get(j));
+        StringWriter out = new StringWriter();
+        try (JsonGenerator gen = mapper.getFactory().createGenerator(out)) {
+            gen.writeStartArray();
+            for (int i = 0; i < rowData.getRowCount(); i++) {
+                gen.writeStartObject();
+                for (Map.Entry<String, Integer> key : keyColumns.entrySet()) {
+                    int j = key.getValue();
+                    gen.writeFieldName(key.getKey());
+                    if (rowData.isNull(i, j)) {
+                        gen.writeNull();
+                        continue;
+                    }
+                    switch (rowData.getKind(j)) {
+                        case LONG -> gen.writeNumber(rowData.getLong(i, j));
+                        case DOUBLE -> gen.writeNumber(rowData.getDouble(i, j));
+                        case DECIMAL -> gen.writeNumber(rowData.getString(i, j));
+                        case BOOLEAN -> gen.writeBoolean(rowData.getBoolean(i, j));
+                        case STRING -> gen.writeString(rowData.getString(i, j));
+                        default -> gen.writeObject(rowData.getValue(i, j));
+                    }
+                }
+                gen.writeEndObject();
             }
-            jsonRows.add(rowObj);
+            gen.writeEndArray();
         }
-
-        return mapper.writeValueAsString(jsonRows);
+        return out.toString();
     }
 
     // Read DB schema
@@ -558,32 +864,12 @@ public class AiService {
 
     // Overload getDatabaseSchema to accept JdbcTemplate
     private String getDatabaseSchema(JdbcTemplate jdbc) {
-        StringBuilder schema = new StringBuilder();
-        try (var conn = jdbc.getDataSource().getConnection()) {
-            var meta = conn.getMetaData();
-            var tables = meta.getTables(null, null, "%", new String[]{"TABLE"});
-
-            while (tables.next()) {
-                String schemaName = tables.getString("TABLE_SCHEM");
-                String tableName = tables.getString("TABLE_NAME");
-
-                schema.append("Schema: ").append(schemaName)
-                      .append(" | Table: ").append(tableName).append("\n");
-
-                var columns = meta.getColumns(null, schemaName, tableName, "%");
-                while (columns.next()) {
-                    String colName = columns.getString("COLUMN_NAME");
-                    String colType = columns.getString("TYPE_NAME");
-                    schema.append("  - ").append(colName).append(" (").append(colType).append(")\n");
-                }
-            }
-            tables.close();
-            logger.debug("Database schema read successfully");
+        try {
+            return schemaIntrospector.readSchema(jdbc);
         } catch (Exception e) {
             logger.error("Could not read schema: {}", e.getMessage(), e);
-            schema.append("Could not read schema: ").append(e.getMessage());
+            return "Could not read schema: " + e.getMessage();
         }
-        return schema.toString();
     }
 
     // Extracts assistant response text from AI response
@@ -617,7 +903,46 @@ public class AiService {
         if (lower.contains("line chart")) return "line";
         if (lower.contains("scatter plot")) return "scatter";
         if (lower.contains("histogram")) return "histogram";
-        return "bar"; // Default chart type
+        return null;
+    }
+
+    // Extract the ChartType key from the AI's JSON response, if any
+    private String extractChartTypeFromJson(String aiContent) {
+        try {
+            JsonNode json = mapper.readTree(aiContent);
+            if (json != null && json.hasNonNull("ChartType") && !json.get("ChartType").asText().isBlank()) {
+                logger.info("AI suggested chart type: {}", json.get("ChartType").asText());
+                return json.get("ChartType").asText();
+            }
+        } catch (Exception ignore) {
+            // Not JSON
+        }
+        return null;
+    }
+
+    // Rule-based chart type from the result shape: time-like first column -> line,
+    // a handful of non-negative single-series values -> pie, otherwise bar
+    private String guessChartType(ColumnarResult rowData) {
+        Object first = rowData.getKind(0) == ColumnarResult.Kind.OBJECT ? rowData.getValue(0, 0) : null;
+        String firstHeader = rowData.getColumnName(0).toLowerCase(Locale.ROOT);
+        if (first instanceof java.util.Date || first instanceof java.time.temporal.Temporal
+                || firstHeader.matches(".*(date|time|day|week|month|year|period).*")) {
+            return "line";
+        }
+        if (rowData.getColumnCount() == 2 && rowData.getRowCount() <= 8) {
+            ColumnarResult.Kind kind = rowData.getKind(1);
+            boolean nonNegative = kind == ColumnarResult.Kind.LONG || kind == ColumnarResult.Kind.DOUBLE
+                || kind == ColumnarResult.Kind.DECIMAL || kind == ColumnarResult.Kind.OBJECT;
+            for (int i = 0; nonNegative && i < rowData.getRowCount(); i++) {
+                Object value = kind == ColumnarResult.Kind.OBJECT ? rowData.getValue(i, 1) : null;
+                if (rowData.isNull(i, 1) || (kind == ColumnarResult.Kind.OBJECT && !(value instanceof Number))
+                        || rowData.getDouble(i, 1) < 0) {
+                    nonNegative = false;
+                }
+            }
+            if (nonNegative) return "pie";
+        }
+        return "bar";
     }
 
     // Test database connection with provided configuration
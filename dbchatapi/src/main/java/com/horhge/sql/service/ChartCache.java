@@ -0,0 +1,199 @@
+package com.horhge.sql.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rendered chart PNGs keyed by a hash of what they show (row data, chart type, size, DPI), so the
+ * same chart is rendered once and served by URL (/api/charts/{hash}.png) instead of inline Base64.
+ * Entries are evicted least-recently-used when the total PNG size exceeds the byte budget; identical
+ * renders in flight are shared. A PNG larger than the whole budget is not kept and goes back to the
+ * caller to send inline, since its URL would never resolve.
+ */
+@Service
+public class ChartCache {
+    private static final Logger logger = LoggerFactory.getLogger(ChartCache.class);
+
+    // 128 bits of SHA-256 is plenty to tell charts apart and keeps URLs short
+    private static final int HASH_BYTES = 16;
+
+    @Autowired
+    private ChartRenderer chartRenderer;
+
+    @Value("${dbchat.chart-cache.max-bytes:33554432}")
+    private long maxBytes;
+
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final SingleFlight<String, Chart> renders = new SingleFlight<>();
+    private long currentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * A rendered chart: its hash, plus the PNG itself when the cache could not keep it
+     */
+    public static class Chart {
+        private final String hash;
+        private final byte[] uncachedPng;
+
+        Chart(String hash, byte[] uncachedPng) {
+            this.hash = hash;
+            this.uncachedPng = uncachedPng;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        /**
+         * @return PNG to send inline, or null if the chart can be fetched from /api/charts/{hash}.png
+         */
+        public byte[] getUncachedPng() {
+            return uncachedPng;
+        }
+    }
+
+    /**
+     * Render a chart on the chart executor unless an identical one is cached
+     * @param rows Query result
+     * @param chartType Chart type as requested (bar, line, pie)
+     * @param options Size and DPI (clamped by ChartRenderer.options)
+     * @return future chart; fails if the chart cannot be rendered
+     */
+    public CompletableFuture<Chart> getOrRender(ColumnarResult rows, String chartType, ChartOptions options) {
+        String kind = ChartGenerator.kind(chartType);
+        String hash;
+        try {
+            hash = hash(rows, kind, options, chartRenderer.getCompressionLevel());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        synchronized (this) {
+            if (entries.containsKey(hash)) {
+                hits.incrementAndGet();
+                return CompletableFuture.completedFuture(new Chart(hash, null));
+            }
+        }
+        return renders.execute(hash, () -> {
+            misses.incrementAndGet();
+            return chartRenderer.render(rows, kind, options).thenApply(png -> new Chart(hash, store(hash, png) ? null : png));
+        });
+    }
+
+    /**
+     * @param hash Hash from getOrRender
+     * @return PNG bytes, or null if unknown or evicted
+     */
+    public synchronized byte[] get(String hash) {
+        return entries.get(hash);
+    }
+
+    public synchronized Map<String, Object> stats() {
+        return Map.of(
+            "entries", entries.size(),
+            "bytes", currentBytes,
+            "maxBytes", maxBytes,
+            "hits", hits.get(),
+            "misses", misses.get(),
+            "shared", renders.getSuppressed(),
+            "evictions", evictions.get()
+        );
+    }
+
+    /**
+     * Content hash of a chart: type, size, DPI, PNG compression, column names and kinds, then every cell
+     * @param rows Query result
+     * @param kind Normalized chart type
+     * @param options Size and DPI
+     * @param compressionLevel PNG compression level (changes the bytes, not the picture)
+     * @return lowercase hex
+     */
+    static String hash(ColumnarResult rows, String kind, ChartOptions options, int compressionLevel) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        putString(digest, buffer, kind);
+        buffer.putInt(options.getWidth()).putInt(options.getHeight()).putInt(options.getDpi()).putInt(compressionLevel)
+            .putInt(rows.getColumnCount());
+        for (int j = 0; j < rows.getColumnCount(); j++) {
+            putString(digest, buffer, rows.getColumnName(j));
+            buffer.put((byte) rows.getKind(j).ordinal());
+        }
+        for (int i = 0; i < rows.getRowCount(); i++) {
+            for (int j = 0; j < rows.getColumnCount(); j++) {
+                if (buffer.remaining() < 9) {
+                    flush(digest, buffer);
+                }
+                if (rows.isNull(i, j)) {
+                    buffer.put((byte) 0);
+                    continue;
+                }
+                buffer.put((byte) 1);
+                switch (rows.getKind(j)) {
+                    case LONG -> buffer.putLong(rows.getLong(i, j));
+                    case DOUBLE -> buffer.putLong(Double.doubleToLongBits(rows.getDouble(i, j)));
+                    case BOOLEAN -> buffer.put((byte) (rows.getBoolean(i, j) ? 1 : 0));
+                    default -> putString(digest, buffer, String.valueOf(rows.getValue(i, j)));
+                }
+            }
+        }
+        flush(digest, buffer);
+        return HexFormat.of().formatHex(digest.digest(), 0, HASH_BYTES);
+    }
+
+    // Length-prefixed so adjacent strings cannot run together
+    private static void putString(MessageDigest digest, ByteBuffer buffer, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (buffer.remaining() < 4) {
+            flush(digest, buffer);
+        }
+        buffer.putInt(bytes.length);
+        flush(digest, buffer);
+        digest.update(bytes);
+    }
+
+    private static void flush(MessageDigest digest, ByteBuffer buffer) {
+        digest.update(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+
+    // Returns whether the PNG was kept
+    private synchronized boolean store(String hash, byte[] png) {
+        if (png.length > maxBytes) {
+            logger.debug("Chart of {} bytes too large to cache", png.length);
+            return false;
+        }
+        byte[] previous = entries.put(hash, png);
+        if (previous != null) {
+            currentBytes -= previous.length;
+        }
+        currentBytes += png.length;
+        Iterator<Map.Entry<String, byte[]>> eldest = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            currentBytes -= eldest.next().getValue().length;
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+        return true;
+    }
+}
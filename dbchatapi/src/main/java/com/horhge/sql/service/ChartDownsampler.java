@@ -0,0 +1,232 @@
+package com.horhge.sql.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Cuts a result down to about as many points as the chart can show before the dataset is built, so
+ * rendering cost follows the image size instead of the row count. Only the rows that survive are
+ * turned into labels. The first column is the category and the given columns are series.
+ * <ul>
+ * <li>{@link #lttb}: Largest-Triangle-Three-Buckets for a single line series</li>
+ * <li>{@link #minMax}: per-bucket min and max of every series in one pass, for multi-series lines</li>
+ * <li>{@link #topN}: the largest rows in their original order plus an "Other" total, for bar and pie</li>
+ * </ul>
+ */
+final class ChartDownsampler {
+    static final String OTHER = "Other";
+
+    private ChartDownsampler() {
+    }
+
+    /**
+     * Category labels with one value per series, ready for a dataset
+     */
+    static final class Points {
+        final List<String> categories;
+        final List<String> series;
+        // values[series][point]
+        final double[][] values;
+        // Shown as a chart subtitle when rows were dropped or merged, otherwise null
+        final String note;
+
+        Points(List<String> categories, List<String> series, double[][] values, String note) {
+            this.categories = categories;
+            this.series = series;
+            this.values = values;
+            this.note = note;
+        }
+
+        int size() {
+            return categories.size();
+        }
+    }
+
+    /**
+     * Every row as it is
+     * @param rows Query result
+     * @param fromColumn First series column
+     * @param toColumn Last series column (exclusive)
+     * @return points for all rows
+     */
+    static Points all(ColumnarResult rows, int fromColumn, int toColumn) {
+        int[] picked = new int[rows.getRowCount()];
+        Arrays.setAll(picked, i -> i);
+        return pick(rows, picked, fromColumn, toColumn, null);
+    }
+
+    /**
+     * Largest-Triangle-Three-Buckets over the row order: keeps the first and last row and, per bucket,
+     * the row forming the largest triangle with the previous pick and the next bucket's average
+     * @param rows Query result
+     * @param column Series column
+     * @param threshold Points to keep (about the plot width in pixels)
+     * @return the picked rows, or all rows when there are no more than threshold
+     */
+    static Points lttb(ColumnarResult rows, int column, int threshold) {
+        int n = rows.getRowCount();
+        if (threshold < 3 || n <= threshold) {
+            return all(rows, column, column + 1);
+        }
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            y[i] = ChartGenerator.value(rows, i, column);
+        }
+        int[] picked = new int[threshold];
+        double every = (double) (n - 2) / (threshold - 2);
+        int a = 0;
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            int avgStart = (int) Math.floor((bucket + 1) * every) + 1;
+            int avgEnd = Math.min((int) Math.floor((bucket + 2) * every) + 1, n);
+            double avgX = 0;
+            double avgY = 0;
+            for (int i = avgStart; i < avgEnd; i++) {
+                avgX += i;
+                avgY += y[i];
+            }
+            avgX /= avgEnd - avgStart;
+            avgY /= avgEnd - avgStart;
+
+            int rangeStart = (int) Math.floor(bucket * every) + 1;
+            int rangeEnd = (int) Math.floor((bucket + 1) * every) + 1;
+            double maxArea = -1;
+            int next = rangeStart;
+            for (int i = rangeStart; i < rangeEnd; i++) {
+                // Twice the triangle area; only the comparison matters
+                double area = Math.abs((a - avgX) * (y[i] - y[a]) - (a - i) * (avgY - y[a]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = i;
+                }
+            }
+            picked[bucket + 1] = next;
+            a = next;
+        }
+        picked[threshold - 1] = n - 1;
+        return pick(rows, picked, column, column + 1,
+            String.format("%,d rows downsampled to %,d points", n, threshold));
+    }
+
+    /**
+     * Min/max bucketing for several series: rows are split into equal buckets and each bucket becomes
+     * two points (labelled with its first and last row), carrying every series' minimum and maximum in
+     * the order they occur, so spikes survive in each series
+     * @param rows Query result
+     * @param fromColumn First series column
+     * @param toColumn Last series column (exclusive)
+     * @param buckets Bucket count (about half the plot width in pixels)
+     * @return two points per bucket, or all rows when there are no more than 2 * buckets
+     */
+    static Points minMax(ColumnarResult rows, int fromColumn, int toColumn, int buckets) {
+        int n = rows.getRowCount();
+        if (buckets < 1 || n <= 2 * buckets) {
+            return all(rows, fromColumn, toColumn);
+        }
+        int seriesCount = toColumn - fromColumn;
+        List<String> categories = new ArrayList<>(2 * buckets);
+        double[][] values = new double[seriesCount][2 * buckets];
+        int[] minAt = new int[seriesCount];
+        int[] maxAt = new int[seriesCount];
+        double[] min = new double[seriesCount];
+        double[] max = new double[seriesCount];
+        int row = 0;
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            int end = (int) ((long) n * (bucket + 1) / buckets);
+            int start = row;
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+            for (; row < end; row++) {
+                for (int s = 0; s < seriesCount; s++) {
+                    double v = ChartGenerator.value(rows, row, fromColumn + s);
+                    if (v < min[s]) {
+                        min[s] = v;
+                        minAt[s] = row;
+                    }
+                    if (v > max[s]) {
+                        max[s] = v;
+                        maxAt[s] = row;
+                    }
+                }
+            }
+            categories.add(ChartGenerator.category(rows, start));
+            categories.add(ChartGenerator.category(rows, end - 1));
+            for (int s = 0; s < seriesCount; s++) {
+                boolean minFirst = minAt[s] <= maxAt[s];
+                values[s][2 * bucket] = minFirst ? min[s] : max[s];
+                values[s][2 * bucket + 1] = minFirst ? max[s] : min[s];
+            }
+        }
+        return new Points(categories, seriesNames(rows, fromColumn, toColumn), values,
+            String.format("%,d rows reduced to min/max of %,d buckets", n, buckets));
+    }
+
+    /**
+     * The n rows with the largest absolute total over the series, kept in result order, plus an
+     * "Other (k rows)" point holding the sum of everything else
+     * @param rows Query result
+     * @param fromColumn First series column
+     * @param toColumn Last series column (exclusive)
+     * @param n Rows to keep
+     * @return n + 1 points, or all rows when there are no more than n + 1
+     */
+    static Points topN(ColumnarResult rows, int fromColumn, int toColumn, int n) {
+        int count = rows.getRowCount();
+        if (n < 1 || count <= n + 1) {
+            return all(rows, fromColumn, toColumn);
+        }
+        int seriesCount = toColumn - fromColumn;
+        // Min-heap of the current top n by score
+        double[] score = new double[count];
+        PriorityQueue<Integer> top = new PriorityQueue<>(n + 1, (x, y) -> Double.compare(score[x], score[y]));
+        double[] total = new double[seriesCount];
+        for (int row = 0; row < count; row++) {
+            for (int s = 0; s < seriesCount; s++) {
+                double v = ChartGenerator.value(rows, row, fromColumn + s);
+                score[row] += Math.abs(v);
+                total[s] += v;
+            }
+            top.add(row);
+            if (top.size() > n) {
+                top.poll();
+            }
+        }
+        int[] picked = top.stream().mapToInt(Integer::intValue).sorted().toArray();
+        Points kept = pick(rows, picked, fromColumn, toColumn,
+            String.format("Top %,d of %,d rows; the rest summed as \"%s\"", n, count, OTHER));
+
+        List<String> categories = new ArrayList<>(kept.categories);
+        categories.add(String.format("%s (%,d rows)", OTHER, count - picked.length));
+        double[][] values = new double[seriesCount][];
+        for (int s = 0; s < seriesCount; s++) {
+            values[s] = Arrays.copyOf(kept.values[s], picked.length + 1);
+            double other = total[s];
+            for (double v : kept.values[s]) {
+                other -= v;
+            }
+            values[s][picked.length] = other;
+        }
+        return new Points(categories, kept.series, values, kept.note);
+    }
+
+    private static Points pick(ColumnarResult rows, int[] picked, int fromColumn, int toColumn, String note) {
+        List<String> categories = new ArrayList<>(picked.length);
+        double[][] values = new double[toColumn - fromColumn][picked.length];
+        for (int p = 0; p < picked.length; p++) {
+            categories.add(ChartGenerator.category(rows, picked[p]));
+            for (int s = 0; s < values.length; s++) {
+                values[s][p] = ChartGenerator.value(rows, picked[p], fromColumn + s);
+            }
+        }
+        return new Points(categories, seriesNames(rows, fromColumn, toColumn), values, note);
+    }
+
+    private static List<String> seriesNames(ColumnarResult rows, int fromColumn, int toColumn) {
+        List<String> names = new ArrayList<>(toColumn - fromColumn);
+        for (int j = fromColumn; j < toColumn; j++) {
+            names.add(rows.getColumnName(j));
+        }
+        return names;
+    }
+}
@@ -2,86 +2,196 @@ package com.horhge.sql.service;
 
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.JFreeChart;
-import org.jfree.chart.ChartUtils;
+import org.jfree.chart.axis.CategoryAxis;
+import org.jfree.chart.axis.CategoryLabelPositions;
+import org.jfree.chart.title.TextTitle;
 import org.jfree.data.category.DefaultCategoryDataset;
 import org.jfree.data.general.DefaultPieDataset;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.util.Base64;
-import java.util.List;
+import org.jfree.data.xy.XYSeries;
+import org.jfree.data.xy.XYSeriesCollection;
 
+/**
+ * Builds JFreeChart charts from query results (reduced to what fits the width first); drawing and PNG
+ * encoding happen in ChartRenderer. Histograms are drawn from rows already binned by ChartPlanner.
+ */
 public class ChartGenerator {
-    public static String generateChart(List<List<Object>> rowData, String chartType) throws Exception {
-        if (rowData == null || rowData.size() < 2) throw new IllegalArgumentException("Not enough data for chart");
-        List<Object> headers = rowData.get(0);
-        if (headers.size() < 2) throw new IllegalArgumentException("Need at least 2 columns for chart");
-        JFreeChart chart;
-        if (chartType == null) chartType = "bar";
-        chart = switch (chartType.toLowerCase()) {
-            case "pie", "pie chart" -> createPieChart(rowData, headers);
-            case "line", "line chart" -> createLineChart(rowData, headers);
-            default -> createBarChart(rowData, headers);
+    // Narrowest bar worth drawing, and the most slices a pie stays readable with
+    private static final int MIN_BAR_PIXELS = 8;
+    private static final int MAX_PIE_SLICES = 12;
+    // Beyond this a scatter plot is a solid blot; larger results are thinned evenly
+    private static final int MAX_SCATTER_POINTS = 5000;
+
+    /**
+     * Normalize a requested chart type
+     * @param chartType Type as given by the user or the model, may be null
+     * @return "pie", "line", "histogram", "scatter" or "bar"
+     */
+    static String kind(String chartType) {
+        if (chartType == null) return "bar";
+        return switch (chartType.toLowerCase()) {
+            case "pie", "pie chart" -> "pie";
+            case "line", "line chart" -> "line";
+            case "histogram" -> "histogram";
+            case "scatter", "scatter plot", "scatter chart" -> "scatter";
+            default -> "bar";
         };
-        BufferedImage image = chart.createBufferedImage(700, 400);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ChartUtils.writeBufferedImageAsPNG(baos, image);
-        return Base64.getEncoder().encodeToString(baos.toByteArray());
     }
 
-    private static JFreeChart createBarChart(List<List<Object>> rowData, List<Object> headers) {
-        DefaultCategoryDataset dataset = new DefaultCategoryDataset();
-        String categoryLabel = headers.get(0).toString();
-        String yLabel = headers.size() == 2 ? headers.get(1).toString() : "Value";
-        String chartTitle = (headers.size() == 2)
+    /**
+     * Build a chart
+     * @param rowData Query result; first column is the category (bin label for histograms; scatter plots
+     *                use the first two numeric columns)
+     * @param kind Normalized chart type (see kind)
+     * @param width Plot width in CSS pixels; sets how far large results are reduced
+     * @return chart ready to draw
+     */
+    static JFreeChart createChart(ColumnarResult rowData, String kind, int width) {
+        if (rowData == null || rowData.getRowCount() < 1) throw new IllegalArgumentException("Not enough data for chart");
+        if (rowData.getColumnCount() < 2) throw new IllegalArgumentException("Need at least 2 columns for chart");
+        if (kind.equals("scatter")) {
+            return createScatterChart(rowData);
+        }
+        // Reduce to what fits the image before building the dataset
+        int series = rowData.getColumnCount() - 1;
+        ChartDownsampler.Points points = switch (kind) {
+            case "pie" -> ChartDownsampler.topN(rowData, 1, 2, MAX_PIE_SLICES - 1);
+            // Bins are already sized to the width
+            case "histogram" -> ChartDownsampler.all(rowData, 1, 2);
+            case "line" -> series == 1
+                ? ChartDownsampler.lttb(rowData, 1, width)
+                : ChartDownsampler.minMax(rowData, 1, rowData.getColumnCount(), width / 2);
+            default -> ChartDownsampler.topN(rowData, 1, rowData.getColumnCount(),
+                Math.max(3, width / (MIN_BAR_PIXELS * (series + 1))));
+        };
+        JFreeChart chart = switch (kind) {
+            case "pie" -> createPieChart(rowData, points);
+            case "line" -> createLineChart(rowData, points);
+            case "histogram" -> createHistogram(rowData, points);
+            default -> createBarChart(rowData, points);
+        };
+        if (points.note != null) {
+            chart.addSubtitle(new TextTitle(points.note));
+        }
+        return chart;
+    }
+
+    private static JFreeChart createBarChart(ColumnarResult rowData, ChartDownsampler.Points points) {
+        DefaultCategoryDataset dataset = categoryDataset(points);
+        String categoryLabel = rowData.getColumnName(0);
+        String yLabel = rowData.getColumnCount() == 2 ? rowData.getColumnName(1) : "Value";
+        String chartTitle = (rowData.getColumnCount() == 2)
             ? yLabel + " by " + categoryLabel
             : "Results";
-        for (int i = 1; i < rowData.size(); i++) {
-            Object category = rowData.get(i).get(0);
-            for (int j = 1; j < headers.size(); j++) {
-                Object value = rowData.get(i).get(j);
-                String series = headers.get(j).toString();
-                double v = parseDouble(value);
-                dataset.addValue(v, series, category.toString());
-            }
-        }
         return ChartFactory.createBarChart(chartTitle, categoryLabel, yLabel, dataset);
     }
 
-    private static JFreeChart createLineChart(List<List<Object>> rowData, List<Object> headers) {
-        DefaultCategoryDataset dataset = new DefaultCategoryDataset();
-        String categoryLabel = headers.get(0).toString();
-        String yLabel = headers.size() == 2 ? headers.get(1).toString() : "Value";
-        String chartTitle = (headers.size() == 2)
+    private static JFreeChart createLineChart(ColumnarResult rowData, ChartDownsampler.Points points) {
+        DefaultCategoryDataset dataset = categoryDataset(points);
+        String categoryLabel = rowData.getColumnName(0);
+        String yLabel = rowData.getColumnCount() == 2 ? rowData.getColumnName(1) : "Value";
+        String chartTitle = (rowData.getColumnCount() == 2)
             ? yLabel + " by " + categoryLabel
             : "Results";
-        for (int i = 1; i < rowData.size(); i++) {
-            Object category = rowData.get(i).get(0);
-            for (int j = 1; j < headers.size(); j++) {
-                Object value = rowData.get(i).get(j);
-                String series = headers.get(j).toString();
-                double v = parseDouble(value);
-                dataset.addValue(v, series, category.toString());
-            }
-        }
         return ChartFactory.createLineChart(chartTitle, categoryLabel, yLabel, dataset);
     }
 
-    private static JFreeChart createPieChart(List<List<Object>> rowData, List<Object> headers) {
+    private static JFreeChart createPieChart(ColumnarResult rowData, ChartDownsampler.Points points) {
         DefaultPieDataset<String> dataset = new DefaultPieDataset<>();
-        String categoryLabel = headers.get(0).toString();
-        String valueLabel = headers.get(1).toString();
+        String categoryLabel = rowData.getColumnName(0);
+        String valueLabel = rowData.getColumnName(1);
         String chartTitle = valueLabel + " by " + categoryLabel;
-        for (int i = 1; i < rowData.size(); i++) {
-            Object category = rowData.get(i).get(0);
-            Object value = rowData.get(i).get(1);
-            double v = parseDouble(value);
-            dataset.setValue(category.toString(), v);
+        for (int i = 0; i < points.size(); i++) {
+            dataset.setValue(points.categories.get(i), points.values[0][i]);
         }
         return ChartFactory.createPieChart(chartTitle, dataset);
     }
 
-    private static double parseDouble(Object value) {
-        if (value instanceof Number) return ((Number) value).doubleValue();
-        try { return Double.parseDouble(value.toString()); } catch (Exception e) { return 0.0; }
+    // Bars of pre-binned counts, labelled with their value ranges
+    private static JFreeChart createHistogram(ColumnarResult rowData, ChartDownsampler.Points points) {
+        JFreeChart chart = ChartFactory.createBarChart("Distribution of " + rowData.getColumnName(0),
+            rowData.getColumnName(0), rowData.getColumnName(1), categoryDataset(points));
+        CategoryAxis axis = chart.getCategoryPlot().getDomainAxis();
+        axis.setCategoryMargin(0.05);
+        axis.setCategoryLabelPositions(CategoryLabelPositions.UP_45);
+        return chart;
+    }
+
+    private static JFreeChart createScatterChart(ColumnarResult rowData) {
+        int x = -1;
+        int y = -1;
+        for (int j = 0; j < rowData.getColumnCount() && y < 0; j++) {
+            if (!isNumeric(rowData, j)) continue;
+            if (x < 0) x = j; else y = j;
+        }
+        if (y < 0) throw new IllegalArgumentException("Need 2 numeric columns for a scatter plot");
+        int n = rowData.getRowCount();
+        int step = (n + MAX_SCATTER_POINTS - 1) / MAX_SCATTER_POINTS;
+        // autoSort off: points are not a line, and sorting would cost n log n for nothing
+        XYSeries series = new XYSeries(rowData.getColumnName(y), false);
+        for (int i = 0; i < n; i += step) {
+            if (rowData.isNull(i, x) || rowData.isNull(i, y)) continue;
+            series.add(value(rowData, i, x), value(rowData, i, y), false);
+        }
+        JFreeChart chart = ChartFactory.createScatterPlot(rowData.getColumnName(y) + " vs " + rowData.getColumnName(x),
+            rowData.getColumnName(x), rowData.getColumnName(y), new XYSeriesCollection(series));
+        if (step > 1) {
+            chart.addSubtitle(new TextTitle(String.format("%,d of %,d rows shown", series.getItemCount(), n)));
+        }
+        return chart;
+    }
+
+    // First column is the category, every other column a series
+    private static DefaultCategoryDataset categoryDataset(ChartDownsampler.Points points) {
+        DefaultCategoryDataset dataset = new DefaultCategoryDataset();
+        for (int i = 0; i < points.size(); i++) {
+            String category = points.categories.get(i);
+            for (int j = 0; j < points.series.size(); j++) {
+                dataset.addValue(points.values[j][i], points.series.get(j), category);
+            }
+        }
+        return dataset;
+    }
+
+    static String category(ColumnarResult rowData, int row) {
+        return String.valueOf(rowData.getString(row, 0));
+    }
+
+    /**
+     * @return whether a column holds numbers (OBJECT columns are judged by their first non-null value)
+     */
+    static boolean isNumeric(ColumnarResult rowData, int column) {
+        return switch (rowData.getKind(column)) {
+            case LONG, DOUBLE, DECIMAL -> true;
+            case OBJECT -> firstValue(rowData, column) instanceof Number;
+            default -> false;
+        };
+    }
+
+    /**
+     * @return whether a column holds dates or timestamps
+     */
+    static boolean isTemporal(ColumnarResult rowData, int column) {
+        if (rowData.getKind(column) != ColumnarResult.Kind.OBJECT) return false;
+        Object first = firstValue(rowData, column);
+        return first instanceof java.util.Date || first instanceof java.time.temporal.Temporal;
+    }
+
+    private static Object firstValue(ColumnarResult rowData, int column) {
+        for (int i = 0; i < rowData.getRowCount(); i++) {
+            if (!rowData.isNull(i, column)) return rowData.getValue(i, column);
+        }
+        return null;
+    }
+
+    static double value(ColumnarResult rowData, int row, int column) {
+        if (rowData.isNull(row, column)) return 0.0;
+        switch (rowData.getKind(column)) {
+            case LONG, DOUBLE, DECIMAL, BOOLEAN:
+                return rowData.getDouble(row, column);
+            default:
+                Object value = rowData.getValue(row, column);
+                if (value instanceof Number) return ((Number) value).doubleValue();
+                try { return Double.parseDouble(value.toString()); } catch (Exception e) { return 0.0; }
+        }
     }
 }
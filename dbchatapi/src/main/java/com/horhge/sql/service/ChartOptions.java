@@ -0,0 +1,39 @@
+package com.horhge.sql.service;
+
+/**
+ * Requested chart size: width and height in CSS pixels, and the DPI the image is drawn at
+ * (96 = one image pixel per CSS pixel, 192 = twice as many for high-density screens).
+ */
+public class ChartOptions {
+    public static final int BASE_DPI = 96;
+    public static final ChartOptions DEFAULT = new ChartOptions(700, 400, BASE_DPI);
+
+    private final int width;
+    private final int height;
+    private final int dpi;
+
+    public ChartOptions(int width, int height, int dpi) {
+        this.width = width;
+        this.height = height;
+        this.dpi = dpi;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getDpi() {
+        return dpi;
+    }
+
+    /**
+     * @return image pixels per CSS pixel
+     */
+    public double getScale() {
+        return (double) dpi / BASE_DPI;
+    }
+}
@@ -0,0 +1,399 @@
+package com.horhge.sql.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.StatementCallback;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Decides which rows a chart is drawn from. When the fetched result is incomplete (capped at
+ * dbchat.results.max-rows, or only the first page in paged mode) a chart of those rows would show part of
+ * the data, so the generated SQL is wrapped in an aggregation and the database returns only the points that
+ * will be drawn:
+ * <ul>
+ * <li>bar and pie: one row per category with every numeric series summed, largest first</li>
+ * <li>line and bar over dates: series summed per minute, hour, day, week, month or year, whichever gives
+ *     at most one point per pixel over the date range</li>
+ * <li>line over other categories: one row per category, in category order, up to dbchat.results.max-rows
+ *     categories; the chart then thins the line to the plot width (LTTB or min/max)</li>
+ * <li>histogram: counts per equal-width bin of the last numeric column</li>
+ * <li>scatter: a random sample of the first two numeric columns</li>
+ * </ul>
+ * Complete results are charted from the rows already fetched (histograms are binned here). Chart queries go
+ * through the result cache like any other statement; if one fails, the chart falls back to the fetched rows.
+ */
+@Service
+public class ChartPlanner {
+    private static final Logger logger = LoggerFactory.getLogger(ChartPlanner.class);
+
+    // Narrowest histogram bar worth drawing
+    private static final int MIN_BIN_PIXELS = 8;
+
+    @Autowired
+    private ResultCache resultCache;
+
+    @Autowired
+    @Qualifier("dbExecutor")
+    private Executor dbExecutor;
+
+    @Value("${dbchat.chart.pushdown.enabled:true}")
+    private boolean pushDownEnabled;
+
+    // Most rows a pushed-down bar or pie query may return
+    @Value("${dbchat.chart.max-groups:1000}")
+    private int maxGroups;
+
+    // Most categories a pushed-down line query may return; they are downsampled when the chart is drawn
+    @Value("${dbchat.results.max-rows:100000}")
+    private int maxLinePoints;
+
+    @Value("${dbchat.chart.histogram-bins:20}")
+    private int histogramBins;
+
+    @Value("${dbchat.chart.scatter-points:2000}")
+    private int scatterPoints;
+
+    /**
+     * Rows to draw, plus a note when the database aggregated them
+     */
+    public static class ChartData {
+        private final ColumnarResult rows;
+        private final String note;
+
+        ChartData(ColumnarResult rows, String note) {
+            this.rows = rows;
+            this.note = note;
+        }
+
+        public ColumnarResult getRows() {
+            return rows;
+        }
+
+        public String getNote() {
+            return note;
+        }
+    }
+
+    /**
+     * Chart rows for a query result, aggregated by the database when the result is incomplete
+     * @param cacheKey Result cache key of the connection
+     * @param jdbc Connection the query ran on
+     * @param dialect Dialect of that connection
+     * @param sql Query behind rows
+     * @param rows Fetched rows
+     * @param complete Whether rows hold the whole result
+     * @param kind Normalized chart type (see ChartGenerator.kind)
+     * @param width Plot width in CSS pixels
+     * @return future chart rows; fails only if no chart can be drawn from the data at all
+     */
+    public CompletableFuture<ChartData> plan(String cacheKey, JdbcTemplate jdbc, SqlDialect dialect, String sql,
+                                             ColumnarResult rows, boolean complete, String kind, int width) {
+        if (complete || !pushDownEnabled || !dialect.supportsChartPushDown()) {
+            return inMemoryAsFuture(rows, kind, width);
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> pushDown(cacheKey, jdbc, dialect, sql, rows, kind, width), dbExecutor)
+                .exceptionally(ex -> {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    logger.warn("Chart query failed, charting the fetched rows instead: {}", cause.getMessage());
+                    return inMemory(rows, kind, width);
+                });
+        } catch (RejectedExecutionException e) {
+            return inMemoryAsFuture(rows, kind, width);
+        }
+    }
+
+    private CompletableFuture<ChartData> inMemoryAsFuture(ColumnarResult rows, String kind, int width) {
+        try {
+            return CompletableFuture.completedFuture(inMemory(rows, kind, width));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Chart rows from fetched rows only
+     * @param rows Query result
+     * @param kind Normalized chart type
+     * @param width Plot width in CSS pixels
+     * @return rows as they are, or binned for a histogram
+     */
+    ChartData inMemory(ColumnarResult rows, String kind, int width) {
+        if (!kind.equals("histogram")) {
+            return new ChartData(rows, null);
+        }
+        int column = lastNumericColumn(rows);
+        if (column < 0) throw new IllegalArgumentException("Need a numeric column for a histogram");
+        double lo = Double.POSITIVE_INFINITY;
+        double hi = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < rows.getRowCount(); i++) {
+            if (rows.isNull(i, column)) continue;
+            double v = ChartGenerator.value(rows, i, column);
+            lo = Math.min(lo, v);
+            hi = Math.max(hi, v);
+        }
+        if (lo > hi) throw new IllegalArgumentException("No values to draw a histogram of");
+        int bins = lo == hi ? 1 : bins(width);
+        double[] counts = new double[bins];
+        for (int i = 0; i < rows.getRowCount(); i++) {
+            if (rows.isNull(i, column)) continue;
+            counts[bin(ChartGenerator.value(rows, i, column), lo, hi, bins)]++;
+        }
+        return new ChartData(binned(rows.getColumnName(column), lo, hi, counts), null);
+    }
+
+    private ChartData pushDown(String cacheKey, JdbcTemplate jdbc, SqlDialect dialect, String sql,
+                               ColumnarResult rows, String kind, int width) {
+        String from = dialect.derivedTable(sql);
+        return switch (kind) {
+            case "histogram" -> histogram(cacheKey, jdbc, dialect, from, rows, width);
+            case "scatter" -> scatter(cacheKey, jdbc, dialect, from, rows);
+            case "line", "bar" -> ChartGenerator.isTemporal(rows, 0)
+                ? timeSeries(cacheKey, jdbc, dialect, from, rows, width)
+                : grouped(cacheKey, jdbc, dialect, from, rows, kind);
+            default -> grouped(cacheKey, jdbc, dialect, from, rows, kind);
+        };
+    }
+
+    // SELECT category, SUM(series)... GROUP BY category
+    private ChartData grouped(String cacheKey, JdbcTemplate jdbc, SqlDialect dialect, String from,
+                              ColumnarResult rows, String kind) {
+        List<Integer> series = numericColumns(rows);
+        if (series.isEmpty()) {
+            return new ChartData(rows, null);
+        }
+        String category = dialect.quote(rows.getColumnName(0));
+        // A line keeps every category in order and is thinned to the plot width when drawn; bars and pies
+        // only ever show the largest groups
+        boolean line = kind.equals("line");
+        int limit = line ? maxLinePoints : maxGroups;
+        // By position: the sums are aliased to their column names, which MySQL would resolve first
+        String select = "SELECT " + category + sums(dialect, rows, series) + " FROM " + from
+            + " GROUP BY " + category
+            + " ORDER BY " + (line ? "1" : "2 DESC");
+        ColumnarResult grouped = query(cacheKey, jdbc, dialect.limit(select, limit), limit);
+        String note = String.format("Summed per %s by the database", rows.getColumnName(0));
+        if (grouped.getRowCount() >= limit) {
+            note += line
+                ? String.format(" (first %,d in %s order only)", limit, rows.getColumnName(0))
+                : String.format(" (largest %,d only)", limit);
+        }
+        return new ChartData(grouped, note);
+    }
+
+    // Series summed per time bucket, the bucket sized from the date range
+    private ChartData timeSeries(String cacheKey, JdbcTemplate jdbc, SqlDialect dialect, String from,
+                                 ColumnarResult rows, int width) {
+        List<Integer> series = numericColumns(rows);
+        String column = dialect.quote(rows.getColumnName(0));
+        if (series.isEmpty() || dialect.dateTrunc(SqlDialect.TimeBucket.DAY, column) == null) {
+            return new ChartData(rows, null);
+        }
+        ColumnarResult range = query(cacheKey, jdbc, "SELECT MIN(" + column + "), MAX(" + column + ") FROM " + from, 1);
+        Long lo = epochMillis(range.getValue(0, 0));
+        Long hi = epochMillis(range.getValue(0, 1));
+        if (lo == null || hi == null) {
+            return new ChartData(rows, null);
+        }
+        int maxBuckets = Math.max(2, Math.min(width, maxGroups));
+        SqlDialect.TimeBucket unit = SqlDialect.TimeBucket.fit(hi - lo, maxBuckets);
+        String bucket = dialect.dateTrunc(unit, column);
+        String select = "SELECT " + bucket + " AS " + column + sums(dialect, rows, series) + " FROM " + from
+            + " WHERE " + column + " IS NOT NULL GROUP BY " + bucket + " ORDER BY 1";
+        ColumnarResult buckets = query(cacheKey, jdbc, dialect.limit(select, maxBuckets), maxBuckets);
+        String name = unit.name().toLowerCase(Locale.ROOT);
+        return new ChartData(relabel(buckets, unit), "Summed per " + name + " by the database");
+    }
+
+    // Counts per equal-width bin between the column's minimum and maximum
+    private ChartData histogram(String cacheKey, JdbcTemplate jdbc, SqlDialect dialect, String from,
+                                ColumnarResult rows, int width) {
+        int column = lastNumericColumn(rows);
+        if (column < 0) {
+            return inMemory(rows, "histogram", width);
+        }
+        String name = rows.getColumnName(column);
+        String value = dialect.quote(name);
+        ColumnarResult stats = query(cacheKey, jdbc,
+            "SELECT MIN(" + value + "), MAX(" + value + "), COUNT(" + value + ") FROM " + from, 1);
+        if (stats.isNull(0, 0) || stats.isNull(0, 1)) throw new IllegalArgumentException("No values to draw a histogram of");
+        double lo = ChartGenerator.value(stats, 0, 0);
+        double hi = ChartGenerator.value(stats, 0, 1);
+        long total = (long) ChartGenerator.value(stats, 0, 2);
+        if (lo == hi) {
+            return new ChartData(binned(name, lo, hi, new double[]{total}), null);
+        }
+        int bins = bins(width);
+        String bin = dialect.widthBucket(value, literal(lo), literal(hi), bins);
+        String select = "SELECT " + bin + " AS " + dialect.quote("bin") + ", COUNT(*) AS " + dialect.quote("n")
+            + " FROM " + from + " WHERE " + value + " IS NOT NULL GROUP BY " + bin;
+        ColumnarResult counted = query(cacheKey, jdbc, select, bins + 2);
+        double[] counts = new double[bins];
+        for (int i = 0; i < counted.getRowCount(); i++) {
+            // MIN/MAX went through a double, so edge values may land just outside [1, bins]
+            int b = (int) ChartGenerator.value(counted, i, 0);
+            counts[Math.max(1, Math.min(bins, b)) - 1] += ChartGenerator.value(counted, i, 1);
+        }
+        return new ChartData(binned(name, lo, hi, counts),
+            String.format("%,d rows binned by the database", total));
+    }
+
+    // Random sample of the first two numeric columns, about scatterPoints rows
+    private ChartData scatter(String cacheKey, JdbcTemplate jdbc, SqlDialect dialect, String from, ColumnarResult rows) {
+        List<Integer> numeric = new ArrayList<>();
+        for (int j = 0; j < rows.getColumnCount() && numeric.size() < 2; j++) {
+            if (ChartGenerator.isNumeric(rows, j)) numeric.add(j);
+        }
+        if (numeric.size() < 2) {
+            return new ChartData(rows, null);
+        }
+        String x = dialect.quote(rows.getColumnName(numeric.get(0)));
+        String y = dialect.quote(rows.getColumnName(numeric.get(1)));
+        ColumnarResult count = query(cacheKey, jdbc, "SELECT COUNT(*) FROM " + from, 1);
+        long total = (long) ChartGenerator.value(count, 0, 0);
+        String select = "SELECT " + x + ", " + y + " FROM " + from + " WHERE " + x + " IS NOT NULL AND " + y + " IS NOT NULL";
+        if (total > scatterPoints) {
+            // Filter instead of ORDER BY random, which would sort the whole result
+            select += " AND " + dialect.random() + " < " + literal((double) scatterPoints / total);
+        }
+        ColumnarResult sample = query(cacheKey, jdbc, dialect.limit(select, scatterPoints), scatterPoints);
+        String note = total > scatterPoints
+            ? String.format("Random sample of %,d of %,d rows, drawn by the database", sample.getRowCount(), total)
+            : null;
+        return new ChartData(sample, note);
+    }
+
+    private ColumnarResult query(String cacheKey, JdbcTemplate jdbc, String sql, int maxRows) {
+        logger.debug("Chart query: {}", sql);
+        ColumnarResult rows = resultCache.getOrExecute(cacheKey, sql, () -> {
+            try {
+                return jdbc.execute((StatementCallback<ColumnarResult>) statement -> {
+                    statement.setMaxRows(maxRows);
+                    try (ResultSet rs = statement.executeQuery(sql)) {
+                        return ColumnarResult.read(rs);
+                    }
+                });
+            } catch (Exception e) {
+                return ColumnarResult.error(e.getMessage());
+            }
+        }).getRows();
+        if (rows.isError()) {
+            throw new IllegalStateException(rows.getError());
+        }
+        return rows;
+    }
+
+    private int bins(int width) {
+        return Math.max(1, Math.min(histogramBins, width / MIN_BIN_PIXELS));
+    }
+
+    // 0-based bin of a value; the maximum falls into the last bin
+    private static int bin(double value, double lo, double hi, int bins) {
+        if (bins == 1) return 0;
+        return Math.max(0, Math.min(bins - 1, (int) Math.floor((value - lo) * bins / (hi - lo))));
+    }
+
+    // One row per bin: "from–to" label and count
+    private static ColumnarResult binned(String name, double lo, double hi, double[] counts) {
+        if (hi == lo) {
+            return ColumnarResult.of(new String[]{name, "count"},
+                List.of(BigDecimal.valueOf(lo).stripTrailingZeros().toPlainString()), counts);
+        }
+        double width = (hi - lo) / counts.length;
+        // Enough decimals to tell neighbouring bin edges apart
+        int decimals = (int) Math.max(0, Math.min(6, 1 - Math.floor(Math.log10(width))));
+        String format = "%." + decimals + "f";
+        List<String> labels = new ArrayList<>(counts.length);
+        for (int b = 0; b < counts.length; b++) {
+            labels.add(String.format(format, lo + b * width) + "\u2013" + String.format(format, lo + (b + 1) * width));
+        }
+        return ColumnarResult.of(new String[]{name, "count"}, labels, counts);
+    }
+
+    // Bucket starts as short labels (2024, 2024-03, 2024-03-18, 2024-03-18 14:00); series kept as numbers
+    private static ColumnarResult relabel(ColumnarResult buckets, SqlDialect.TimeBucket unit) {
+        int length = switch (unit) {
+            case YEAR -> 4;
+            case MONTH -> 7;
+            case WEEK, DAY -> 10;
+            case HOUR -> 13;
+            case MINUTE -> 16;
+        };
+        List<String> labels = new ArrayList<>(buckets.getRowCount());
+        for (int i = 0; i < buckets.getRowCount(); i++) {
+            String text = String.valueOf(buckets.getValue(i, 0)).replace('T', ' ');
+            String label = text.substring(0, Math.min(length, text.length()));
+            labels.add(unit == SqlDialect.TimeBucket.HOUR ? label + ":00" : label);
+        }
+        String[] names = new String[buckets.getColumnCount()];
+        double[][] values = new double[buckets.getColumnCount() - 1][buckets.getRowCount()];
+        for (int j = 0; j < names.length; j++) {
+            names[j] = buckets.getColumnName(j);
+        }
+        for (int j = 1; j < names.length; j++) {
+            for (int i = 0; i < buckets.getRowCount(); i++) {
+                values[j - 1][i] = ChartGenerator.value(buckets, i, j);
+            }
+        }
+        return ColumnarResult.of(names, labels, values);
+    }
+
+    private static String sums(SqlDialect dialect, ColumnarResult rows, List<Integer> series) {
+        StringBuilder sums = new StringBuilder();
+        for (int j : series) {
+            String name = dialect.quote(rows.getColumnName(j));
+            sums.append(", SUM(").append(name).append(") AS ").append(name);
+        }
+        return sums.toString();
+    }
+
+    // Numeric columns after the category column
+    private static List<Integer> numericColumns(ColumnarResult rows) {
+        List<Integer> columns = new ArrayList<>();
+        for (int j = 1; j < rows.getColumnCount(); j++) {
+            if (ChartGenerator.isNumeric(rows, j)) columns.add(j);
+        }
+        return columns;
+    }
+
+    private static int lastNumericColumn(ColumnarResult rows) {
+        for (int j = rows.getColumnCount() - 1; j >= 0; j--) {
+            if (ChartGenerator.isNumeric(rows, j)) return j;
+        }
+        return -1;
+    }
+
+    // Plain decimal, never scientific notation
+    private static String literal(double value) {
+        return BigDecimal.valueOf(value).toPlainString();
+    }
+
+    private static Long epochMillis(Object value) {
+        if (value instanceof java.util.Date date) return date.getTime();
+        if (value instanceof Instant instant) return instant.toEpochMilli();
+        if (value instanceof LocalDateTime dateTime) return dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+        if (value instanceof LocalDate date) return date.atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+        if (value instanceof OffsetDateTime dateTime) return dateTime.toInstant().toEpochMilli();
+        if (value instanceof ZonedDateTime dateTime) return dateTime.toInstant().toEpochMilli();
+        return null;
+    }
+}
@@ -0,0 +1,202 @@
+package com.horhge.sql.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.jfree.chart.JFreeChart;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Draws charts and encodes them as PNG on the chart executor (a fixed pool sized to the cores), so
+ * rendering never runs on request threads and at most one render per core competes for CPU. Each
+ * worker keeps its image buffer, output buffer and PNG writer between renders. The PNG compression
+ * level trades encoding time against size; requested sizes are clamped to the configured limits.
+ */
+@Service
+public class ChartRenderer {
+
+    @Autowired
+    @Qualifier("chartExecutor")
+    private Executor chartExecutor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // zlib level: 0 = no compression, 1 = fastest, 9 = smallest
+    @Value("${dbchat.chart.png-compression:4}")
+    private int compressionLevel;
+
+    @Value("${dbchat.chart.max-width:2000}")
+    private int maxWidth;
+
+    @Value("${dbchat.chart.max-height:2000}")
+    private int maxHeight;
+
+    @Value("${dbchat.chart.max-dpi:288}")
+    private int maxDpi;
+
+    // Largest image in pixels (the DPI is lowered to fit); also bounds each worker's reused buffers
+    @Value("${dbchat.chart.max-pixels:4000000}")
+    private long maxPixels;
+
+    private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+
+    // Per-thread state kept between renders
+    private static class Worker {
+        final ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        BufferedImage image;
+
+        BufferedImage image(int width, int height) {
+            if (image == null || image.getWidth() != width || image.getHeight() != height) {
+                image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            }
+            return image;
+        }
+    }
+
+    public ChartRenderer() {
+    }
+
+    // For the benchmarks, which run without Spring
+    ChartRenderer(Executor chartExecutor, MeterRegistry meterRegistry, int compressionLevel) {
+        this.chartExecutor = chartExecutor;
+        this.meterRegistry = meterRegistry;
+        this.compressionLevel = compressionLevel;
+        this.maxWidth = 2000;
+        this.maxHeight = 2000;
+        this.maxDpi = 288;
+        this.maxPixels = 4_000_000;
+    }
+
+    /**
+     * Clamp requested chart options to the configured limits
+     * @param width Width in CSS pixels, or null for the default
+     * @param height Height in CSS pixels, or null for the default
+     * @param dpi DPI, or null for the default (96)
+     * @return options within limits
+     */
+    public ChartOptions options(Integer width, Integer height, Integer dpi) {
+        int w = clamp(width != null ? width : ChartOptions.DEFAULT.getWidth(), 100, maxWidth);
+        int h = clamp(height != null ? height : ChartOptions.DEFAULT.getHeight(), 100, maxHeight);
+        int d = clamp(dpi != null ? dpi : ChartOptions.BASE_DPI, 48, maxDpi);
+        // Lower the DPI until the image fits the pixel budget
+        double scale = (double) d / ChartOptions.BASE_DPI;
+        if ((double) w * h * scale * scale > maxPixels) {
+            d = (int) Math.max(48, ChartOptions.BASE_DPI * Math.sqrt((double) maxPixels / ((double) w * h)));
+        }
+        return new ChartOptions(w, h, d);
+    }
+
+    /**
+     * Render on the chart executor
+     * @param rowData Query result
+     * @param kind Normalized chart type
+     * @param options Size and DPI (already clamped)
+     * @return future PNG bytes; fails if the chart cannot be drawn or the render queue is full
+     */
+    public CompletableFuture<byte[]> render(ColumnarResult rowData, String kind, ChartOptions options) {
+        try {
+            return CompletableFuture.supplyAsync(() -> renderNow(rowData, kind, options), chartExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Chart renderer is busy, try again shortly"));
+        }
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    // Render on the calling thread
+    byte[] renderNow(ColumnarResult rowData, String kind, ChartOptions options) {
+        long started = System.nanoTime();
+        JFreeChart chart = ChartGenerator.createChart(rowData, kind, options.getWidth());
+        double scale = options.getScale();
+        Worker worker = workers.get();
+        BufferedImage image = worker.image((int) Math.round(options.getWidth() * scale),
+            (int) Math.round(options.getHeight() * scale));
+        Graphics2D g2 = image.createGraphics();
+        try {
+            g2.setColor(Color.WHITE);
+            g2.fillRect(0, 0, image.getWidth(), image.getHeight());
+            g2.scale(scale, scale);
+            chart.draw(g2, new Rectangle2D.Double(0, 0, options.getWidth(), options.getHeight()));
+        } finally {
+            g2.dispose();
+        }
+        byte[] png;
+        try {
+            png = encode(worker, image, options.getDpi());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Timer.builder("dbchat.chart.render").tag("chart.type", kind).publishPercentileHistogram()
+            .register(meterRegistry).record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("dbchat.chart.png.bytes").baseUnit("bytes").tag("chart.type", kind)
+            .publishPercentileHistogram().register(meterRegistry).record(png.length);
+        return png;
+    }
+
+    private byte[] encode(Worker worker, BufferedImage image, int dpi) throws IOException {
+        ImageWriter writer = worker.writer;
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        // The JDK writer maps quality q to zlib level round(9 * (1 - q))
+        param.setCompressionQuality(1f - compressionLevel / 9f);
+        IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), param);
+        setDpi(metadata, dpi);
+
+        worker.out.reset();
+        try (ImageOutputStream stream = new MemoryCacheImageOutputStream(worker.out)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, metadata), param);
+        } finally {
+            writer.reset();
+        }
+        return worker.out.toByteArray();
+    }
+
+    // pHYs chunk, so viewers and print know the intended size
+    private static void setDpi(IIOMetadata metadata, int dpi) throws IIOInvalidTreeException {
+        String millimetersPerPixel = Double.toString(25.4 / dpi);
+        IIOMetadataNode horizontal = new IIOMetadataNode("HorizontalPixelSize");
+        horizontal.setAttribute("value", millimetersPerPixel);
+        IIOMetadataNode vertical = new IIOMetadataNode("VerticalPixelSize");
+        vertical.setAttribute("value", millimetersPerPixel);
+        IIOMetadataNode dimension = new IIOMetadataNode("Dimension");
+        dimension.appendChild(horizontal);
+        dimension.appendChild(vertical);
+        IIOMetadataNode root = new IIOMetadataNode("javax_imageio_1.0");
+        root.appendChild(dimension);
+        metadata.mergeTree("javax_imageio_1.0", root);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
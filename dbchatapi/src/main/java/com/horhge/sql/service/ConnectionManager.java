@@ -1,11 +1,18 @@
 package com.horhge.sql.service;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import jakarta.annotation.PreDestroy;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.UUID;
@@ -17,6 +24,34 @@ public class ConnectionManager {
     // Store active connections with their IDs
     private final Map<String, JdbcTemplate> activeConnections = new ConcurrentHashMap<>();
     private final Map<String, Map<String, Object>> connectionConfigs = new ConcurrentHashMap<>();
+    // One bounded connection pool per connection ID
+    private final Map<String, HikariDataSource> connectionPools = new ConcurrentHashMap<>();
+
+    // Pools publish hikaricp_* metrics here (removed again when the pool is closed)
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${dbchat.pool.min-idle:1}")
+    private int poolMinIdle;
+
+    @Value("${dbchat.pool.max-size:10}")
+    private int poolMaxSize;
+
+    @Value("${dbchat.pool.connection-timeout-ms:10000}")
+    private long poolConnectionTimeoutMs;
+
+    @Value("${dbchat.pool.validation-timeout-ms:3000}")
+    private long poolValidationTimeoutMs;
+
+    @Value("${dbchat.pool.idle-timeout-ms:300000}")
+    private long poolIdleTimeoutMs;
+
+    @Value("${dbchat.pool.max-lifetime-ms:1800000}")
+    private long poolMaxLifetimeMs;
+
+    // H2 TCP connections exist for the load-test harness only
+    @Value("${dbchat.connections.allow-h2:false}")
+    private boolean allowH2;
 
     /**
      * Create and store a new database connection
@@ -63,31 +98,39 @@ public class ConnectionManager {
 
             logger.info("Creating connection to: {} with user: {}", url, username);
 
-            DriverManagerDataSource dataSource = new DriverManagerDataSource();
-            dataSource.setDriverClassName(driverClass);
-            dataSource.setUrl(url);
-            dataSource.setUsername(username);
-            dataSource.setPassword(encryptedKey);
+            // Generate unique connection ID
+            String connectionId = UUID.randomUUID().toString();
 
+            HikariDataSource dataSource = createPool(connectionId, driverClass, url, username, encryptedKey);
             JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
 
             // Test the connection
-            jdbcTemplate.queryForObject("SELECT 1", Integer.class);
-
-            // Generate unique connection ID
-            String connectionId = UUID.randomUUID().toString();
+            try {
+                jdbcTemplate.queryForObject("SELECT 1", Integer.class);
+            } catch (Exception e) {
+                dataSource.close();
+                throw e;
+            }
 
             // Store the connection and config (without password for security)
+            connectionPools.put(connectionId, dataSource);
             activeConnections.put(connectionId, jdbcTemplate);
 
-            Map<String, Object> safeConfig = Map.of(
+            Map<String, Object> safeConfig = new HashMap<>(Map.of(
                 "type", type,
                 "host", host,
                 "port", port,
                 "database", database,
                 "username", username,
                 "url", url
-            );
+            ));
+            // Optional per-connection cost guard limits (see QueryCostGuard)
+            for (String key : new String[] {QueryCostGuard.MAX_ROWS_KEY, QueryCostGuard.MAX_COST_KEY, QueryCostGuard.ACTION_KEY}) {
+                Object value = dbConfig.get(key);
+                if (value != null && !value.toString().isBlank()) {
+                    safeConfig.put(key, value);
+                }
+            }
             connectionConfigs.put(connectionId, safeConfig);
 
             logger.info("Connection created successfully with ID: {}", connectionId);
@@ -153,28 +196,94 @@ public class ConnectionManager {
         if (connectionId != null) {
             activeConnections.remove(connectionId);
             connectionConfigs.remove(connectionId);
+            HikariDataSource pool = connectionPools.remove(connectionId);
+            if (pool != null) {
+                pool.close();
+            }
             logger.info("Connection {} removed", connectionId);
         }
     }
 
     /**
-     * Get all active connection IDs with their safe configs
+     * Get all active connection IDs with their safe configs and pool statistics
      * @return Map of connection ID to safe config
      */
     public Map<String, Map<String, Object>> getAllConnections() {
-        return Map.copyOf(connectionConfigs);
+        Map<String, Map<String, Object>> connections = new HashMap<>();
+        connectionConfigs.forEach((connectionId, config) -> {
+            Map<String, Object> entry = new HashMap<>(config);
+            entry.put("pool", getPoolStats(connectionId));
+            connections.put(connectionId, entry);
+        });
+        return connections;
+    }
+
+    /**
+     * Get pool statistics for a connection
+     * @param connectionId Connection ID
+     * @return Map with active, idle, total and pending connection counts (empty if not found)
+     */
+    public Map<String, Object> getPoolStats(String connectionId) {
+        HikariDataSource pool = connectionId != null ? connectionPools.get(connectionId) : null;
+        if (pool == null || pool.isClosed()) {
+            return Map.of();
+        }
+        HikariPoolMXBean mxBean = pool.getHikariPoolMXBean();
+        if (mxBean == null) {
+            return Map.of();
+        }
+        return Map.of(
+            "active", mxBean.getActiveConnections(),
+            "idle", mxBean.getIdleConnections(),
+            "total", mxBean.getTotalConnections(),
+            "pending", mxBean.getThreadsAwaitingConnection(),
+            "maxSize", pool.getMaximumPoolSize()
+        );
+    }
+
+    @PreDestroy
+    public void closeAll() {
+        connectionPools.values().forEach(HikariDataSource::close);
+        connectionPools.clear();
+        activeConnections.clear();
+        connectionConfigs.clear();
+    }
+
+    private HikariDataSource createPool(String connectionId, String driverClass, String url,
+                                        String username, String password) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("dbchat-" + connectionId.substring(0, 8));
+        config.setDriverClassName(driverClass);
+        config.setJdbcUrl(url);
+        config.setUsername(username);
+        config.setPassword(password);
+        config.setMinimumIdle(Math.min(poolMinIdle, poolMaxSize));
+        config.setMaximumPoolSize(poolMaxSize);
+        config.setConnectionTimeout(poolConnectionTimeoutMs);
+        // Connections are validated (Connection.isValid) on borrow when idle for longer than a short bypass window
+        config.setValidationTimeout(poolValidationTimeoutMs);
+        config.setIdleTimeout(poolIdleTimeoutMs);
+        config.setMaxLifetime(poolMaxLifetimeMs);
+        // Fail fast if the database cannot be reached at creation time
+        config.setInitializationFailTimeout(poolConnectionTimeoutMs);
+        config.setMetricRegistry(meterRegistry);
+        return new HikariDataSource(config);
     }
 
     private String buildJdbcUrl(String type, String host, String port, String database) {
         switch (type) {
             case "mysql":
-                return "jdbc:mysql://" + host + ":" + port + "/" + database + "?useSSL=false&serverTimezone=UTC";
+                // useCursorFetch makes the driver honour fetch sizes instead of buffering whole results
+                return "jdbc:mysql://" + host + ":" + port + "/" + database + "?useSSL=false&serverTimezone=UTC&useCursorFetch=true";
             case "postgresql":
                 return "jdbc:postgresql://" + host + ":" + port + "/" + database;
             case "mssql":
                 return "jdbc:sqlserver://" + host + ":" + port + ";databaseName=" + database;
             case "oracle":
                 return "jdbc:oracle:thin:@" + host + ":" + port + ":" + database;
+            case "h2":
+                // H2 TCP server (used by the load-test harness); database is a path or mem:name
+                return allowH2 ? "jdbc:h2:tcp://" + host + ":" + port + "/" + database : null;
             default:
                 return null;
         }
@@ -186,6 +295,7 @@ public class ConnectionManager {
             case "postgresql" -> "org.postgresql.Driver";
             case "mssql" -> "com.microsoft.sqlserver.jdbc.SQLServerDriver";
             case "oracle" -> "oracle.jdbc.driver.OracleDriver";
+            case "h2" -> "org.h2.Driver";
             default -> null;
         };
     }
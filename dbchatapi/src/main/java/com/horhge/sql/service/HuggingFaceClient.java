@@ -2,121 +2,177 @@ package com.horhge.sql.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Client for the OpenAI-compatible chat completions and image generation endpoints. One shared
+ * HttpClient keeps HTTP/2 (or pooled HTTP/1.1 keep-alive) connections open across calls; endpoint,
+ * model and token come from dbchat.llm.* so a local server can stand in for the hosted API. Every call
+ * goes through LlmBackendGuard (concurrency limit, retries, circuit breaker).
+ */
+@Service
 public class HuggingFaceClient {
     private static final Logger logger = LoggerFactory.getLogger(HuggingFaceClient.class);
-    private static final String API_URL = "https://router.huggingface.co/v1/chat/completions";
-    //private static final String API_URL = "http://localhost:11434/api/chat"; // Local Ollama Server
-    private static final String API_TOKEN = System.getenv("API_KEY");
     private static final ObjectMapper mapper = new ObjectMapper();
 
-    public static String generateText(String prompt) throws IOException {
-        logger.info("Sending prompt to AI service");
-        URL url = new URL(API_URL);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Authorization", "Bearer " + API_TOKEN); // Comment In case of using local
-        conn.setRequestProperty("Content-Type", "application/json");
-        conn.setDoOutput(true);
-
-        // system instruction
-        String systemTemplate = """
-            You are an AI assistant that helps with SQL databases.
-            Always respond in JSON with the following keys:
-            Summary, SQL, Explanation, Data, ChartType
-            Generate SQL only if possible if not just keep the filed empty.
-            Always prefix table names with the schema name (e.g., schema.table) while generating the SQL.
-            ChartType should be one of: bar, pie, line, scatter, histogram, or leave blank if not applicable.
-            If the data is suitable for a chart, suggest the most appropriate chart type.
-            Do not enter anything else after the JSON.
-            """;
+    // system instruction
+    private static final String SYSTEM_TEMPLATE = """
+        You are an AI assistant that helps with SQL databases.
+        Always respond in JSON with the following keys:
+        Summary, SQL, Explanation, Data, ChartType
+        Generate SQL only if possible if not just keep the filed empty.
+        Always prefix table names with the schema name (e.g., schema.table) while generating the SQL.
+        ChartType should be one of: bar, pie, line, scatter, histogram, or leave blank if not applicable.
+        If the data is suitable for a chart, suggest the most appropriate chart type.
+        Do not enter anything else after the JSON.
+        """;
 
-        // build request payload safely (no string concat)
-        Map<String, Object> systemMsg = Map.of("role", "system", "content", systemTemplate);
-        Map<String, Object> userMsg = Map.of("role", "user", "content", prompt);
+    // Local Ollama server: http://localhost:11434/api/chat with an empty token
+    @Value("${dbchat.llm.url:https://router.huggingface.co/v1/chat/completions}")
+    private String apiUrl;
 
-        Map<String, Object> payload = new HashMap<>();
-        payload.put("messages", List.of(systemMsg, userMsg));
-        payload.put("model", "openai/gpt-oss-120b:groq");
-        //payload.put("model", "hf.co/bartowski/Qwen2.5-3B-Instruct-GGUF:Q4_K_M"); // Local Ollama Server
-        payload.put("stream", false);
+    @Value("${dbchat.llm.model:openai/gpt-oss-120b:groq}")
+    private String model;
 
-        String jsonInput = mapper.writeValueAsString(payload);
-        logger.debug("Request payload: {}", jsonInput);
+    @Value("${dbchat.llm.token:${API_KEY:}}")
+    private String apiToken;
 
-        // send request
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(jsonInput.getBytes("utf-8"));
-        }
+    @Value("${dbchat.llm.image-url:https://router.huggingface.co/nebius/v1/images/generations}")
+    private String imageApiUrl;
 
-        // read response
-        int code = conn.getResponseCode();
-        logger.debug("Response code: {}", code);
-        InputStream is = (code == 200) ? conn.getInputStream() : conn.getErrorStream();
+    @Value("${dbchat.llm.image-model:sd-legacy/stable-diffusion-v1-5}")
+    private String imageModel;
 
-        StringBuilder response = new StringBuilder();
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(is, "utf-8"))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                response.append(line);
-            }
-            return response.toString();
-        } catch (Exception e) {
-            logger.error("Error reading API response: {}", e.getMessage());
-            throw new IOException("Error reading API response: " + e.getMessage(), e);
+    @Value("${dbchat.llm.connect-timeout-ms:10000}")
+    private long connectTimeoutMs;
+
+    @Value("${dbchat.llm.request-timeout-ms:120000}")
+    private long requestTimeoutMs;
+
+    @Autowired
+    private LlmBackendGuard guard;
+
+    private HttpClient httpClient;
+
+    @PostConstruct
+    void init() {
+        httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+            .build();
+    }
+
+    /**
+     * Send a prompt and wait for the raw completion response body (error bodies included)
+     * @param prompt User prompt
+     * @return response JSON
+     * @throws IOException on connection errors or timeouts
+     */
+    public String generateText(String prompt) throws IOException {
+        return await(generateTextAsync(prompt));
+    }
+
+    /**
+     * Send a prompt without blocking the calling thread
+     * @param prompt User prompt
+     * @return future completing with the raw response body, or exceptionally with an IOException
+     */
+    public CompletableFuture<String> generateTextAsync(String prompt) {
+        logger.info("Sending prompt to AI service (async)");
+        HttpRequest request;
+        try {
+            request = textRequest(prompt);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
         }
+        return guard.send(() -> httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()), () -> true)
+            .thenApply(HuggingFaceClient::bodyAsString);
     }
 
-    // Add this method for image generation
-    public static String generateImage(String prompt) throws IOException {
-        logger.info("Sending image generation prompt: {}", prompt);
-        String IMAGE_API_URL = "https://router.huggingface.co/nebius/v1/images/generations";
-        String model = "sd-legacy/stable-diffusion-v1-5";
-
-        URL url = new URL(IMAGE_API_URL);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Authorization", "Bearer " + API_TOKEN);
-        conn.setRequestProperty("Content-Type", "application/json");
-        conn.setDoOutput(true);
-
-        // Build payload
-        String payload = String.format(
-                "{\"response_format\":\"b64_json\",\"prompt\":%s,\"model\":\"%s\"}",
-                mapper.writeValueAsString(prompt), model
-        );
-        logger.debug("Image request payload: {}", payload);
-
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(payload.getBytes("utf-8"));
+    /**
+     * Send a prompt with "stream": true and receive the completion incrementally. Handles OpenAI-style
+     * server-sent events ("data: {...}" chunks ending in "data: [DONE]") and Ollama NDJSON lines.
+     * @param prompt User prompt
+     * @param onDelta Called with each content fragment as it arrives, on the HTTP client's thread
+     * @return future completing with the full assistant content, or exceptionally with an IOException
+     *         carrying the API error
+     */
+    public CompletableFuture<String> streamText(String prompt, Consumer<String> onDelta) {
+        logger.info("Sending prompt to AI service (streaming)");
+        HttpRequest request;
+        try {
+            request = textRequest(prompt, true);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
         }
+        // Once a fragment has been handed out the call can no longer be retried
+        AtomicBoolean streamed = new AtomicBoolean();
+        Consumer<String> delivering = delta -> {
+            streamed.set(true);
+            onDelta.accept(delta);
+        };
+        return guard.send(() -> httpClient.sendAsync(request, info -> {
+                StreamingCompletion completion = new StreamingCompletion(delivering);
+                return info.statusCode() / 100 == 2
+                    ? HttpResponse.BodySubscribers.fromLineSubscriber(completion, c -> c, StandardCharsets.UTF_8, null)
+                    : HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofByteArray(), completion::failWith);
+            }), () -> !streamed.get())
+            .thenApply(response -> {
+                StreamingCompletion result = response.body();
+                if (result.error != null) {
+                    logger.error("AI service streaming error (HTTP {}): {}", response.statusCode(), result.error);
+                    throw new CompletionException(new IOException(result.error));
+                }
+                return result.content.toString();
+            });
+    }
 
-        int code = conn.getResponseCode();
-        logger.debug("Image response code: {}", code);
-        InputStream is = (code == 200) ? conn.getInputStream() : conn.getErrorStream();
+    /**
+     * Generate an image from a prompt
+     * @param prompt Image description
+     * @return base64-encoded image
+     * @throws IOException on API errors
+     */
+    public String generateImage(String prompt) throws IOException {
+        logger.info("Sending image generation prompt: {}", prompt);
 
-        // Read response as string
-        StringBuilder sb = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, "utf-8"))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line);
-            }
-        }
-        String responseStr = sb.toString();
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("response_format", "b64_json");
+        payload.put("prompt", prompt);
+        payload.put("model", imageModel);
+        byte[] body = mapper.writeValueAsBytes(payload);
+        logger.debug("Image request payload: {} bytes", body.length);
 
-        if (responseStr.isEmpty()) {
+        HttpRequest request = postRequest(imageApiUrl, body);
+        HttpResponse<byte[]> response = await(guard.send(
+            () -> httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()), () -> true));
+        logger.debug("Image response code: {}", response.statusCode());
+
+        if (response.body().length == 0) {
             throw new IOException("Empty response from image generation API");
         }
 
         // Parse JSON and extract base64 image
-        JsonNode node = mapper.readTree(responseStr);
+        JsonNode node = mapper.readTree(response.body());
         // The API returns: { "data": [ { "b64_json": "..." } ] }
         if (node.has("data") && node.get("data").isArray() && node.get("data").size() > 0) {
             JsonNode imgNode = node.get("data").get(0);
@@ -134,4 +190,141 @@ public class HuggingFaceClient {
         logger.warn("No image found in response");
         throw new IOException("No image found in response");
     }
+
+    private HttpRequest textRequest(String prompt) throws IOException {
+        return textRequest(prompt, false);
+    }
+
+    private HttpRequest textRequest(String prompt, boolean stream) throws IOException {
+        // build request payload safely (no string concat)
+        Map<String, Object> systemMsg = Map.of("role", "system", "content", SYSTEM_TEMPLATE);
+        Map<String, Object> userMsg = Map.of("role", "user", "content", prompt);
+
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("messages", List.of(systemMsg, userMsg));
+        payload.put("model", model);
+        payload.put("stream", stream);
+
+        byte[] body = mapper.writeValueAsBytes(payload);
+        logger.debug("Request payload: {} bytes", body.length);
+        return postRequest(apiUrl, body);
+    }
+
+    private HttpRequest postRequest(String url, byte[] body) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+            .timeout(Duration.ofMillis(requestTimeoutMs))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+        // Local servers run without a token
+        if (apiToken != null && !apiToken.isEmpty()) {
+            builder.header("Authorization", "Bearer " + apiToken);
+        }
+        return builder.build();
+    }
+
+    // Collects streamed content line by line; error bodies and in-stream errors end up in error
+    private static class StreamingCompletion implements Flow.Subscriber<String> {
+        final Consumer<String> onDelta;
+        final StringBuilder content = new StringBuilder();
+        String error;
+
+        StreamingCompletion(Consumer<String> onDelta) {
+            this.onDelta = onDelta;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String line) {
+            String data = line.trim();
+            if (data.startsWith("data:")) {
+                data = data.substring(5).trim();
+            } else if (!data.startsWith("{")) {
+                // Blank separators, "event:" lines and ": keep-alive" comments
+                return;
+            }
+            if (data.isEmpty() || data.equals("[DONE]")) {
+                return;
+            }
+            try {
+                JsonNode chunk = mapper.readTree(data);
+                if (chunk.has("error")) {
+                    error = errorMessage(chunk);
+                    return;
+                }
+                String delta = null;
+                JsonNode choices = chunk.path("choices");
+                if (choices.isArray() && choices.size() > 0) {
+                    // Servers that ignore "stream" answer with one whole message
+                    JsonNode choice = choices.get(0);
+                    delta = (choice.has("delta") ? choice.path("delta") : choice.path("message")).path("content").asText(null);
+                } else if (chunk.has("message")) {
+                    // Ollama /api/chat
+                    delta = chunk.get("message").path("content").asText(null);
+                } else if (chunk.has("response")) {
+                    // Ollama /api/generate
+                    delta = chunk.get("response").asText(null);
+                }
+                if (delta != null && !delta.isEmpty()) {
+                    content.append(delta);
+                    onDelta.accept(delta);
+                }
+            } catch (Exception e) {
+                logger.warn("Skipping unparseable stream chunk: {}", e.getMessage());
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            // Surfaces through the response future
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        StreamingCompletion failWith(byte[] body) {
+            String text = new String(body, StandardCharsets.UTF_8);
+            try {
+                error = errorMessage(mapper.readTree(text));
+            } catch (IOException e) {
+                error = null;
+            }
+            if (error == null || error.isEmpty()) {
+                error = text.isEmpty() ? "Empty error response from AI service" : text;
+            }
+            return this;
+        }
+
+        // "error" is a string on Hugging Face and an object with a message on OpenAI-style APIs
+        private static String errorMessage(JsonNode node) {
+            JsonNode error = node.path("error");
+            return error.isObject() ? error.path("message").asText(error.toString()) : error.asText(null);
+        }
+    }
+
+    // Wait for a guarded call, rethrowing its IOException (rejections included) as is
+    private static <T> T await(CompletableFuture<T> call) throws IOException {
+        try {
+            return call.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for AI service", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException && e.getCause().getCause() != null
+                ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private static String bodyAsString(HttpResponse<byte[]> response) {
+        logger.debug("Response code: {}", response.statusCode());
+        return new String(response.body(), StandardCharsets.UTF_8);
+    }
 }
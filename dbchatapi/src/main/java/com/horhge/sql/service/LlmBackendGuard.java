@@ -0,0 +1,372 @@
+package com.horhge.sql.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Protects the LLM backend and the rest of the API from each other. Every outbound call passes through:
+ * <ul>
+ *   <li>a circuit breaker that fails fast while the backend is unhealthy (too many 5xx, timeouts or
+ *       connection errors in the recent window) and lets a single probe through after a cool-down;</li>
+ *   <li>an AIMD concurrency limit: +1/limit per successful call, multiplied down on 429, 502-504,
+ *       timeouts or latency above the threshold; calls over the limit wait in a bounded queue and are
+ *       rejected immediately once it is full or after the queue timeout;</li>
+ *   <li>retries of 429, 5xx and I/O errors with full-jitter exponential backoff, waiting for
+ *       Retry-After instead when the backend sends it.</li>
+ * </ul>
+ * Rejections are IOExceptions, so they surface through the same error path as API errors.
+ */
+@Service
+public class LlmBackendGuard {
+    private static final Logger logger = LoggerFactory.getLogger(LlmBackendGuard.class);
+
+    public enum BreakerState { CLOSED, OPEN, HALF_OPEN }
+
+    @Value("${dbchat.llm.limiter.initial-limit:8}")
+    private int initialLimit;
+
+    @Value("${dbchat.llm.limiter.min-limit:1}")
+    private int minLimit;
+
+    @Value("${dbchat.llm.limiter.max-limit:64}")
+    private int maxLimit;
+
+    @Value("${dbchat.llm.limiter.backoff-ratio:0.7}")
+    private double backoffRatio;
+
+    @Value("${dbchat.llm.limiter.latency-threshold-ms:30000}")
+    private long latencyThresholdMs;
+
+    @Value("${dbchat.llm.limiter.max-queue:100}")
+    private int maxQueue;
+
+    @Value("${dbchat.llm.limiter.queue-timeout-ms:30000}")
+    private long queueTimeoutMs;
+
+    @Value("${dbchat.llm.retry.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${dbchat.llm.retry.base-delay-ms:500}")
+    private long baseDelayMs;
+
+    @Value("${dbchat.llm.retry.max-delay-ms:8000}")
+    private long maxDelayMs;
+
+    // A longer Retry-After is not waited for; the error is returned instead
+    @Value("${dbchat.llm.retry.max-retry-after-ms:30000}")
+    private long maxRetryAfterMs;
+
+    @Value("${dbchat.llm.breaker.window:20}")
+    private int breakerWindow;
+
+    @Value("${dbchat.llm.breaker.minimum-calls:10}")
+    private int breakerMinimumCalls;
+
+    @Value("${dbchat.llm.breaker.failure-rate:0.5}")
+    private double breakerFailureRate;
+
+    @Value("${dbchat.llm.breaker.open-ms:30000}")
+    private long breakerOpenMs;
+
+    // Limiter state, guarded by this
+    private double limit = -1;
+    private int inFlight;
+    private final ArrayDeque<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+
+    // Breaker state, guarded by this: outcomes of the last breakerWindow calls (true = failure)
+    private boolean[] outcomes;
+    private int outcomeCount;
+    private int outcomeNext;
+    private int failures;
+    private BreakerState breakerState = BreakerState.CLOSED;
+    private long openUntil;
+    private boolean probeInFlight;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong shortCircuited = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong timesOpened = new AtomicLong();
+
+    /**
+     * Send a request under the limiter, breaker and retry policy
+     * @param send Starts one attempt; called again for each retry
+     * @param retryable Checked before each retry; false once an attempt has side effects (e.g. streamed output)
+     * @return the final response (possibly a non-2xx status once retries are exhausted), or fails with an
+     *         IOException when the call was rejected or every attempt failed with one
+     */
+    public <T> CompletableFuture<HttpResponse<T>> send(Supplier<CompletableFuture<HttpResponse<T>>> send,
+                                                       BooleanSupplier retryable) {
+        calls.incrementAndGet();
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        attempt(send, retryable, 1, result);
+        return result;
+    }
+
+    private <T> void attempt(Supplier<CompletableFuture<HttpResponse<T>>> send, BooleanSupplier retryable,
+                             int attempt, CompletableFuture<HttpResponse<T>> result) {
+        IOException open = allowCall();
+        if (open != null) {
+            shortCircuited.incrementAndGet();
+            result.completeExceptionally(open);
+            return;
+        }
+        acquire().whenComplete((permit, waitError) -> {
+            if (waitError != null) {
+                abandonProbe();
+                result.completeExceptionally(unwrap(waitError));
+                return;
+            }
+            long start = System.nanoTime();
+            CompletableFuture<HttpResponse<T>> call;
+            try {
+                call = send.get();
+            } catch (RuntimeException e) {
+                call = CompletableFuture.failedFuture(e);
+            }
+            call.whenComplete((response, error) -> {
+                long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                Throwable cause = error != null ? unwrap(error) : null;
+                int status = response != null ? response.statusCode() : 0;
+                boolean overloaded = status == 429 || (status >= 502 && status <= 504)
+                    || cause instanceof HttpTimeoutException || latencyMs > latencyThresholdMs;
+                boolean unhealthy = status >= 500 || cause != null;
+                release(overloaded);
+                recordOutcome(unhealthy, status == 429);
+
+                boolean transientError = status == 429 || status >= 500 || cause instanceof IOException;
+                long delay = transientError && attempt < maxAttempts && retryable.getAsBoolean()
+                    ? retryDelay(attempt, response) : -1;
+                if (delay < 0) {
+                    if (cause != null) {
+                        result.completeExceptionally(cause);
+                    } else {
+                        result.complete(response);
+                    }
+                    return;
+                }
+                retries.incrementAndGet();
+                logger.warn("AI service call failed ({}), retry {} of {} in {} ms",
+                    cause != null ? cause.toString() : "HTTP " + status, attempt, maxAttempts - 1, delay);
+                CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)
+                    .execute(() -> attempt(send, retryable, attempt + 1, result));
+            });
+        });
+    }
+
+    // Full jitter up to the exponential cap, or exactly Retry-After when given (-1: do not retry)
+    private long retryDelay(int attempt, HttpResponse<?> response) {
+        Optional<Long> retryAfter = response != null ? retryAfterMs(response) : Optional.empty();
+        if (retryAfter.isPresent()) {
+            return retryAfter.get() <= maxRetryAfterMs ? retryAfter.get() : -1;
+        }
+        long cap = Math.min(maxDelayMs, baseDelayMs << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    // Retry-After is either delay-seconds or an HTTP-date
+    private static Optional<Long> retryAfterMs(HttpResponse<?> response) {
+        return response.headers().firstValue("Retry-After").map(String::trim).flatMap(value -> {
+            try {
+                return Optional.of(Math.max(0, Long.parseLong(value)) * 1000);
+            } catch (NumberFormatException e) {
+                try {
+                    ZonedDateTime at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+                    return Optional.of(Math.max(0, Duration.between(ZonedDateTime.now(at.getZone()), at).toMillis()));
+                } catch (Exception ignore) {
+                    return Optional.empty();
+                }
+            }
+        });
+    }
+
+    // Limiter: take a slot now, queue for one, or reject when the queue is full
+    private CompletableFuture<Void> acquire() {
+        CompletableFuture<Void> waiter;
+        synchronized (this) {
+            if (limit < 0) {
+                limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+            }
+            if (inFlight < (int) limit) {
+                inFlight++;
+                return CompletableFuture.completedFuture(null);
+            }
+            if (waiting.size() >= maxQueue) {
+                rejected.incrementAndGet();
+                return CompletableFuture.failedFuture(new IOException(
+                    "AI service is busy (" + inFlight + " calls in flight, " + waiting.size() + " waiting), try again later"));
+            }
+            waiter = new CompletableFuture<>();
+            waiting.add(waiter);
+        }
+        return waiter.orTimeout(queueTimeoutMs, TimeUnit.MILLISECONDS).exceptionallyCompose(e -> {
+            synchronized (this) {
+                waiting.remove(waiter);
+            }
+            rejected.incrementAndGet();
+            return CompletableFuture.failedFuture(e instanceof TimeoutException
+                ? new IOException("Timed out after " + queueTimeoutMs + " ms waiting for an AI service slot") : e);
+        });
+    }
+
+    // Limiter: free a slot, adjust the limit (AIMD) and hand freed slots to queued calls
+    private void release(boolean overloaded) {
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        synchronized (this) {
+            if (overloaded) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+            } else if (inFlight * 2 >= limit) {
+                // Only grow while the limit is actually being used
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            inFlight--;
+            while (inFlight < (int) limit && !waiting.isEmpty()) {
+                CompletableFuture<Void> waiter = waiting.poll();
+                inFlight++;
+                granted.add(waiter);
+            }
+        }
+        // Complete outside the lock; a waiter that already timed out gives its slot straight back
+        for (CompletableFuture<Void> waiter : granted) {
+            if (!waiter.complete(null)) {
+                synchronized (this) {
+                    inFlight--;
+                }
+            }
+        }
+    }
+
+    // Breaker: null if the call may proceed, otherwise the fast-fail error
+    private synchronized IOException allowCall() {
+        if (breakerState == BreakerState.OPEN) {
+            long now = System.currentTimeMillis();
+            if (now < openUntil) {
+                return new IOException("AI service unavailable (circuit open), retry in "
+                    + (openUntil - now + 999) / 1000 + " s");
+            }
+            breakerState = BreakerState.HALF_OPEN;
+            probeInFlight = false;
+            logger.info("AI service circuit half-open, sending a probe call");
+        }
+        if (breakerState == BreakerState.HALF_OPEN) {
+            if (probeInFlight) {
+                return new IOException("AI service unavailable (circuit half-open, probe in progress)");
+            }
+            probeInFlight = true;
+        }
+        return null;
+    }
+
+    private synchronized void abandonProbe() {
+        probeInFlight = false;
+    }
+
+    // Breaker: 429 means slow down, not broken, so it only ends a probe
+    private synchronized void recordOutcome(boolean failed, boolean throttled) {
+        if (breakerState == BreakerState.HALF_OPEN) {
+            probeInFlight = false;
+            if (failed) {
+                trip();
+            } else if (!throttled) {
+                breakerState = BreakerState.CLOSED;
+                resetWindow();
+                logger.info("AI service circuit closed");
+            }
+            return;
+        }
+        if (throttled || breakerState != BreakerState.CLOSED) {
+            return;
+        }
+        if (outcomes == null || outcomes.length != breakerWindow) {
+            outcomes = new boolean[Math.max(1, breakerWindow)];
+            resetWindow();
+        }
+        if (outcomeCount == outcomes.length) {
+            if (outcomes[outcomeNext]) failures--;
+        } else {
+            outcomeCount++;
+        }
+        outcomes[outcomeNext] = failed;
+        if (failed) failures++;
+        outcomeNext = (outcomeNext + 1) % outcomes.length;
+        if (outcomeCount >= breakerMinimumCalls && failures >= breakerFailureRate * outcomeCount) {
+            trip();
+        }
+    }
+
+    private void trip() {
+        breakerState = BreakerState.OPEN;
+        openUntil = System.currentTimeMillis() + breakerOpenMs;
+        timesOpened.incrementAndGet();
+        logger.warn("AI service circuit opened for {} ms ({} of the last {} calls failed)",
+            breakerOpenMs, failures, outcomeCount);
+        resetWindow();
+    }
+
+    private void resetWindow() {
+        outcomeCount = 0;
+        outcomeNext = 0;
+        failures = 0;
+    }
+
+    public synchronized BreakerState getBreakerState() {
+        return breakerState;
+    }
+
+    /**
+     * Current limiter, breaker and retry state
+     * @return JSON-serializable state
+     */
+    public synchronized Map<String, Object> state() {
+        Map<String, Object> limiter = new LinkedHashMap<>();
+        limiter.put("limit", limit < 0 ? initialLimit : Math.round(limit * 100) / 100.0);
+        limiter.put("inFlight", inFlight);
+        limiter.put("queued", waiting.size());
+        limiter.put("maxQueue", maxQueue);
+        limiter.put("rejected", rejected.get());
+
+        Map<String, Object> breaker = new LinkedHashMap<>();
+        breaker.put("state", breakerState.name());
+        breaker.put("recentCalls", outcomeCount);
+        breaker.put("recentFailures", failures);
+        if (breakerState == BreakerState.OPEN) {
+            breaker.put("retryInMs", Math.max(0, openUntil - System.currentTimeMillis()));
+        }
+        breaker.put("timesOpened", timesOpened.get());
+        breaker.put("shortCircuited", shortCircuited.get());
+
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("calls", calls.get());
+        state.put("retries", retries.get());
+        state.put("limiter", limiter);
+        state.put("breaker", breaker);
+        return state;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+}
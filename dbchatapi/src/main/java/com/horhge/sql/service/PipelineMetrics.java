@@ -0,0 +1,130 @@
+package com.horhge.sql.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Timers and size histograms for the query pipeline, tagged by connection type (mysql, postgresql,
+ * mssql, oracle, or "fallback" for the default DataSource). Exposed at /actuator/prometheus:
+ * <ul>
+ *   <li>dbchat.query.stage (stage = schema, sql_generation, cost_guard, execution, insights, chart) and dbchat.query
+ *       (whole request), both with an outcome tag;</li>
+ *   <li>dbchat.query.schema.chars, dbchat.query.prompt.chars (prompt = sql, insights), dbchat.query.rows;</li>
+ *   <li>dbchat.query.cost_guard (outcome, dialect; see QueryCostGuard);</li>
+ *   <li>dbchat.chart.render and dbchat.chart.png.bytes (see ChartRenderer) and dbchat.http.response.bytes.</li>
+ * </ul>
+ */
+@Service
+public class PipelineMetrics {
+    // Request attribute the controller sets so response sizes can be tagged by connection type
+    public static final String CONNECTION_TYPE_ATTRIBUTE = "dbchat.connectionType";
+    public static final String FALLBACK_TYPE = "fallback";
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Autowired
+    private ConnectionManager connectionManager;
+
+    /**
+     * @param connectionId Connection ID, or null for the fallback DataSource
+     * @return database type tag value
+     */
+    public String connectionType(String connectionId) {
+        if (connectionId == null || connectionId.isEmpty()) {
+            return FALLBACK_TYPE;
+        }
+        Map<String, Object> config = connectionManager.getConnectionConfig(connectionId);
+        Object type = config != null ? config.get("type") : null;
+        return type != null ? type.toString() : "unknown";
+    }
+
+    /**
+     * Time an asynchronous stage from now until its future completes
+     * @param stage Stage name
+     * @param connectionType Connection type tag
+     * @param start Starts the stage
+     * @return the stage future
+     */
+    public <T> CompletableFuture<T> timeStage(String stage, String connectionType, Supplier<CompletableFuture<T>> start) {
+        long begin = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = start.get();
+        } catch (RuntimeException e) {
+            stageTimer(stage, connectionType, "error").record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+        future.whenComplete((value, ex) -> stageTimer(stage, connectionType, ex == null ? "success" : "error")
+            .record(System.nanoTime() - begin, TimeUnit.NANOSECONDS));
+        return future;
+    }
+
+    /**
+     * Time a stage that runs on the calling thread
+     * @param stage Stage name
+     * @param connectionType Connection type tag
+     * @param body Stage body
+     * @return the stage result
+     */
+    public <T> T time(String stage, String connectionType, Supplier<T> body) {
+        long begin = System.nanoTime();
+        String outcome = "error";
+        try {
+            T value = body.get();
+            outcome = "success";
+            return value;
+        } finally {
+            stageTimer(stage, connectionType, outcome).record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Record a whole request
+     * @param connectionType Connection type tag
+     * @param nanos Elapsed time
+     * @param failed Whether the response carries an error
+     */
+    public void recordQuery(String connectionType, long nanos, boolean failed) {
+        Timer.builder("dbchat.query")
+            .description("Query pipeline end to end")
+            .tags("connection.type", connectionType, "outcome", failed ? "error" : "success")
+            .publishPercentileHistogram()
+            .register(registry)
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record a size observation
+     * @param name Metric name
+     * @param baseUnit Unit (chars, rows, bytes)
+     * @param connectionType Connection type tag
+     * @param amount Observed size
+     * @param extraTags Additional tag key/value pairs
+     */
+    public void recordSize(String name, String baseUnit, String connectionType, double amount, String... extraTags) {
+        DistributionSummary.builder(name)
+            .baseUnit(baseUnit)
+            .tags("connection.type", connectionType)
+            .tags(extraTags)
+            .publishPercentileHistogram()
+            .register(registry)
+            .record(amount);
+    }
+
+    private Timer stageTimer(String stage, String connectionType, String outcome) {
+        return Timer.builder("dbchat.query.stage")
+            .description("Time spent in one query pipeline stage")
+            .tags("stage", stage, "connection.type", connectionType, "outcome", outcome)
+            .publishPercentileHistogram()
+            .register(registry);
+    }
+}
@@ -0,0 +1,212 @@
+package com.horhge.sql.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Finds previously answered prompts that are rephrasings of a new one, per schema fingerprint.
+ * Prompts are reduced to their word tokens (stop words removed, lightly stemmed) plus the intents they
+ * name, and two prompts match only when those reduce to exactly the same set: "revenue by region last
+ * month" and "show last month's revenue per region" match, but prompts that differ in any content word,
+ * such as a filter value ("... in Germany" vs "... in France"), a number ("top 5" vs "top 10") or the
+ * kind of answer ("how many customers" vs "show customers"), never do.
+ */
+@Service
+public class PromptSimilarityIndex {
+    private static final Logger logger = LoggerFactory.getLogger(PromptSimilarityIndex.class);
+
+    // Words (stemmed) and two-word phrases that decide what kind of answer a prompt wants, by intent
+    private static final Map<String, String> INTENT_WORDS = Map.ofEntries(
+        Map.entry("how many", "count"), Map.entry("number of", "count"), Map.entry("count", "count"),
+        Map.entry("how much", "sum"), Map.entry("total", "sum"), Map.entry("sum", "sum"),
+        Map.entry("average", "avg"), Map.entry("avg", "avg"), Map.entry("mean", "avg"),
+        Map.entry("top", "top"), Map.entry("most", "top"), Map.entry("highest", "top"),
+        Map.entry("largest", "top"), Map.entry("biggest", "top"), Map.entry("best", "top"),
+        Map.entry("bottom", "bottom"), Map.entry("least", "bottom"), Map.entry("lowest", "bottom"),
+        Map.entry("smallest", "bottom"), Map.entry("worst", "bottom"),
+        Map.entry("max", "max"), Map.entry("maximum", "max"), Map.entry("min", "min"), Map.entry("minimum", "min"),
+        Map.entry("per", "group"), Map.entry("by", "group"), Map.entry("each", "group"), Map.entry("every", "group"),
+        Map.entry("distinct", "distinct"), Map.entry("unique", "distinct")
+    );
+
+    @Autowired
+    private SqlCache sqlCache;
+
+    @Value("${dbchat.similar-prompts.max-entries:20000}")
+    private int maxEntries;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Schema fingerprint -> canonical key -> first prompt answered with that key
+    private final Map<String, Map<String, Entry>> bySchema = new HashMap<>();
+    // Insertion order across all schemas, oldest first, for eviction
+    private final ArrayDeque<Entry> insertionOrder = new ArrayDeque<>();
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong matches = new AtomicLong();
+
+    private static class Entry {
+        final String schemaFingerprint;
+        final String key;
+        final String prompt;
+
+        Entry(String schemaFingerprint, String key, String prompt) {
+            this.schemaFingerprint = schemaFingerprint;
+            this.key = key;
+            this.prompt = prompt;
+        }
+    }
+
+    /**
+     * A previously answered prompt that is a rephrasing of the one looked up
+     */
+    public static class Match {
+        private final String prompt;
+
+        Match(String prompt) {
+            this.prompt = prompt;
+        }
+
+        public String getPrompt() {
+            return prompt;
+        }
+    }
+
+    // Index prompts restored from the persisted SQL cache
+    @PostConstruct
+    void loadFromSqlCache() {
+        sqlCache.forEachKey(this::add);
+    }
+
+    /**
+     * Remember an answered prompt
+     * @param schemaFingerprint Schema fingerprint the prompt was answered against
+     * @param prompt User question
+     */
+    public void add(String schemaFingerprint, String prompt) {
+        String normalized = SqlCache.normalizePrompt(prompt);
+        String key = canonicalKey(normalized);
+        if (key == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Map<String, Entry> prompts = bySchema.computeIfAbsent(schemaFingerprint, k -> new HashMap<>());
+            if (prompts.containsKey(key)) {
+                return;
+            }
+            Entry entry = new Entry(schemaFingerprint, key, normalized);
+            prompts.put(key, entry);
+            insertionOrder.addLast(entry);
+            while (insertionOrder.size() > maxEntries) {
+                remove(insertionOrder.pollFirst());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Find a previously answered prompt with the same words and intents as this one
+     * @param schemaFingerprint Schema fingerprint to search within
+     * @param prompt User question
+     * @return match, or null if no rephrasing of this prompt has been answered
+     */
+    public Match findSimilar(String schemaFingerprint, String prompt) {
+        lookups.incrementAndGet();
+        String normalized = SqlCache.normalizePrompt(prompt);
+        String key = canonicalKey(normalized);
+        if (key == null) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            Map<String, Entry> prompts = bySchema.get(schemaFingerprint);
+            Entry entry = prompts != null ? prompts.get(key) : null;
+            // The same prompt is left to the exact SQL cache
+            if (entry == null || entry.prompt.equals(normalized)) {
+                return null;
+            }
+            matches.incrementAndGet();
+            return new Match(entry.prompt);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Forget every indexed prompt (the SQL cache was cleared)
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            bySchema.clear();
+            insertionOrder.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        lock.readLock().lock();
+        try {
+            return Map.of(
+                "entries", insertionOrder.size(),
+                "maxEntries", maxEntries,
+                "lookups", lookups.get(),
+                "matches", matches.get()
+            );
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void remove(Entry entry) {
+        Map<String, Entry> prompts = bySchema.get(entry.schemaFingerprint);
+        if (prompts == null) {
+            return;
+        }
+        prompts.remove(entry.key);
+        if (prompts.isEmpty()) {
+            bySchema.remove(entry.schemaFingerprint);
+        }
+    }
+
+    // Sorted word tokens plus intents; order-insensitive so rephrasings get the same key
+    static String canonicalKey(String normalizedPrompt) {
+        Set<String> tokens = new TreeSet<>(PromptTokenizer.tokenize(normalizedPrompt));
+        if (tokens.isEmpty()) {
+            return null;
+        }
+        return String.join(" ", tokens) + " | " + String.join(" ", intents(normalizedPrompt));
+    }
+
+    // Intents named by the prompt ("how many" -> count, "average" -> avg, "per"/"by" -> group, ...)
+    static Set<String> intents(String normalizedPrompt) {
+        Set<String> intents = new TreeSet<>();
+        String previous = null;
+        for (String word : normalizedPrompt.split(" ")) {
+            String intent = INTENT_WORDS.get(PromptTokenizer.stem(word));
+            if (intent == null && previous != null) {
+                intent = INTENT_WORDS.get(previous + " " + word);
+            }
+            if (intent != null) {
+                intents.add(intent);
+            }
+            previous = word;
+        }
+        return intents;
+    }
+}
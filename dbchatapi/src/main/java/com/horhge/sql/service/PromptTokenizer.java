@@ -0,0 +1,81 @@
+package com.horhge.sql.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Splits prompts and identifiers into lowercase, lightly stemmed word tokens.
+ * snake_case and camelCase identifiers are split into their parts.
+ */
+public final class PromptTokenizer {
+    private static final Set<String> STOP_WORDS = Set.of(
+        "a", "an", "the", "of", "for", "by", "per", "in", "on", "at", "with", "and", "or", "to", "from",
+        "is", "are", "was", "were", "be", "me", "my", "our", "us", "i", "we", "it", "its", "this", "that",
+        "show", "list", "give", "get", "find", "display", "tell", "please", "what", "which", "who", "whose",
+        "how", "many", "much", "all", "each", "every", "there", "do", "does", "did", "can", "could", "would"
+    );
+
+    private PromptTokenizer() {
+    }
+
+    /**
+     * @param text Prompt or identifier text
+     * @return tokens in order of appearance, without stop words
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        StringBuilder current = new StringBuilder();
+        char prev = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                // camelCase boundary: "orderDate" -> "order", "date"
+                if (Character.isUpperCase(c) && Character.isLowerCase(prev) && current.length() > 0) {
+                    addToken(tokens, current);
+                }
+                current.append(c);
+            } else if (c == '\'' && i + 1 < text.length() && Character.toLowerCase(text.charAt(i + 1)) == 's'
+                    && (i + 2 == text.length() || !Character.isLetterOrDigit(text.charAt(i + 2)))) {
+                // possessive: "month's" -> "month"
+                i++;
+            } else if (current.length() > 0) {
+                addToken(tokens, current);
+            }
+            prev = c;
+        }
+        if (current.length() > 0) {
+            addToken(tokens, current);
+        }
+        return tokens;
+    }
+
+    /**
+     * Reduce a lowercase word to a crude singular form ("categories" -> "category", "orders" -> "order")
+     * @param word Lowercase word
+     * @return stem
+     */
+    public static String stem(String word) {
+        int len = word.length();
+        if (len > 4 && word.endsWith("ies")) return word.substring(0, len - 3) + "y";
+        if (len > 4 && (word.endsWith("sses") || word.endsWith("xes") || word.endsWith("ches") || word.endsWith("shes"))) {
+            return word.substring(0, len - 2);
+        }
+        if (len > 3 && word.endsWith("s") && !word.endsWith("ss") && !word.endsWith("us") && !word.endsWith("is")) {
+            return word.substring(0, len - 1);
+        }
+        return word;
+    }
+
+    private static void addToken(List<String> tokens, StringBuilder current) {
+        String word = current.toString().toLowerCase(Locale.ROOT);
+        current.setLength(0);
+        if (!STOP_WORDS.contains(word)) {
+            tokens.add(stem(word));
+        }
+    }
+}
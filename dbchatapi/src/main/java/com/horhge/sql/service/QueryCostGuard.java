@@ -0,0 +1,539 @@
+package com.horhge.sql.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks generated SQL against the optimizer's estimate before it runs. The plan comes from the
+ * dialect's EXPLAIN (PostgreSQL EXPLAIN (FORMAT JSON), MySQL EXPLAIN FORMAT=JSON, SQL Server SHOWPLAN_XML)
+ * and is cached per (connection ID, normalized SQL). Statements estimated above the connection's row or
+ * cost limit are rejected, run with a row limit, or held until the caller repeats the request with the
+ * confirm token; the held statement is kept until then, so the confirming request runs the same SQL
+ * rather than asking the model again. Dialects without a side-effect free EXPLAIN (Oracle writes to PLAN_TABLE, H2, generic
+ * JDBC) and statements whose EXPLAIN fails are not checked.
+ */
+@Service
+public class QueryCostGuard {
+    private static final Logger logger = LoggerFactory.getLogger(QueryCostGuard.class);
+
+    // Per-connection overrides, set when the connection is created (see ConnectionManager)
+    public static final String MAX_ROWS_KEY = "maxEstimatedRows";
+    public static final String MAX_COST_KEY = "maxEstimatedCost";
+    public static final String ACTION_KEY = "costGuardAction";
+
+    private static final Pattern SHOWPLAN_ROWS = Pattern.compile("StatementEstRows=\"([^\"]+)\"");
+    private static final Pattern SHOWPLAN_COST = Pattern.compile("StatementSubTreeCost=\"([^\"]+)\"");
+
+    @Autowired
+    private ConnectionManager connectionManager;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Value("${dbchat.cost-guard.enabled:true}")
+    private boolean enabled;
+
+    // Estimated rows above which a statement is held back (0 = no row limit)
+    @Value("${dbchat.cost-guard.max-rows:1000000}")
+    private double defaultMaxRows;
+
+    // Optimizer cost above which a statement is held back (0 = no cost limit); units depend on the database
+    @Value("${dbchat.cost-guard.max-cost:0}")
+    private double defaultMaxCost;
+
+    @Value("${dbchat.cost-guard.action:confirm}")
+    private String defaultAction;
+
+    @Value("${dbchat.cost-guard.limit-rows:1000}")
+    private int limitRows;
+
+    @Value("${dbchat.cost-guard.plan-cache.ttl-ms:300000}")
+    private long planTtlMs;
+
+    @Value("${dbchat.cost-guard.plan-cache.max-entries:2000}")
+    private int maxPlans;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final LinkedHashMap<String, CachedPlan> plans = new LinkedHashMap<>(64, 0.75f, true);
+    private final SingleFlight<String, Estimate> explains = new SingleFlight<>();
+    // Statements held for confirmation, by confirm token; same size and TTL bounds as the plan cache
+    private final LinkedHashMap<String, HeldSql> held = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Optimizer estimate for a whole statement
+     */
+    public static class Estimate {
+        private final double rows;
+        private final double cost;
+
+        Estimate(double rows, double cost) {
+            this.rows = rows;
+            this.cost = cost;
+        }
+
+        public double getRows() {
+            return rows;
+        }
+
+        public double getCost() {
+            return cost;
+        }
+    }
+
+    private static class CachedPlan {
+        final Estimate estimate;
+        final long expiresAt;
+
+        CachedPlan(Estimate estimate, long expiresAt) {
+            this.estimate = estimate;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * A statement held for confirmation and the AI answer it came from
+     */
+    public static class HeldSql {
+        private final String cacheKey;
+        private final String prompt;
+        private final String sql;
+        private final String aiResponse;
+        private final long expiresAt;
+
+        HeldSql(String cacheKey, String prompt, String sql, String aiResponse, long expiresAt) {
+            this.cacheKey = cacheKey;
+            this.prompt = prompt;
+            this.sql = sql;
+            this.aiResponse = aiResponse;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public String getAiResponse() {
+            return aiResponse;
+        }
+    }
+
+    /**
+     * Outcome of a check: "allowed", "limited" (run with a row limit), "confirmed" (over the limit but
+     * confirmed by the caller), "confirm" (held until confirmed), "rejected", or "unchecked" (no estimate)
+     */
+    public static class Check {
+        private final String sql;
+        private final String outcome;
+        private final String message;
+        private final Map<String, Object> details;
+        private final int maxRows;
+
+        Check(String sql, String outcome, String message, Map<String, Object> details) {
+            this(sql, outcome, message, details, 0);
+        }
+
+        Check(String sql, String outcome, String message, Map<String, Object> details, int maxRows) {
+            this.sql = sql;
+            this.outcome = outcome;
+            this.message = message;
+            this.details = details;
+            this.maxRows = maxRows;
+        }
+
+        /**
+         * @return statement to execute, or null when it was held back
+         */
+        public String getSql() {
+            return sql;
+        }
+
+        public String getOutcome() {
+            return outcome;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public boolean isHeld() {
+            return sql == null;
+        }
+
+        /**
+         * @return rows to fetch at most (Statement.setMaxRows) for the "limited" outcome, otherwise 0
+         */
+        public int getMaxRows() {
+            return maxRows;
+        }
+
+        /**
+         * @return token that runs the statement anyway, or null unless the outcome is "confirm"
+         */
+        public String getConfirmToken() {
+            return details != null ? (String) details.get("confirmToken") : null;
+        }
+
+        /**
+         * @return estimate, limits and outcome for the response, or null when the statement was not checked
+         */
+        public Map<String, Object> getDetails() {
+            return details;
+        }
+    }
+
+    /**
+     * Check a statement against the connection's limits
+     * @param cacheKey Connection ID (or the fallback key)
+     * @param connectionId Connection ID whose overrides apply, or null for the defaults
+     * @param jdbc Connection to explain the statement on
+     * @param dialect Database dialect
+     * @param sql Generated SQL
+     * @param confirmToken Token from an earlier "confirm" outcome, or null
+     * @return statement to run (or none) and the estimate behind the decision
+     */
+    public Check check(String cacheKey, String connectionId, JdbcTemplate jdbc, SqlDialect dialect,
+                       String sql, String confirmToken) {
+        if (!enabled || !supports(dialect)) {
+            return new Check(sql, "unchecked", null, null);
+        }
+        String key = cacheKey + "\u0000" + ResultCache.normalizeSql(sql);
+        boolean[] cached = new boolean[1];
+        Estimate estimate = estimate(key, jdbc, dialect, sql, cached);
+        if (estimate == null) {
+            return new Check(sql, "unchecked", null, null);
+        }
+
+        Map<String, Object> config = connectionId != null ? connectionManager.getConnectionConfig(connectionId) : null;
+        double maxRows = limit(config, MAX_ROWS_KEY, defaultMaxRows);
+        double maxCost = limit(config, MAX_COST_KEY, defaultMaxCost);
+        String action = action(config);
+        boolean overRows = maxRows > 0 && estimate.rows > maxRows;
+        boolean overCost = maxCost > 0 && estimate.cost > maxCost;
+
+        String outcome;
+        String runSql = sql;
+        String message = null;
+        String token = null;
+        if (!overRows && !overCost) {
+            outcome = "allowed";
+        } else {
+            String reason = reason(estimate, maxRows, maxCost, overRows, overCost);
+            if (confirmToken != null && confirmToken.equals(token(key)) && !action.equals("reject")) {
+                outcome = "confirmed";
+                message = reason + "; running as confirmed.";
+            } else if (action.equals("reject")) {
+                outcome = "rejected";
+                runSql = null;
+                message = "Query rejected: " + reason + ". Narrow the question (filters, aggregation) and try again.";
+            } else if (action.equals("limit") && overRows && !overCost) {
+                // The statement runs as written (rewriting it breaks duplicate column names, CTEs and
+                // ORDER BY); the driver stops fetching at the limit
+                outcome = "limited";
+                message = String.format("%s; only the first %,d rows were fetched.", reason, limitRows);
+            } else {
+                // A row limit does not make an expensive aggregate any cheaper, so over-cost statements
+                // ask for confirmation even when the action is "limit"
+                outcome = "confirm";
+                runSql = null;
+                token = token(key);
+                message = "Query held back: " + reason + ". Confirm to run it anyway.";
+            }
+        }
+        registry.counter("dbchat.query.cost_guard", "outcome", outcome, "dialect", dialect.name().toLowerCase(Locale.ROOT))
+            .increment();
+        if (!outcome.equals("allowed")) {
+            logger.info("Cost guard {} (estimated rows {}, cost {}): {}", outcome, estimate.rows, estimate.cost, sql);
+        }
+
+        Map<String, Object> details = new LinkedHashMap<>();
+        details.put("outcome", outcome);
+        details.put("estimatedRows", Math.round(estimate.rows));
+        details.put("estimatedCost", estimate.cost);
+        if (maxRows > 0) details.put("maxRows", Math.round(maxRows));
+        if (maxCost > 0) details.put("maxCost", maxCost);
+        details.put("action", action);
+        details.put("cachedPlan", cached[0]);
+        if (outcome.equals("limited")) details.put("limitRows", limitRows);
+        if (message != null) details.put("message", message);
+        if (token != null) details.put("confirmToken", token);
+        return new Check(runSql, outcome, message, details, outcome.equals("limited") ? limitRows : 0);
+    }
+
+    /**
+     * Keep a statement held for confirmation until the user confirms it
+     * @param token Confirm token from the check
+     * @param cacheKey Connection ID (or the fallback key)
+     * @param prompt User question the statement answers
+     * @param sql Held statement
+     * @param aiResponse AI answer the statement was extracted from
+     */
+    public synchronized void hold(String token, String cacheKey, String prompt, String sql, String aiResponse) {
+        held.put(token, new HeldSql(cacheKey, SqlCache.normalizePrompt(prompt), sql, aiResponse,
+            System.currentTimeMillis() + planTtlMs));
+        Iterator<String> it = held.keySet().iterator();
+        while (held.size() > maxPlans && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * @param token Confirm token sent by the client
+     * @param cacheKey Connection ID (or the fallback key)
+     * @param prompt User question
+     * @return the statement held under the token for the same connection and question, or null
+     */
+    public synchronized HeldSql held(String token, String cacheKey, String prompt) {
+        HeldSql statement = held.get(token);
+        if (statement == null) {
+            return null;
+        }
+        if (statement.expiresAt <= System.currentTimeMillis()) {
+            held.remove(token);
+            return null;
+        }
+        return statement.cacheKey.equals(cacheKey) && statement.prompt.equals(SqlCache.normalizePrompt(prompt))
+            ? statement : null;
+    }
+
+    /**
+     * Drop cached plans for one connection (after DDL the estimates no longer hold)
+     * @param connectionKey Connection ID
+     * @return number of entries removed
+     */
+    public synchronized int invalidate(String connectionKey) {
+        String prefix = connectionKey + "\u0000";
+        held.values().removeIf(statement -> statement.cacheKey.equals(connectionKey));
+        int removed = 0;
+        Iterator<String> it = plans.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        return Map.of(
+            "entries", plans.size(),
+            "held", held.size(),
+            "maxEntries", maxPlans,
+            "ttlMs", planTtlMs,
+            "hits", hits.get(),
+            "misses", misses.get(),
+            "shared", explains.getSuppressed(),
+            "failures", failures.get()
+        );
+    }
+
+    /**
+     * @return whether plan estimates can be read for the dialect (see explain)
+     */
+    boolean supports(SqlDialect dialect) {
+        return dialect == SqlDialect.POSTGRESQL || dialect == SqlDialect.MYSQL || dialect == SqlDialect.MSSQL;
+    }
+
+    // Cached estimate, or one EXPLAIN shared by concurrent callers; null when the statement cannot be explained
+    private Estimate estimate(String key, JdbcTemplate jdbc, SqlDialect dialect, String sql, boolean[] cached) {
+        synchronized (this) {
+            CachedPlan plan = plans.get(key);
+            if (plan != null && plan.expiresAt > System.currentTimeMillis()) {
+                hits.incrementAndGet();
+                cached[0] = true;
+                return plan.estimate;
+            }
+            if (plan != null) {
+                plans.remove(key);
+            }
+        }
+        return explains.execute(key, () -> {
+            misses.incrementAndGet();
+            Estimate estimate;
+            try {
+                estimate = explain(jdbc, dialect, sql);
+            } catch (Exception e) {
+                // Usually a syntax error, which execution reports properly
+                failures.incrementAndGet();
+                logger.debug("EXPLAIN failed, statement not checked: {}", e.getMessage());
+                return CompletableFuture.completedFuture(null);
+            }
+            if (estimate != null) {
+                store(key, estimate);
+            }
+            return CompletableFuture.completedFuture(estimate);
+        }).join();
+    }
+
+    /**
+     * Ask the database for its plan estimate without running the statement
+     * @return estimate, or null if the dialect has no EXPLAIN we can read
+     */
+    Estimate explain(JdbcTemplate jdbc, SqlDialect dialect, String sql) throws Exception {
+        String statement = stripSemicolons(sql);
+        return switch (dialect) {
+            case POSTGRESQL -> parsePostgresPlan(mapper, queryForString(jdbc, "EXPLAIN (FORMAT JSON) " + statement));
+            case MYSQL -> parseMySqlPlan(mapper, queryForString(jdbc, "EXPLAIN FORMAT=JSON " + statement));
+            // SHOWPLAN is a session setting, so all three statements must run on the same connection;
+            // it has to be switched off again before the connection goes back to the pool
+            case MSSQL -> jdbc.execute((ConnectionCallback<Estimate>) connection -> {
+                try (Statement st = connection.createStatement()) {
+                    st.execute("SET SHOWPLAN_XML ON");
+                    try (ResultSet rs = st.executeQuery(statement)) {
+                        return rs.next() ? parseShowPlan(rs.getString(1)) : null;
+                    } finally {
+                        st.execute("SET SHOWPLAN_XML OFF");
+                    }
+                }
+            });
+            default -> null;
+        };
+    }
+
+    private static String queryForString(JdbcTemplate jdbc, String sql) {
+        return jdbc.query(sql, rs -> rs.next() ? rs.getString(1) : null);
+    }
+
+    // PostgreSQL: [{"Plan": {"Total Cost": ..., "Plan Rows": ...}}]
+    static Estimate parsePostgresPlan(ObjectMapper mapper, String json) throws Exception {
+        if (json == null) return null;
+        JsonNode plan = mapper.readTree(json).path(0).path("Plan");
+        if (plan.isMissingNode()) return null;
+        return new Estimate(plan.path("Plan Rows").asDouble(), plan.path("Total Cost").asDouble());
+    }
+
+    // MySQL format version 1: query_block.cost_info.query_cost, rows from the largest join output;
+    // version 2 (explain_json_format_version=2): estimated_rows and estimated_total_cost at the top
+    static Estimate parseMySqlPlan(ObjectMapper mapper, String json) throws Exception {
+        if (json == null) return null;
+        JsonNode root = mapper.readTree(json);
+        if (root.has("estimated_total_cost")) {
+            return new Estimate(root.path("estimated_rows").asDouble(), root.path("estimated_total_cost").asDouble());
+        }
+        JsonNode block = root.path("query_block");
+        if (block.isMissingNode()) return null;
+        return new Estimate(maxField(block, "rows_produced_per_join"), block.path("cost_info").path("query_cost").asDouble());
+    }
+
+    // SQL Server: the statement-level estimates of every statement in the batch; the largest one counts
+    static Estimate parseShowPlan(String xml) {
+        if (xml == null) return null;
+        double rows = maxAttribute(SHOWPLAN_ROWS, xml);
+        double cost = maxAttribute(SHOWPLAN_COST, xml);
+        return rows >= 0 || cost >= 0 ? new Estimate(Math.max(rows, 0), Math.max(cost, 0)) : null;
+    }
+
+    private static double maxField(JsonNode node, String field) {
+        double max = node.has(field) ? node.get(field).asDouble() : 0;
+        for (JsonNode child : node) {
+            if (child.isContainerNode()) {
+                max = Math.max(max, maxField(child, field));
+            }
+        }
+        return max;
+    }
+
+    private static double maxAttribute(Pattern pattern, String xml) {
+        double max = -1;
+        Matcher m = pattern.matcher(xml);
+        while (m.find()) {
+            try {
+                max = Math.max(max, Double.parseDouble(m.group(1)));
+            } catch (NumberFormatException ignore) {
+                // Not a number; skip
+            }
+        }
+        return max;
+    }
+
+    private static String stripSemicolons(String sql) {
+        String trimmed = sql.trim();
+        int end = trimmed.length();
+        while (end > 0 && (trimmed.charAt(end - 1) == ';' || Character.isWhitespace(trimmed.charAt(end - 1)))) end--;
+        return trimmed.substring(0, end);
+    }
+
+    private static String reason(Estimate estimate, double maxRows, double maxCost, boolean overRows, boolean overCost) {
+        StringBuilder reason = new StringBuilder();
+        if (overRows) {
+            reason.append(String.format("estimated %,.0f rows exceeds the limit of %,.0f", estimate.rows, maxRows));
+        }
+        if (overCost) {
+            if (reason.length() > 0) reason.append(" and ");
+            reason.append(String.format("estimated cost %,.0f exceeds the limit of %,.0f", estimate.cost, maxCost));
+        }
+        return reason.toString();
+    }
+
+    private static double limit(Map<String, Object> config, String key, double fallback) {
+        Object value = config != null ? config.get(key) : null;
+        if (value instanceof Number number) return number.doubleValue();
+        if (value != null) {
+            try {
+                return Double.parseDouble(value.toString().trim());
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring invalid {} '{}'", key, value);
+            }
+        }
+        return fallback;
+    }
+
+    private String action(Map<String, Object> config) {
+        Object value = config != null ? config.get(ACTION_KEY) : null;
+        String action = (value != null ? value.toString() : defaultAction).trim().toLowerCase(Locale.ROOT);
+        return switch (action) {
+            case "reject", "limit", "confirm" -> action;
+            default -> {
+                logger.warn("Unknown cost guard action '{}', asking for confirmation", action);
+                yield "confirm";
+            }
+        };
+    }
+
+    // Ties a confirmation to the connection and the statement it was issued for
+    private static String token(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private synchronized void store(String key, Estimate estimate) {
+        plans.put(key, new CachedPlan(estimate, System.currentTimeMillis() + planTtlMs));
+        Iterator<String> it = plans.keySet().iterator();
+        while (plans.size() > maxPlans && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.horhge.sql.service;
+
+/**
+ * Receives query pipeline results as each stage completes.
+ * Events: "sql", "rows" (in batches), "summary", "chart" and "error".
+ */
+@FunctionalInterface
+public interface QueryEventListener {
+    QueryEventListener NONE = (event, data) -> { };
+
+    /**
+     * @param event Event name
+     * @param data JSON-serializable payload
+     */
+    void onEvent(String event, Object data);
+}
@@ -0,0 +1,229 @@
+package com.horhge.sql.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cache of executed query results keyed by (connection ID, normalized SQL). Entries expire after a
+ * TTL and are evicted least-recently-used (expired entries first) when the estimated size of all
+ * cached rows exceeds the byte budget. Concurrent executions of the same statement on the same
+ * connection share one in-flight query.
+ */
+@Service
+public class ResultCache {
+    private static final Logger logger = LoggerFactory.getLogger(ResultCache.class);
+
+    @Value("${dbchat.result-cache.ttl-ms:60000}")
+    private long ttlMs;
+
+    @Value("${dbchat.result-cache.max-bytes:67108864}")
+    private long maxBytes;
+
+    // A single result may use at most this share of the budget
+    @Value("${dbchat.result-cache.max-entry-fraction:0.25}")
+    private double maxEntryFraction;
+
+    private final LinkedHashMap<String, CachedRows> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final SingleFlight<String, ColumnarResult> executions = new SingleFlight<>();
+    private long currentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private static class CachedRows {
+        final ColumnarResult rows;
+        final long bytes;
+        final long expiresAt;
+
+        CachedRows(ColumnarResult rows, long bytes, long expiresAt) {
+            this.rows = rows;
+            this.bytes = bytes;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Rows plus where they came from: "hit" (cache), "shared" (joined an identical in-flight query)
+     * or "executed"
+     */
+    public static class Result {
+        private final ColumnarResult rows;
+        private final String source;
+
+        Result(ColumnarResult rows, String source) {
+            this.rows = rows;
+            this.source = source;
+        }
+
+        public ColumnarResult getRows() {
+            return rows;
+        }
+
+        public String getSource() {
+            return source;
+        }
+    }
+
+    /**
+     * Return cached rows for a statement, or execute it (once, however many callers ask concurrently)
+     * @param connectionKey Connection ID
+     * @param sql SQL text
+     * @param execute Runs the statement; error results are not cached
+     * @return rows and their source
+     */
+    public Result getOrExecute(String connectionKey, String sql, Supplier<ColumnarResult> execute) {
+        String key = connectionKey + "\u0000" + normalizeSql(sql);
+        synchronized (this) {
+            CachedRows cached = entries.get(key);
+            if (cached != null && cached.expiresAt > System.currentTimeMillis()) {
+                hits.incrementAndGet();
+                return new Result(cached.rows, "hit");
+            }
+            if (cached != null) {
+                remove(key);
+            }
+        }
+
+        // The leader runs the statement on its own thread; concurrent callers wait for its rows
+        boolean[] leader = new boolean[1];
+        ColumnarResult rows = executions.execute(key, () -> {
+            leader[0] = true;
+            misses.incrementAndGet();
+            ColumnarResult executed = execute.get();
+            if (!executed.isError()) {
+                store(key, executed);
+            }
+            return CompletableFuture.completedFuture(executed);
+        }).join();
+        return new Result(rows, leader[0] ? "executed" : "shared");
+    }
+
+    /**
+     * Drop cached results for one connection
+     * @param connectionKey Connection ID
+     * @return number of entries removed
+     */
+    public synchronized int invalidate(String connectionKey) {
+        String prefix = connectionKey + "\u0000";
+        int removed = 0;
+        Iterator<Map.Entry<String, CachedRows>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, CachedRows> entry = it.next();
+            if (entry.getKey().startsWith(prefix)) {
+                currentBytes -= entry.getValue().bytes;
+                it.remove();
+                removed++;
+            }
+        }
+        logger.info("Result cache invalidated for {} ({} entries)", connectionKey, removed);
+        return removed;
+    }
+
+    /**
+     * Drop all cached results
+     * @return number of entries removed
+     */
+    public synchronized int invalidateAll() {
+        int removed = entries.size();
+        entries.clear();
+        currentBytes = 0;
+        logger.info("Result cache cleared ({} entries)", removed);
+        return removed;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        return Map.of(
+            "entries", entries.size(),
+            "bytes", currentBytes,
+            "maxBytes", maxBytes,
+            "ttlMs", ttlMs,
+            "hits", hits.get(),
+            "misses", misses.get(),
+            "shared", executions.getSuppressed(),
+            "evictions", evictions.get()
+        );
+    }
+
+    /**
+     * Lowercase and collapse whitespace outside quoted literals/identifiers, drop trailing semicolons
+     * @param sql SQL text
+     * @return normalized SQL
+     */
+    public static String normalizeSql(String sql) {
+        StringBuilder out = new StringBuilder(sql.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote != 0) {
+                out.append(c);
+                if (c == quote) quote = 0;
+            } else if (c == '\'' || c == '"' || c == '`') {
+                if (space && out.length() > 0) out.append(' ');
+                space = false;
+                out.append(c);
+                quote = c;
+            } else if (Character.isWhitespace(c)) {
+                space = true;
+            } else {
+                if (space && out.length() > 0) out.append(' ');
+                space = false;
+                out.append(Character.toLowerCase(c));
+            }
+        }
+        int end = out.length();
+        while (end > 0 && (out.charAt(end - 1) == ';' || out.charAt(end - 1) == ' ')) end--;
+        out.setLength(end);
+        return out.toString();
+    }
+
+    private synchronized void store(String key, ColumnarResult rows) {
+        long bytes = rows.estimateBytes();
+        if (bytes > maxBytes * maxEntryFraction) {
+            logger.debug("Result of {} bytes too large to cache", bytes);
+            return;
+        }
+        remove(key);
+        entries.put(key, new CachedRows(rows, bytes, System.currentTimeMillis() + ttlMs));
+        currentBytes += bytes;
+        if (currentBytes > maxBytes) {
+            evictExpired();
+        }
+        Iterator<Map.Entry<String, CachedRows>> eldest = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            currentBytes -= eldest.next().getValue().bytes;
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, CachedRows>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            CachedRows rows = it.next().getValue();
+            if (rows.expiresAt <= now) {
+                currentBytes -= rows.bytes;
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private void remove(String key) {
+        CachedRows previous = entries.remove(key);
+        if (previous != null) {
+            currentBytes -= previous.bytes;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.horhge.sql.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Paged query results backed by held-open, forward-only JDBC cursors. The first page comes back with
+ * the query; later pages are read on demand through a result handle. A cursor holds one pooled
+ * connection, so cursors are closed once exhausted, after an idle timeout, and when a connection
+ * opens more than its share.
+ */
+@Service
+public class ResultPager {
+    private static final Logger logger = LoggerFactory.getLogger(ResultPager.class);
+
+    @Value("${dbchat.results.page-size:500}")
+    private int pageSize;
+
+    @Value("${dbchat.results.fetch-size:500}")
+    private int fetchSize;
+
+    @Value("${dbchat.results.max-rows:100000}")
+    private int maxRows;
+
+    @Value("${dbchat.results.cursor-idle-timeout-ms:120000}")
+    private long idleTimeoutMs;
+
+    @Value("${dbchat.results.max-cursors-per-connection:2}")
+    private int maxCursorsPerConnection;
+
+    private final Map<String, Cursor> cursors = new ConcurrentHashMap<>();
+    // Per connection, makes the quota check and the insert of a new cursor one step
+    private final Map<String, ReentrantLock> quotaLocks = new ConcurrentHashMap<>();
+    private ScheduledExecutorService sweeper;
+
+    private static class Cursor {
+        final String handle;
+        final String connectionKey;
+        final Connection connection;
+        final boolean autoCommit;
+        final Statement statement;
+        final ResultSet resultSet;
+        // Guards reads and close; a lock rather than a monitor so JDBC reads do not pin a virtual thread
+        final ReentrantLock lock = new ReentrantLock();
+        int nextPage = 1;
+        Page lastPage;
+        volatile long lastAccess = System.currentTimeMillis();
+        boolean closed;
+
+        Cursor(String handle, String connectionKey, Connection connection, boolean autoCommit,
+               Statement statement, ResultSet resultSet) {
+            this.handle = handle;
+            this.connectionKey = connectionKey;
+            this.connection = connection;
+            this.autoCommit = autoCommit;
+            this.statement = statement;
+            this.resultSet = resultSet;
+        }
+    }
+
+    /**
+     * One page of rows; handle is null once the cursor is exhausted
+     */
+    public static class Page {
+        private final ColumnarResult rows;
+        private final int page;
+        private final String handle;
+
+        Page(ColumnarResult rows, int page, String handle) {
+            this.rows = rows;
+            this.page = page;
+            this.handle = handle;
+        }
+
+        public ColumnarResult getRows() {
+            return rows;
+        }
+
+        public int getPage() {
+            return page;
+        }
+
+        public String getHandle() {
+            return handle;
+        }
+
+        public boolean hasMore() {
+            return handle != null;
+        }
+    }
+
+    /**
+     * Thrown for pages the forward-only cursor has already moved past
+     */
+    public static class PageGoneException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public PageGoneException(String message) {
+            super(message);
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "result-cursor-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(1000, idleTimeoutMs / 4);
+        sweeper.scheduleWithFixedDelay(this::closeIdle, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        sweeper.shutdownNow();
+        cursors.values().forEach(this::close);
+        cursors.clear();
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Execute a query and return its first page, keeping the cursor open if more rows may follow
+     * @param connectionKey Connection ID
+     * @param jdbc JdbcTemplate whose DataSource supplies the connection
+     * @param sql SELECT statement
+     * @param rowLimit Rows to read at most if below the configured cap, or 0 for the configured cap
+     * @return first page (page 0)
+     * @throws SQLException if the query fails
+     */
+    public Page open(String connectionKey, JdbcTemplate jdbc, String sql, int rowLimit) throws SQLException {
+        Connection connection = jdbc.getDataSource().getConnection();
+        boolean autoCommit = true;
+        Statement statement = null;
+        try {
+            // PostgreSQL only streams with a fetch size inside a transaction
+            autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+            statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            statement.setMaxRows(rowLimit > 0 && rowLimit < maxRows ? rowLimit : maxRows);
+            ResultSet resultSet = statement.executeQuery(sql);
+            Cursor cursor = new Cursor(UUID.randomUUID().toString(), connectionKey, connection, autoCommit,
+                statement, resultSet);
+            ColumnarResult rows = ColumnarResult.read(resultSet, pageSize);
+            if (rows.getRowCount() < pageSize) {
+                close(cursor);
+                return new Page(rows, 0, null);
+            }
+            ReentrantLock quotaLock = quotaLocks.computeIfAbsent(connectionKey, k -> new ReentrantLock());
+            quotaLock.lock();
+            try {
+                makeRoom(connectionKey);
+                cursors.put(cursor.handle, cursor);
+            } finally {
+                quotaLock.unlock();
+            }
+            cursor.lastPage = new Page(rows, 0, cursor.handle);
+            logger.debug("Opened result cursor {} for {}", cursor.handle, connectionKey);
+            return cursor.lastPage;
+        } catch (SQLException | RuntimeException e) {
+            closeQuietly(statement);
+            release(connection, autoCommit);
+            throw e;
+        }
+    }
+
+    /**
+     * Read a page through a handle. Pages are served in order; skipping ahead discards the rows in
+     * between, and only the most recent page can be requested again.
+     * @param handle Result handle from the first page
+     * @param page Page number (0 = the page returned with the query)
+     * @return page, or null if the handle is unknown or expired
+     * @throws SQLException on read errors
+     */
+    public Page page(String handle, int page) throws SQLException {
+        Cursor cursor = cursors.get(handle);
+        if (cursor == null) {
+            return null;
+        }
+        cursor.lock.lock();
+        try {
+            if (cursor.closed) {
+                return null;
+            }
+            cursor.lastAccess = System.currentTimeMillis();
+            if (page == cursor.lastPage.getPage()) {
+                return cursor.lastPage;
+            }
+            if (page < cursor.nextPage) {
+                throw new PageGoneException("Page " + page + " is no longer available; re-run the query");
+            }
+            try {
+                for (long skip = (long) (page - cursor.nextPage) * pageSize; skip > 0; skip--) {
+                    if (!cursor.resultSet.next()) break;
+                }
+                ColumnarResult rows = ColumnarResult.read(cursor.resultSet, pageSize);
+                cursor.nextPage = page + 1;
+                boolean more = rows.getRowCount() == pageSize;
+                cursor.lastPage = new Page(rows, page, more ? handle : null);
+                if (!more) {
+                    close(handle);
+                }
+                return cursor.lastPage;
+            } catch (SQLException e) {
+                close(handle);
+                throw e;
+            }
+        } finally {
+            cursor.lock.unlock();
+        }
+    }
+
+    /**
+     * Close a cursor early
+     * @param handle Result handle
+     * @return true if a cursor was open
+     */
+    public boolean close(String handle) {
+        Cursor cursor = cursors.remove(handle);
+        if (cursor == null) {
+            return false;
+        }
+        close(cursor);
+        return true;
+    }
+
+    /**
+     * Close all cursors of a connection (e.g. when it is removed)
+     * @param connectionKey Connection ID
+     */
+    public void closeAll(String connectionKey) {
+        cursors.values().stream()
+            .filter(cursor -> cursor.connectionKey.equals(connectionKey))
+            .map(cursor -> cursor.handle)
+            .toList()
+            .forEach(this::close);
+    }
+
+    public Map<String, Object> stats() {
+        return Map.of(
+            "openCursors", cursors.size(),
+            "pageSize", pageSize,
+            "fetchSize", fetchSize,
+            "maxRows", maxRows
+        );
+    }
+
+    // Keep each connection under its cursor quota by closing its least recently used cursors; the
+    // caller holds the connection's quota lock so concurrent opens cannot both see a free slot
+    private void makeRoom(String connectionKey) {
+        List<Cursor> open = cursors.values().stream()
+            .filter(c -> c.connectionKey.equals(connectionKey))
+            .sorted(Comparator.comparingLong(c -> c.lastAccess))
+            .toList();
+        for (int i = 0; i <= open.size() - Math.max(1, maxCursorsPerConnection); i++) {
+            Cursor c = open.get(i);
+            logger.info("Closing result cursor {} to stay within {} per connection", c.handle, maxCursorsPerConnection);
+            close(c.handle);
+        }
+    }
+
+    private void closeIdle() {
+        long cutoff = System.currentTimeMillis() - idleTimeoutMs;
+        cursors.values().stream()
+            .filter(cursor -> cursor.lastAccess < cutoff)
+            .map(cursor -> cursor.handle)
+            .toList()
+            .forEach(handle -> {
+                logger.debug("Closing idle result cursor {}", handle);
+                close(handle);
+            });
+    }
+
+    private void close(Cursor cursor) {
+        cursor.lock.lock();
+        try {
+            if (cursor.closed) {
+                return;
+            }
+            cursor.closed = true;
+            closeQuietly(cursor.statement);
+            release(cursor.connection, cursor.autoCommit);
+        } finally {
+            cursor.lock.unlock();
+        }
+    }
+
+    private static void closeQuietly(Statement statement) {
+        if (statement == null) {
+            return;
+        }
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            logger.debug("Could not close statement: {}", e.getMessage());
+        }
+    }
+
+    // End the read-only transaction and hand the connection back to the pool
+    private static void release(Connection connection, boolean autoCommit) {
+        try {
+            connection.rollback();
+            connection.setReadOnly(false);
+            connection.setAutoCommit(autoCommit);
+        } catch (SQLException e) {
+            logger.debug("Could not reset connection: {}", e.getMessage());
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.debug("Could not close connection: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.horhge.sql.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Single-pass statistical profile of a query result, small enough to send to the LLM in place of the
+ * rows themselves. Per column: count, nulls, min/max, mean/stddev (Welford) for numeric columns,
+ * approximate distinct count (HyperLogLog, ~1.6% error), and the most frequent values (Space-Saving).
+ * A few sample rows are kept by reservoir sampling.
+ */
+public class ResultProfiler {
+    // 2^12 HyperLogLog registers
+    private static final int HLL_BITS = 12;
+    private static final int HLL_REGISTERS = 1 << HLL_BITS;
+    // Space-Saving tracks this many counters per reported value
+    private static final int COUNTERS_PER_TOP_VALUE = 4;
+
+    /**
+     * Profile a result in one pass over its rows
+     * @param rows Query result
+     * @param topK Frequent values to report per column
+     * @param sampleRows Rows to include verbatim
+     * @return JSON-serializable profile
+     */
+    public static Map<String, Object> profile(ColumnarResult rows, int topK, int sampleRows) {
+        int columnCount = rows.getColumnCount();
+        ColumnProfile[] columns = new ColumnProfile[columnCount];
+        for (int c = 0; c < columnCount; c++) {
+            columns[c] = new ColumnProfile(rows.getKind(c), topK * COUNTERS_PER_TOP_VALUE);
+        }
+        Random random = new Random(42);
+        int[] sample = new int[Math.min(sampleRows, rows.getRowCount())];
+
+        for (int r = 0; r < rows.getRowCount(); r++) {
+            for (int c = 0; c < columnCount; c++) {
+                columns[c].add(rows, r, c);
+            }
+            if (r < sample.length) {
+                sample[r] = r;
+            } else {
+                int slot = random.nextInt(r + 1);
+                if (slot < sample.length) sample[slot] = r;
+            }
+        }
+
+        List<Map<String, Object>> columnProfiles = new ArrayList<>();
+        for (int c = 0; c < columnCount; c++) {
+            Map<String, Object> column = new LinkedHashMap<>();
+            column.put("name", rows.getColumnName(c));
+            columns[c].describe(column, topK);
+            columnProfiles.add(column);
+        }
+        Arrays.sort(sample);
+        List<List<Object>> sampled = new ArrayList<>();
+        for (int r : sample) {
+            List<Object> row = new ArrayList<>(columnCount);
+            for (int c = 0; c < columnCount; c++) {
+                row.add(rows.getValue(r, c));
+            }
+            sampled.add(row);
+        }
+
+        Map<String, Object> profile = new LinkedHashMap<>();
+        profile.put("rowCount", rows.getRowCount());
+        profile.put("columns", columnProfiles);
+        profile.put("sampleRows", sampled);
+        return profile;
+    }
+
+    private static class ColumnProfile {
+        final ColumnarResult.Kind kind;
+        final byte[] registers = new byte[HLL_REGISTERS];
+        final SpaceSaving frequent;
+        long count;
+        long nulls;
+        // Numeric columns: Welford running mean and sum of squared deviations
+        double mean;
+        double m2;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        // Other columns: Comparable min/max (strings, dates)
+        Comparable<Object> minValue;
+        Comparable<Object> maxValue;
+        // Integer columns: exact min/max (doubles lose precision above 2^53)
+        long minLong = Long.MAX_VALUE;
+        long maxLong = Long.MIN_VALUE;
+        // Decimal columns: exact min/max
+        BigDecimal minDecimal;
+        BigDecimal maxDecimal;
+        boolean comparable = true;
+
+        ColumnProfile(ColumnarResult.Kind kind, int counters) {
+            this.kind = kind;
+            this.frequent = new SpaceSaving(counters);
+        }
+
+        @SuppressWarnings("unchecked")
+        void add(ColumnarResult rows, int r, int c) {
+            if (rows.isNull(r, c)) {
+                nulls++;
+                return;
+            }
+            count++;
+            Object value;
+            long hash;
+            switch (kind) {
+                case LONG -> {
+                    long v = rows.getLong(r, c);
+                    addNumber(v);
+                    if (v < minLong) minLong = v;
+                    if (v > maxLong) maxLong = v;
+                    value = v;
+                    hash = mix(v);
+                }
+                case DOUBLE -> {
+                    double v = rows.getDouble(r, c);
+                    addNumber(v);
+                    value = v;
+                    hash = mix(Double.doubleToLongBits(v));
+                }
+                case DECIMAL -> {
+                    // Mean and spread as doubles; min, max and top values stay exact
+                    BigDecimal v = rows.getDecimal(r, c);
+                    addNumber(v.doubleValue());
+                    if (minDecimal == null || v.compareTo(minDecimal) < 0) minDecimal = v;
+                    if (maxDecimal == null || v.compareTo(maxDecimal) > 0) maxDecimal = v;
+                    value = v;
+                    hash = hash(v.toPlainString());
+                }
+                case BOOLEAN -> {
+                    boolean v = rows.getBoolean(r, c);
+                    addNumber(v ? 1 : 0);
+                    value = v;
+                    hash = mix(v ? 1 : 0);
+                }
+                default -> {
+                    value = rows.getValue(r, c);
+                    String text = kind == ColumnarResult.Kind.STRING ? (String) value : String.valueOf(value);
+                    hash = hash(text);
+                    if (comparable && value instanceof Comparable) {
+                        try {
+                            Comparable<Object> v = (Comparable<Object>) value;
+                            if (minValue == null || v.compareTo(minValue) < 0) minValue = v;
+                            if (maxValue == null || v.compareTo(maxValue) > 0) maxValue = v;
+                        } catch (ClassCastException e) {
+                            comparable = false;
+                        }
+                    } else {
+                        comparable = false;
+                    }
+                }
+            }
+            addHash(hash);
+            frequent.add(value);
+        }
+
+        void addNumber(double v) {
+            double delta = v - mean;
+            mean += delta / count;
+            m2 += delta * (v - mean);
+            if (v < min) min = v;
+            if (v > max) max = v;
+        }
+
+        void addHash(long hash) {
+            int index = (int) (hash >>> (64 - HLL_BITS));
+            int rank = Long.numberOfLeadingZeros((hash << HLL_BITS) | (1L << (HLL_BITS - 1))) + 1;
+            if (rank > registers[index]) registers[index] = (byte) rank;
+        }
+
+        long distinct() {
+            double sum = 0;
+            int zeros = 0;
+            for (byte register : registers) {
+                sum += 1.0 / (1L << register);
+                if (register == 0) zeros++;
+            }
+            double alpha = 0.7213 / (1 + 1.079 / HLL_REGISTERS);
+            double estimate = alpha * HLL_REGISTERS * HLL_REGISTERS / sum;
+            // Linear counting is more accurate while many registers are still empty
+            if (estimate <= 2.5 * HLL_REGISTERS && zeros > 0) {
+                estimate = HLL_REGISTERS * Math.log((double) HLL_REGISTERS / zeros);
+            }
+            return Math.min(Math.round(estimate), count);
+        }
+
+        void describe(Map<String, Object> out, int topK) {
+            out.put("type", kind.name().toLowerCase(Locale.ROOT));
+            out.put("count", count);
+            out.put("nulls", nulls);
+            if (count == 0) {
+                return;
+            }
+            switch (kind) {
+                case LONG, DOUBLE -> {
+                    out.put("min", kind == ColumnarResult.Kind.LONG ? (Object) minLong : min);
+                    out.put("max", kind == ColumnarResult.Kind.LONG ? (Object) maxLong : max);
+                    out.put("mean", mean);
+                    out.put("stddev", count > 1 ? Math.sqrt(m2 / (count - 1)) : 0.0);
+                }
+                case DECIMAL -> {
+                    out.put("min", minDecimal);
+                    out.put("max", maxDecimal);
+                    out.put("mean", mean);
+                    out.put("stddev", count > 1 ? Math.sqrt(m2 / (count - 1)) : 0.0);
+                }
+                case BOOLEAN -> out.put("trueRatio", mean);
+                default -> {
+                    if (comparable && minValue != null) {
+                        out.put("min", String.valueOf(minValue));
+                        out.put("max", String.valueOf(maxValue));
+                    }
+                }
+            }
+            out.put("approxDistinct", distinct());
+            List<Map<String, Object>> top = frequent.top(topK);
+            if (!top.isEmpty()) {
+                out.put("topValues", top);
+            }
+        }
+    }
+
+    // Space-Saving heavy hitters: counts are overestimates by at most the recorded error
+    private static class SpaceSaving {
+        final int capacity;
+        final Map<Object, long[]> counters = new HashMap<>();
+
+        SpaceSaving(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void add(Object value) {
+            long[] counter = counters.get(value);
+            if (counter != null) {
+                counter[0]++;
+                return;
+            }
+            if (counters.size() < capacity) {
+                counters.put(value, new long[]{1, 0});
+                return;
+            }
+            // Replace the smallest counter; the newcomer inherits its count as error
+            Object smallest = null;
+            long smallestCount = Long.MAX_VALUE;
+            for (Map.Entry<Object, long[]> entry : counters.entrySet()) {
+                if (entry.getValue()[0] < smallestCount) {
+                    smallestCount = entry.getValue()[0];
+                    smallest = entry.getKey();
+                }
+            }
+            counters.remove(smallest);
+            counters.put(value, new long[]{smallestCount + 1, smallestCount});
+        }
+
+        // Values that occur more than once for certain, most frequent first
+        List<Map<String, Object>> top(int k) {
+            List<Map.Entry<Object, long[]>> entries = new ArrayList<>(counters.entrySet());
+            entries.sort(Comparator.comparingLong((Map.Entry<Object, long[]> e) -> e.getValue()[0]).reversed());
+            List<Map<String, Object>> top = new ArrayList<>();
+            Iterator<Map.Entry<Object, long[]>> it = entries.iterator();
+            while (it.hasNext() && top.size() < k) {
+                Map.Entry<Object, long[]> entry = it.next();
+                long guaranteed = entry.getValue()[0] - entry.getValue()[1];
+                if (guaranteed < 2) continue;
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("value", entry.getKey());
+                item.put("count", entry.getValue()[0]);
+                top.add(item);
+            }
+            return top;
+        }
+    }
+
+    // 64-bit FNV-1a over the UTF-16 chars, finished with a MurmurHash3 mix
+    private static long hash(String text) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            h ^= text.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
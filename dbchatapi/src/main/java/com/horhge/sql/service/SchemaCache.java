@@ -0,0 +1,198 @@
+package com.horhge.sql.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Caches the schema text per connection ID. A schema is read once, then kept up to date in the
+ * background using the dialect's DDL fingerprint query. Callers always get the current snapshot
+ * immediately; only the very first request for a connection waits for the schema to be read.
+ */
+@Service
+public class SchemaCache {
+    private static final Logger logger = LoggerFactory.getLogger(SchemaCache.class);
+
+    // Cache key used for the optional fallback DataSource
+    public static final String DEFAULT_KEY = "default";
+
+    @Autowired
+    private SchemaIntrospector schemaIntrospector;
+
+    @Autowired
+    private ConnectionManager connectionManager;
+
+    @Value("${dbchat.schema-cache.check-interval-ms:60000}")
+    private long checkIntervalMs;
+
+    @Value("${dbchat.schema-cache.max-age-ms:600000}")
+    private long maxAgeMs;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private ScheduledExecutorService refresher;
+
+    private static class Entry {
+        final JdbcTemplate jdbc;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+        // A lock rather than a monitor: the schema read blocks on JDBC, which would pin a virtual thread
+        final ReentrantLock rebuildLock = new ReentrantLock();
+        volatile SchemaSnapshot snapshot;
+        volatile long lastCheckedAt;
+
+        Entry(JdbcTemplate jdbc) {
+            this.jdbc = jdbc;
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        AtomicInteger threadCount = new AtomicInteger();
+        refresher = Executors.newScheduledThreadPool(2, r -> {
+            Thread t = new Thread(r, "schema-refresh-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        refresher.scheduleWithFixedDelay(this::checkAll, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        refresher.shutdownNow();
+    }
+
+    /**
+     * Get the schema for a connection, reading it only if nothing is cached yet
+     * @param key Connection ID (or DEFAULT_KEY)
+     * @param jdbc JdbcTemplate for the connection
+     * @return current schema snapshot
+     * @throws SQLException if there is no cached schema and it cannot be read
+     */
+    public SchemaSnapshot getSchema(String key, JdbcTemplate jdbc) throws SQLException {
+        Entry entry = entries.compute(key, (k, existing) ->
+            existing != null && existing.jdbc == jdbc ? existing : new Entry(jdbc));
+        SchemaSnapshot snapshot = entry.snapshot;
+        if (snapshot != null) {
+            if (System.currentTimeMillis() - entry.lastCheckedAt > checkIntervalMs) {
+                refresher.execute(() -> check(key, entry));
+            }
+            return snapshot;
+        }
+        entry.rebuildLock.lock();
+        try {
+            if (entry.snapshot == null) {
+                rebuild(key, entry);
+            }
+            return entry.snapshot;
+        } finally {
+            entry.rebuildLock.unlock();
+        }
+    }
+
+    /**
+     * Re-read the schema for a connection now. Concurrent requests keep using the previous snapshot.
+     * @param key Connection ID (or DEFAULT_KEY)
+     * @param jdbc JdbcTemplate for the connection
+     * @return the new snapshot
+     * @throws SQLException if the schema cannot be read; the previous snapshot is kept
+     */
+    public SchemaSnapshot refresh(String key, JdbcTemplate jdbc) throws SQLException {
+        Entry entry = entries.compute(key, (k, existing) ->
+            existing != null && existing.jdbc == jdbc ? existing : new Entry(jdbc));
+        entry.rebuildLock.lock();
+        try {
+            rebuild(key, entry);
+            return entry.snapshot;
+        } finally {
+            entry.rebuildLock.unlock();
+        }
+    }
+
+    /**
+     * Drop the cached schema for a connection
+     * @param key Connection ID
+     */
+    public void evict(String key) {
+        if (key != null && entries.remove(key) != null) {
+            logger.debug("Schema cache entry {} evicted", key);
+        }
+    }
+
+    private void checkAll() {
+        entries.forEach((key, entry) -> {
+            if (!DEFAULT_KEY.equals(key) && connectionManager.getConnection(key) == null) {
+                evict(key);
+                return;
+            }
+            check(key, entry);
+        });
+    }
+
+    // Rebuild the snapshot if the DDL fingerprint moved (or it is too old when there is no fingerprint)
+    private void check(String key, Entry entry) {
+        SchemaSnapshot snapshot = entry.snapshot;
+        if (snapshot == null || !entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            entry.lastCheckedAt = System.currentTimeMillis();
+            boolean stale;
+            if (snapshot.getDdlFingerprint() != null) {
+                String current = schemaIntrospector.readDdlFingerprint(entry.jdbc, snapshot.getDialect());
+                stale = current != null && !Objects.equals(current, snapshot.getDdlFingerprint());
+            } else {
+                stale = System.currentTimeMillis() - snapshot.getBuiltAt() > maxAgeMs;
+            }
+            // Skipped when a manual refresh holds the lock; it reads the same change. Rebuilds must not
+            // overlap: they update the shared SchemaIndex and the last one would install its snapshot.
+            if (stale && entry.rebuildLock.tryLock()) {
+                try {
+                    if (entry.snapshot == snapshot) {
+                        logger.info("Schema change detected for {}, refreshing in background", key);
+                        rebuild(key, entry);
+                    }
+                } finally {
+                    entry.rebuildLock.unlock();
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Schema check failed for {}: {}", key, e.getMessage());
+        } finally {
+            entry.refreshing.set(false);
+        }
+    }
+
+    private void rebuild(String key, Entry entry) throws SQLException {
+        long start = System.currentTimeMillis();
+        SqlDialect dialect = entry.snapshot != null
+            ? entry.snapshot.getDialect()
+            : schemaIntrospector.detectDialect(entry.jdbc);
+        // Read the fingerprint first so a change during the read is picked up by the next check
+        String fingerprint = schemaIntrospector.readDdlFingerprint(entry.jdbc, dialect);
+        List<TableInfo> tables = schemaIntrospector.introspect(entry.jdbc, dialect);
+        String schemaText = SchemaIntrospector.render(tables);
+        // A new index reusing the previous one's unchanged tables; the previous snapshot keeps its own index
+        SchemaIndex index = new SchemaIndex(tables, entry.snapshot != null ? entry.snapshot.getIndex() : null);
+        logger.debug("Schema index for {} built ({} of {} tables re-indexed)", key, index.getReindexed(), tables.size());
+        entry.snapshot = new SchemaSnapshot(tables, schemaText, dialect, fingerprint, System.currentTimeMillis(), index);
+        entry.lastCheckedAt = entry.snapshot.getBuiltAt();
+        logger.info("Schema for {} cached ({} tables, {} chars, {} ms)", key, tables.size(), schemaText.length(),
+            System.currentTimeMillis() - start);
+    }
+}
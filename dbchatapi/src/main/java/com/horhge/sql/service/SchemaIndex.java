@@ -0,0 +1,193 @@
+package com.horhge.sql.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory inverted index over table names, column names and comments, used to pick the
+ * tables relevant to a question. Terms are word tokens plus character trigrams of table and
+ * column name parts (so "cust" still finds "customer"). An index is never modified once built:
+ * a schema change builds a new one that only re-tokenizes tables whose rendered definition changed.
+ */
+public class SchemaIndex {
+    private static final float TABLE_NAME_WEIGHT = 3.0f;
+    private static final float COLUMN_NAME_WEIGHT = 1.0f;
+    private static final float COMMENT_WEIGHT = 0.5f;
+    private static final float TRIGRAM_WEIGHT = 0.4f;
+    // Share of a matched table's score passed on to tables it is joined to by a foreign key
+    private static final float NEIGHBOUR_DECAY = 0.35f;
+    private static final String TRIGRAM_PREFIX = "#";
+
+    private final Map<String, TableDoc> docs = new HashMap<>();
+    private final Map<String, Map<String, Float>> postings = new HashMap<>();
+    private final Map<String, Set<String>> neighbours = new HashMap<>();
+    // Catalog order, used when nothing in the question matches
+    private final List<String> tableOrder;
+    private final int reindexed;
+
+    // Shared between indexes; never modified after construction
+    private static class TableDoc {
+        final String text;
+        final Map<String, Float> terms;
+
+        TableDoc(String text, Map<String, Float> terms) {
+            this.text = text;
+            this.terms = terms;
+        }
+    }
+
+    /**
+     * Index a set of tables
+     * @param tables Current tables
+     * @param previous Index of the previous schema whose unchanged tables are reused, or null
+     */
+    public SchemaIndex(List<TableInfo> tables, SchemaIndex previous) {
+        int indexed = 0;
+        List<String> order = new ArrayList<>(tables.size());
+        for (TableInfo table : tables) {
+            String name = table.getQualifiedName();
+            order.add(name);
+            StringBuilder text = new StringBuilder();
+            SchemaIntrospector.renderTable(table, text);
+            TableDoc doc = previous != null ? previous.docs.get(name) : null;
+            if (doc == null || !doc.text.contentEquals(text)) {
+                doc = new TableDoc(text.toString(), termsFor(table));
+                indexed++;
+            }
+            TableDoc indexedDoc = doc;
+            docs.put(name, indexedDoc);
+            indexedDoc.terms.forEach((term, weight) -> postings.computeIfAbsent(term, k -> new HashMap<>()).put(name, weight));
+        }
+        for (TableInfo table : tables) {
+            for (TableInfo.Column column : table.getColumns()) {
+                String ref = column.getReferencedTable();
+                if (ref != null && docs.containsKey(ref) && !ref.equals(table.getQualifiedName())) {
+                    neighbours.computeIfAbsent(table.getQualifiedName(), k -> new HashSet<>()).add(ref);
+                    neighbours.computeIfAbsent(ref, k -> new HashSet<>()).add(table.getQualifiedName());
+                }
+            }
+        }
+        this.tableOrder = List.copyOf(order);
+        this.reindexed = indexed;
+    }
+
+    /**
+     * @return number of tables tokenized for this index rather than reused from the previous one
+     */
+    public int getReindexed() {
+        return reindexed;
+    }
+
+    /**
+     * Select the tables most relevant to a question, rendered as schema text
+     * @param question User question
+     * @param maxTables Maximum number of tables with full column lists
+     * @param maxChars Character budget for the returned text
+     * @return schema text for the selected tables, followed by the names of other tables if they fit
+     */
+    public String select(String question, int maxTables, int maxChars) {
+        List<String> ranked = rank(question);
+        StringBuilder out = new StringBuilder();
+        Set<String> selected = new LinkedHashSet<>();
+        for (String name : ranked) {
+            if (selected.size() >= maxTables) break;
+            String text = docs.get(name).text;
+            if (out.length() + text.length() > maxChars) continue;
+            out.append(text);
+            selected.add(name);
+        }
+        // Let the model know other tables exist without spending the budget on their columns
+        if (selected.size() < docs.size()) {
+            StringBuilder others = new StringBuilder("Other tables (columns omitted): ");
+            int baseLength = others.length();
+            for (String name : tableOrder) {
+                if (selected.contains(name)) continue;
+                if (out.length() + others.length() + name.length() + 3 > maxChars) break;
+                if (others.length() > baseLength) others.append(", ");
+                others.append(name);
+            }
+            if (others.length() > baseLength) {
+                out.append(others).append("\n");
+            }
+        }
+        return out.toString();
+    }
+
+    public int size() {
+        return docs.size();
+    }
+
+    // Tables ordered by relevance; tables that did not match follow in catalog order
+    private List<String> rank(String question) {
+        Map<String, Float> scores = new HashMap<>();
+        int tableCount = Math.max(docs.size(), 1);
+        for (String token : new LinkedHashSet<>(PromptTokenizer.tokenize(question))) {
+            addScores(scores, token, 1.0f, tableCount);
+            if (token.length() >= 4) {
+                List<String> trigrams = trigrams(token);
+                for (String trigram : trigrams) {
+                    addScores(scores, TRIGRAM_PREFIX + trigram, 1.0f / trigrams.size(), tableCount);
+                }
+            }
+        }
+
+        // Foreign-key neighbourhood expansion: join partners of matched tables get part of their score
+        Map<String, Float> expanded = new HashMap<>(scores);
+        scores.forEach((name, score) -> {
+            for (String neighbour : neighbours.getOrDefault(name, Set.of())) {
+                expanded.merge(neighbour, score * NEIGHBOUR_DECAY, Float::sum);
+            }
+        });
+
+        List<String> ranked = new ArrayList<>(expanded.keySet());
+        ranked.sort((a, b) -> Float.compare(expanded.get(b), expanded.get(a)));
+        for (String name : tableOrder) {
+            if (!expanded.containsKey(name)) ranked.add(name);
+        }
+        return ranked;
+    }
+
+    private void addScores(Map<String, Float> scores, String term, float factor, int tableCount) {
+        Map<String, Float> posting = postings.get(term);
+        if (posting == null) {
+            return;
+        }
+        float idf = (float) Math.log(1.0 + (double) tableCount / posting.size());
+        posting.forEach((name, weight) -> scores.merge(name, weight * idf * factor, Float::sum));
+    }
+
+    private static Map<String, Float> termsFor(TableInfo table) {
+        Map<String, Float> terms = new HashMap<>();
+        addTerms(terms, table.getName(), TABLE_NAME_WEIGHT, true);
+        addTerms(terms, table.getComment(), COMMENT_WEIGHT, false);
+        for (TableInfo.Column column : table.getColumns()) {
+            addTerms(terms, column.getName(), COLUMN_NAME_WEIGHT, true);
+            addTerms(terms, column.getComment(), COMMENT_WEIGHT, false);
+        }
+        return terms;
+    }
+
+    private static void addTerms(Map<String, Float> terms, String text, float weight, boolean withTrigrams) {
+        for (String token : PromptTokenizer.tokenize(text)) {
+            terms.merge(token, weight, Math::max);
+            if (withTrigrams && token.length() >= 3) {
+                for (String trigram : trigrams(token)) {
+                    terms.merge(TRIGRAM_PREFIX + trigram, weight * TRIGRAM_WEIGHT, Math::max);
+                }
+            }
+        }
+    }
+
+    private static List<String> trigrams(String token) {
+        List<String> trigrams = new ArrayList<>(Math.max(token.length() - 2, 1));
+        for (int i = 0; i + 3 <= token.length(); i++) {
+            trigrams.add(token.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+}
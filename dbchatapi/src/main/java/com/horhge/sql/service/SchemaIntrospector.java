@@ -0,0 +1,228 @@
+package com.horhge.sql.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads tables, columns and primary/foreign keys in bulk. Known dialects use one catalog query
+ * for all columns and one for all keys, run in parallel on two pooled connections; other databases
+ * use a single JDBC metadata scan. Either way the cost no longer grows with one round trip per table.
+ */
+@Component
+public class SchemaIntrospector {
+    private static final Logger logger = LoggerFactory.getLogger(SchemaIntrospector.class);
+
+    private final ExecutorService introspectPool;
+
+    public SchemaIntrospector() {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.introspectPool = Executors.newFixedThreadPool(4, r -> {
+            Thread t = new Thread(r, "schema-introspect-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void stop() {
+        introspectPool.shutdownNow();
+    }
+
+    /**
+     * Detect the SQL dialect of a database
+     * @param jdbc JdbcTemplate to inspect
+     * @return dialect, GENERIC if it cannot be determined
+     */
+    public SqlDialect detectDialect(JdbcTemplate jdbc) {
+        try {
+            return jdbc.execute((ConnectionCallback<SqlDialect>) conn ->
+                SqlDialect.fromProductName(conn.getMetaData().getDatabaseProductName()));
+        } catch (Exception e) {
+            logger.warn("Could not detect database dialect: {}", e.getMessage());
+            return SqlDialect.GENERIC;
+        }
+    }
+
+    /**
+     * Read the current DDL fingerprint of a database
+     * @param jdbc JdbcTemplate to query
+     * @param dialect Dialect of the database
+     * @return fingerprint value, or null if the dialect has no cheap check or it failed
+     */
+    public String readDdlFingerprint(JdbcTemplate jdbc, SqlDialect dialect) {
+        String sql = dialect.ddlFingerprintQuery();
+        if (sql == null) {
+            return null;
+        }
+        try {
+            return jdbc.queryForObject(sql, String.class);
+        } catch (Exception e) {
+            logger.warn("Could not read DDL fingerprint ({}): {}", dialect, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Read the database schema as prompt text
+     * @param jdbc JdbcTemplate to read from
+     * @return schema description, one table per block
+     * @throws SQLException if the metadata cannot be read
+     */
+    public String readSchema(JdbcTemplate jdbc) throws SQLException {
+        return render(introspect(jdbc, detectDialect(jdbc)));
+    }
+
+    /**
+     * Read all tables with their columns and keys
+     * @param jdbc JdbcTemplate to read from
+     * @param dialect Dialect of the database
+     * @return tables in catalog order
+     * @throws SQLException if the tables and columns cannot be read
+     */
+    public List<TableInfo> introspect(JdbcTemplate jdbc, SqlDialect dialect) throws SQLException {
+        long start = System.currentTimeMillis();
+        String columnsSql = dialect.columnsQuery();
+        if (columnsSql == null) {
+            List<TableInfo> tables = introspectWithMetadata(jdbc);
+            logger.debug("Read {} tables via JDBC metadata in {} ms", tables.size(), System.currentTimeMillis() - start);
+            return tables;
+        }
+
+        // Columns and keys are independent catalog scans, so run them on separate pooled connections
+        String keysSql = dialect.keysQuery();
+        CompletableFuture<List<Object[]>> keysFuture = keysSql == null
+            ? CompletableFuture.completedFuture(List.of())
+            : CompletableFuture.supplyAsync(() -> queryRows(jdbc, keysSql, 8), introspectPool);
+
+        Map<String, TableInfo> tables = new LinkedHashMap<>();
+        try {
+            jdbc.query(columnsSql, rs -> {
+                String schemaName = rs.getString(1);
+                String tableName = rs.getString(2);
+                String tableComment = blankToNull(rs.getString(5));
+                TableInfo table = tables.computeIfAbsent(TableInfo.qualify(schemaName, tableName),
+                    k -> new TableInfo(schemaName, tableName, tableComment));
+                table.addColumn(new TableInfo.Column(rs.getString(3), rs.getString(4), blankToNull(rs.getString(6))));
+            });
+        } catch (Exception e) {
+            keysFuture.cancel(true);
+            throw new SQLException("Could not read columns: " + e.getMessage(), e);
+        }
+
+        try {
+            applyKeys(tables, keysFuture.join());
+        } catch (CompletionException e) {
+            // Missing privileges on constraint views should not cost us the whole schema
+            logger.warn("Could not read primary/foreign keys ({}): {}", dialect, e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+        }
+
+        logger.debug("Read {} tables ({}) in {} ms", tables.size(), dialect, System.currentTimeMillis() - start);
+        return new ArrayList<>(tables.values());
+    }
+
+    /**
+     * Render tables as prompt text
+     * @param tables Tables to render
+     * @return one "Schema: x | Table: y" block per table with its columns, keys and comments
+     */
+    public static String render(List<TableInfo> tables) {
+        StringBuilder schema = new StringBuilder();
+        for (TableInfo table : tables) {
+            renderTable(table, schema);
+        }
+        return schema.toString();
+    }
+
+    static void renderTable(TableInfo table, StringBuilder out) {
+        out.append("Schema: ").append(table.getSchema())
+           .append(" | Table: ").append(table.getName());
+        if (table.getComment() != null) {
+            out.append(" -- ").append(table.getComment());
+        }
+        out.append("\n");
+        for (TableInfo.Column column : table.getColumns()) {
+            out.append("  - ").append(column.getName()).append(" (").append(column.getType()).append(")");
+            if (column.isPrimaryKey()) {
+                out.append(" PK");
+            }
+            if (column.getReferencedTable() != null) {
+                out.append(" FK -> ").append(column.getReferencedTable())
+                   .append("(").append(column.getReferencedColumn()).append(")");
+            }
+            if (column.getComment() != null) {
+                out.append(" -- ").append(column.getComment());
+            }
+            out.append("\n");
+        }
+    }
+
+    private List<Object[]> queryRows(JdbcTemplate jdbc, String sql, int columnCount) {
+        return jdbc.query(sql, (rs, rowNum) -> {
+            Object[] row = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                row[i] = rs.getString(i + 1);
+            }
+            return row;
+        });
+    }
+
+    private void applyKeys(Map<String, TableInfo> tables, List<Object[]> keyRows) {
+        for (Object[] key : keyRows) {
+            TableInfo table = tables.get(TableInfo.qualify((String) key[0], (String) key[1]));
+            TableInfo.Column column = table != null ? table.getColumn((String) key[2]) : null;
+            if (column == null) {
+                continue;
+            }
+            if ("P".equals(key[3])) {
+                column.markPrimaryKey();
+            } else if (key[6] != null) {
+                column.setReference(TableInfo.qualify((String) key[5], (String) key[6]), (String) key[7]);
+            }
+        }
+    }
+
+    // One getTables plus one getColumns scan over all tables; keys are skipped since JDBC only reads them per table
+    private List<TableInfo> introspectWithMetadata(JdbcTemplate jdbc) throws SQLException {
+        Map<String, TableInfo> tables = new LinkedHashMap<>();
+        try (var conn = jdbc.getDataSource().getConnection()) {
+            var meta = conn.getMetaData();
+            try (var rs = meta.getTables(null, null, "%", new String[]{"TABLE"})) {
+                while (rs.next()) {
+                    String schemaName = rs.getString("TABLE_SCHEM");
+                    String tableName = rs.getString("TABLE_NAME");
+                    tables.put(TableInfo.qualify(schemaName, tableName),
+                        new TableInfo(schemaName, tableName, blankToNull(rs.getString("REMARKS"))));
+                }
+            }
+            try (var rs = meta.getColumns(null, null, "%", "%")) {
+                while (rs.next()) {
+                    TableInfo table = tables.get(TableInfo.qualify(rs.getString("TABLE_SCHEM"), rs.getString("TABLE_NAME")));
+                    if (table != null) {
+                        table.addColumn(new TableInfo.Column(rs.getString("COLUMN_NAME"), rs.getString("TYPE_NAME"),
+                            blankToNull(rs.getString("REMARKS"))));
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(tables.values());
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+}
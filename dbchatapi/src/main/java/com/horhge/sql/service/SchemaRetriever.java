@@ -0,0 +1,39 @@
+package com.horhge.sql.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Picks the part of a schema to send with a question. Small schemas are sent whole; large ones
+ * are pruned to the top-ranked tables from the snapshot's SchemaIndex within a character budget.
+ */
+@Service
+public class SchemaRetriever {
+    private static final Logger logger = LoggerFactory.getLogger(SchemaRetriever.class);
+
+    @Value("${dbchat.schema-retriever.max-tables:30}")
+    private int maxTables;
+
+    // Roughly 4 characters per token for typical schema text
+    @Value("${dbchat.schema-retriever.max-chars:24000}")
+    private int maxChars;
+
+    /**
+     * @param snapshot Cached schema
+     * @param question User question
+     * @return schema text to put in the prompt
+     */
+    public String selectSchema(SchemaSnapshot snapshot, String question) {
+        String fullText = snapshot.getSchemaText();
+        if (fullText.length() <= maxChars || snapshot.getIndex().size() == 0) {
+            return fullText;
+        }
+        long start = System.nanoTime();
+        String selected = snapshot.getIndex().select(question, maxTables, maxChars);
+        logger.debug("Pruned schema from {} to {} chars in {} us", fullText.length(), selected.length(),
+            (System.nanoTime() - start) / 1000);
+        return selected;
+    }
+}
@@ -0,0 +1,77 @@
+package com.horhge.sql.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Immutable copy of a database schema as sent to the AI, plus what is needed to detect changes.
+ */
+public class SchemaSnapshot {
+    private final List<TableInfo> tables;
+    private final String schemaText;
+    private final SqlDialect dialect;
+    private final String ddlFingerprint;
+    private final long builtAt;
+    private final SchemaIndex index;
+    private final String fingerprint;
+
+    public SchemaSnapshot(List<TableInfo> tables, String schemaText, SqlDialect dialect, String ddlFingerprint,
+                          long builtAt, SchemaIndex index) {
+        this.tables = List.copyOf(tables);
+        this.schemaText = schemaText;
+        this.dialect = dialect;
+        this.ddlFingerprint = ddlFingerprint;
+        this.builtAt = builtAt;
+        this.index = index;
+        this.fingerprint = sha256(schemaText);
+    }
+
+    public List<TableInfo> getTables() {
+        return tables;
+    }
+
+    public String getSchemaText() {
+        return schemaText;
+    }
+
+    public SqlDialect getDialect() {
+        return dialect;
+    }
+
+    /**
+     * @return value of the dialect's DDL fingerprint query when the snapshot was built, or null if unsupported
+     */
+    public String getDdlFingerprint() {
+        return ddlFingerprint;
+    }
+
+    /**
+     * @return hash of the schema text; equal schemas have equal fingerprints across connections and restarts
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public long getBuiltAt() {
+        return builtAt;
+    }
+
+    /**
+     * @return relevance index over these tables
+     */
+    public SchemaIndex getIndex() {
+        return index;
+    }
+
+    private static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.horhge.sql.service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Request coalescing: while a unit of work for a key is in flight, further callers with the same key
+ * get the same future instead of starting the work again. The key is released as soon as the work
+ * completes, so results are never reused afterwards (that is what the caches are for).
+ * @param <K> Key type
+ * @param <V> Result type
+ */
+public class SingleFlight<K, V> {
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    /**
+     * Start the work for a key, or join the call already in flight for it
+     * @param key Identity of the work unit
+     * @param work Starts the work; called at most once per flight, on the calling thread
+     * @return future shared by every caller of this flight
+     */
+    public CompletableFuture<V> execute(K key, Supplier<? extends CompletableFuture<V>> work) {
+        calls.incrementAndGet();
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            suppressed.incrementAndGet();
+            return running;
+        }
+        CompletableFuture<V> started;
+        try {
+            started = work.get();
+        } catch (RuntimeException e) {
+            started = CompletableFuture.failedFuture(e);
+        }
+        // Release the key before waiters run, so a caller arriving after completion starts a new flight
+        started.whenComplete((value, ex) -> {
+            inFlight.remove(key, mine);
+            if (ex != null) {
+                mine.completeExceptionally(ex);
+            } else {
+                mine.complete(value);
+            }
+        });
+        return mine;
+    }
+
+    /**
+     * Number of calls that joined an in-flight call instead of doing the work
+     * @return suppressed duplicates
+     */
+    public long getSuppressed() {
+        return suppressed.get();
+    }
+
+    public Map<String, Object> stats() {
+        return Map.of(
+            "calls", calls.get(),
+            "suppressed", suppressed.get(),
+            "inFlight", inFlight.size()
+        );
+    }
+}
@@ -0,0 +1,333 @@
+package com.horhge.sql.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Cache of generated SQL keyed by (schema fingerprint, normalized prompt), so repeated questions
+ * skip the SQL-generation AI call. Entries are evicted least-recently-used once the estimated size
+ * exceeds the byte budget. With dbchat.sql-cache.file set, every new entry (and every removal) is
+ * appended to that file and the cache is reloaded from it on startup.
+ */
+@Service
+public class SqlCache {
+    private static final Logger logger = LoggerFactory.getLogger(SqlCache.class);
+    // Rough per-entry cost of the map node, entry object and strings' headers
+    private static final long ENTRY_OVERHEAD_BYTES = 160;
+
+    @Value("${dbchat.sql-cache.max-bytes:16777216}")
+    private long maxBytes;
+
+    @Value("${dbchat.sql-cache.file:}")
+    private String persistFile;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final LinkedHashMap<String, CachedSql> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long currentBytes;
+    // File appends hold a lock rather than the monitor: put() runs on virtual threads, and a slow disk
+    // would pin their carriers and stall every get() waiting for the monitor
+    private final ReentrantLock fileLock = new ReentrantLock();
+    private BufferedWriter writer;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public static class CachedSql {
+        private final String sql;
+        private final String aiResponse;
+        private final long bytes;
+
+        CachedSql(String key, String sql, String aiResponse) {
+            this.sql = sql;
+            this.aiResponse = aiResponse;
+            this.bytes = ENTRY_OVERHEAD_BYTES + 2L * (key.length() + sql.length() + aiResponse.length());
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public String getAiResponse() {
+            return aiResponse;
+        }
+    }
+
+    @PostConstruct
+    void load() {
+        if (persistFile == null || persistFile.isBlank()) {
+            return;
+        }
+        Path path = Path.of(persistFile);
+        int lines = 0;
+        if (Files.exists(path)) {
+            try {
+                for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                    lines++;
+                    try {
+                        JsonNode node = mapper.readTree(line);
+                        if (node.path("removed").asBoolean()) {
+                            removeInMemory(node.get("key").asText());
+                        } else {
+                            putInMemory(node.get("key").asText(), node.get("sql").asText(), node.get("aiResponse").asText());
+                        }
+                    } catch (Exception e) {
+                        logger.warn("Skipping unreadable SQL cache line {}: {}", lines, e.getMessage());
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Could not load SQL cache from {}: {}", path, e.getMessage());
+            }
+        }
+        try {
+            // Rewrite the file when it carries many superseded or evicted entries
+            if (lines > 2 * size() + 100) {
+                compact(path);
+            }
+            writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            logger.info("SQL cache loaded {} entries from {}", size(), path);
+        } catch (IOException e) {
+            logger.warn("SQL cache persistence disabled, cannot write {}: {}", path, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        fileLock.lock();
+        try {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignore) {
+                }
+                writer = null;
+            }
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    /**
+     * @param schemaFingerprint Fingerprint of the schema the SQL was generated against
+     * @param prompt User question
+     * @return cache key
+     */
+    public static String key(String schemaFingerprint, String prompt) {
+        return schemaFingerprint + ":" + normalizePrompt(prompt);
+    }
+
+    /**
+     * Normalize case, whitespace and punctuation: "Top 10 customers, by revenue?" -> "top 10 customers by revenue"
+     * @param prompt User question
+     * @return normalized prompt
+     */
+    public static String normalizePrompt(String prompt) {
+        if (prompt == null) {
+            return "";
+        }
+        StringBuilder out = new StringBuilder(prompt.length());
+        boolean space = false;
+        for (int i = 0; i < prompt.length(); i++) {
+            char c = prompt.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (space && out.length() > 0) out.append(' ');
+                out.append(c);
+                space = false;
+            } else if (c != '\'') {
+                // Apostrophes are dropped so "month's" matches "months"
+                space = true;
+            }
+        }
+        return out.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param key Cache key from key()
+     * @return cached SQL, or null on a miss
+     */
+    public CachedSql get(String key) {
+        CachedSql cached;
+        synchronized (this) {
+            cached = entries.get(key);
+        }
+        if (cached != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return cached;
+    }
+
+    /**
+     * Store generated SQL, writing it through to the cache file if persistence is enabled
+     * @param key Cache key from key()
+     * @param sql Extracted SQL
+     * @param aiResponse Full AI response the SQL was extracted from
+     */
+    public void put(String key, String sql, String aiResponse) {
+        putInMemory(key, sql, aiResponse);
+        append(Map.of("key", key, "sql", sql, "aiResponse", aiResponse));
+    }
+
+    /**
+     * Drop one entry (e.g. SQL that no longer runs), also from the cache file
+     * @param key Cache key from key()
+     * @return whether the entry was cached
+     */
+    public boolean remove(String key) {
+        if (!removeInMemory(key)) {
+            return false;
+        }
+        append(Map.of("key", key, "removed", true));
+        return true;
+    }
+
+    /**
+     * Drop all entries and truncate the cache file
+     * @return number of entries removed
+     */
+    public int invalidateAll() {
+        int removed;
+        synchronized (this) {
+            removed = entries.size();
+            entries.clear();
+            currentBytes = 0;
+        }
+        fileLock.lock();
+        try {
+            if (writer != null) {
+                writer.close();
+                writer = Files.newBufferedWriter(Path.of(persistFile), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            }
+        } catch (IOException e) {
+            writer = null;
+            logger.warn("SQL cache persistence disabled, cannot truncate {}: {}", persistFile, e.getMessage());
+        } finally {
+            fileLock.unlock();
+        }
+        logger.info("SQL cache cleared ({} entries)", removed);
+        return removed;
+    }
+
+    /**
+     * Visit every cached entry as (schema fingerprint, normalized prompt)
+     * @param consumer Receives each key's parts
+     */
+    public void forEachKey(BiConsumer<String, String> consumer) {
+        List<String> keys;
+        synchronized (this) {
+            keys = new ArrayList<>(entries.keySet());
+        }
+        for (String key : keys) {
+            int split = key.indexOf(':');
+            if (split > 0) {
+                consumer.accept(key.substring(0, split), key.substring(split + 1));
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public Map<String, Object> stats() {
+        synchronized (this) {
+            return Map.of(
+                "entries", entries.size(),
+                "bytes", currentBytes,
+                "maxBytes", maxBytes,
+                "hits", hits.get(),
+                "misses", misses.get(),
+                "evictions", evictions.get()
+            );
+        }
+    }
+
+    private synchronized void putInMemory(String key, String sql, String aiResponse) {
+        CachedSql entry = new CachedSql(key, sql, aiResponse);
+        if (entry.bytes > maxBytes) {
+            return;
+        }
+        CachedSql previous = entries.put(key, entry);
+        if (previous != null) {
+            currentBytes -= previous.bytes;
+        }
+        currentBytes += entry.bytes;
+        Iterator<Map.Entry<String, CachedSql>> eldest = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            currentBytes -= eldest.next().getValue().bytes;
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private synchronized boolean removeInMemory(String key) {
+        CachedSql removed = entries.remove(key);
+        if (removed == null) {
+            return false;
+        }
+        currentBytes -= removed.bytes;
+        return true;
+    }
+
+    private void append(Map<String, Object> line) {
+        String json;
+        try {
+            json = mapper.writeValueAsString(line);
+        } catch (IOException e) {
+            logger.warn("Could not persist SQL cache entry: {}", e.getMessage());
+            return;
+        }
+        fileLock.lock();
+        try {
+            if (writer != null) {
+                writer.write(json);
+                writer.newLine();
+                writer.flush();
+            }
+        } catch (IOException e) {
+            logger.warn("Could not persist SQL cache entry: {}", e.getMessage());
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    private void compact(Path path) throws IOException {
+        List<String> lines = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<String, CachedSql> entry : entries.entrySet()) {
+                lines.add(mapper.writeValueAsString(Map.of(
+                    "key", entry.getKey(), "sql", entry.getValue().sql, "aiResponse", entry.getValue().aiResponse)));
+            }
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+        logger.info("SQL cache file {} compacted to {} entries", path, lines.size());
+    }
+}
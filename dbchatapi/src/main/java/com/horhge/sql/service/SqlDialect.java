@@ -0,0 +1,339 @@
+package com.horhge.sql.service;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * SQL dialects the service knows how to talk to natively.
+ * Anything else falls back to plain JDBC metadata (and gets no chart push-down).
+ * Also supplies the dialect-specific pieces of pushed-down chart queries (see ChartPlanner).
+ */
+public enum SqlDialect {
+    MYSQL,
+    POSTGRESQL,
+    MSSQL,
+    ORACLE,
+    H2,
+    GENERIC;
+
+    private static final Pattern SELECT_TOP = Pattern.compile("(?i)select\\s+(?:(?:distinct|all)\\s+)?top\\b");
+    private static final Pattern OFFSET = Pattern.compile("(?i)\\boffset\\b");
+    private static final Pattern TRAILING_ORDER_BY = Pattern.compile("(?is)\\s+order\\s+by\\s+[^()]*$");
+
+    /**
+     * Resolve the dialect from DatabaseMetaData.getDatabaseProductName()
+     * @param productName JDBC product name
+     * @return matching dialect, GENERIC if unknown
+     */
+    public static SqlDialect fromProductName(String productName) {
+        if (productName == null) {
+            return GENERIC;
+        }
+        String lower = productName.toLowerCase(Locale.ROOT);
+        if (lower.contains("mysql") || lower.contains("mariadb")) return MYSQL;
+        if (lower.contains("postgresql")) return POSTGRESQL;
+        if (lower.contains("microsoft sql server")) return MSSQL;
+        if (lower.contains("oracle")) return ORACLE;
+        if (lower.equals("h2")) return H2;
+        return GENERIC;
+    }
+
+    /**
+     * Cheap query returning a single value that changes whenever tables or columns change.
+     * @return fingerprint SQL, or null if the dialect has no cheap DDL change check
+     */
+    public String ddlFingerprintQuery() {
+        return switch (this) {
+            // CREATE_TIME changes when ALTER TABLE rebuilds a table; UPDATE_TIME only tracks DML so it is not used.
+            // The column checksum catches in-place (instant) column changes.
+            case MYSQL -> "SELECT CONCAT(COUNT(*), ':', COALESCE(MAX(t.CREATE_TIME), ''), ':', "
+                    + "(SELECT COALESCE(SUM(CRC32(CONCAT_WS('.', c.TABLE_NAME, c.COLUMN_NAME, c.COLUMN_TYPE))), 0) "
+                    + "FROM information_schema.COLUMNS c WHERE c.TABLE_SCHEMA = DATABASE())) "
+                    + "FROM information_schema.TABLES t WHERE t.TABLE_SCHEMA = DATABASE()";
+            // relfilenode changes on table rewrites, xmin on every transactional pg_class update (i.e. DDL)
+            case POSTGRESQL -> "SELECT md5(COALESCE(string_agg(c.oid::text || ':' || c.relfilenode::text || ':' || c.xmin::text, ',' ORDER BY c.oid), '')) "
+                    + "FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace "
+                    + "WHERE c.relkind IN ('r', 'p', 'v', 'm') "
+                    + "AND n.nspname NOT IN ('pg_catalog', 'information_schema') AND n.nspname NOT LIKE 'pg_toast%'";
+            case MSSQL -> "SELECT CONCAT(COUNT(*), ':', CONVERT(varchar(33), MAX(modify_date), 126)) "
+                    + "FROM sys.objects WHERE type IN ('U', 'V') AND is_ms_shipped = 0";
+            case ORACLE -> "SELECT COUNT(*) || ':' || TO_CHAR(MAX(last_ddl_time), 'YYYYMMDDHH24MISS') "
+                    + "FROM user_objects WHERE object_type IN ('TABLE', 'VIEW')";
+            default -> null;
+        };
+    }
+
+    /**
+     * Bulk query returning every column of every user table in one pass.
+     * Result columns: TABLE_SCHEMA, TABLE_NAME, COLUMN_NAME, DATA_TYPE, TABLE_COMMENT, COLUMN_COMMENT,
+     * ordered by table and column position.
+     * @return columns SQL, or null to fall back to JDBC metadata
+     */
+    public String columnsQuery() {
+        return switch (this) {
+            case MYSQL -> "SELECT c.TABLE_SCHEMA, c.TABLE_NAME, c.COLUMN_NAME, c.DATA_TYPE, t.TABLE_COMMENT, c.COLUMN_COMMENT "
+                    + "FROM information_schema.COLUMNS c "
+                    + "JOIN information_schema.TABLES t ON t.TABLE_SCHEMA = c.TABLE_SCHEMA AND t.TABLE_NAME = c.TABLE_NAME "
+                    + "WHERE c.TABLE_SCHEMA = DATABASE() AND t.TABLE_TYPE = 'BASE TABLE' "
+                    + "ORDER BY c.TABLE_SCHEMA, c.TABLE_NAME, c.ORDINAL_POSITION";
+            case POSTGRESQL -> "SELECT n.nspname, c.relname, a.attname, format_type(a.atttypid, a.atttypmod), td.description, cd.description "
+                    + "FROM pg_class c "
+                    + "JOIN pg_namespace n ON n.oid = c.relnamespace "
+                    + "JOIN pg_attribute a ON a.attrelid = c.oid AND a.attnum > 0 AND NOT a.attisdropped "
+                    + "LEFT JOIN pg_description td ON td.objoid = c.oid AND td.classoid = 'pg_class'::regclass AND td.objsubid = 0 "
+                    + "LEFT JOIN pg_description cd ON cd.objoid = c.oid AND cd.classoid = 'pg_class'::regclass AND cd.objsubid = a.attnum "
+                    + "WHERE c.relkind IN ('r', 'p') "
+                    + "AND n.nspname NOT IN ('pg_catalog', 'information_schema') AND n.nspname NOT LIKE 'pg_toast%' "
+                    + "ORDER BY n.nspname, c.relname, a.attnum";
+            case MSSQL -> "SELECT s.name, t.name, c.name, ty.name, CAST(tp.value AS nvarchar(4000)), CAST(cp.value AS nvarchar(4000)) "
+                    + "FROM sys.tables t "
+                    + "JOIN sys.schemas s ON s.schema_id = t.schema_id "
+                    + "JOIN sys.columns c ON c.object_id = t.object_id "
+                    + "JOIN sys.types ty ON ty.user_type_id = c.user_type_id "
+                    + "LEFT JOIN sys.extended_properties tp ON tp.class = 1 AND tp.major_id = t.object_id AND tp.minor_id = 0 AND tp.name = 'MS_Description' "
+                    + "LEFT JOIN sys.extended_properties cp ON cp.class = 1 AND cp.major_id = t.object_id AND cp.minor_id = c.column_id AND cp.name = 'MS_Description' "
+                    + "WHERE t.is_ms_shipped = 0 "
+                    + "ORDER BY s.name, t.name, c.column_id";
+            case ORACLE -> "SELECT USER, c.table_name, c.column_name, c.data_type, tc.comments, cc.comments "
+                    + "FROM user_tab_columns c "
+                    + "JOIN user_tables t ON t.table_name = c.table_name "
+                    + "LEFT JOIN user_tab_comments tc ON tc.table_name = c.table_name "
+                    + "LEFT JOIN user_col_comments cc ON cc.table_name = c.table_name AND cc.column_name = c.column_name "
+                    + "ORDER BY c.table_name, c.column_id";
+            default -> null;
+        };
+    }
+
+    /**
+     * Bulk query returning every primary key and foreign key column in one pass.
+     * Result columns: TABLE_SCHEMA, TABLE_NAME, COLUMN_NAME, KEY_TYPE ('P' or 'F'), CONSTRAINT_NAME,
+     * REF_SCHEMA, REF_TABLE, REF_COLUMN, POSITION.
+     * @return keys SQL, or null if keys are not read for this dialect
+     */
+    public String keysQuery() {
+        return switch (this) {
+            case MYSQL -> "SELECT k.TABLE_SCHEMA, k.TABLE_NAME, k.COLUMN_NAME, "
+                    + "CASE WHEN k.CONSTRAINT_NAME = 'PRIMARY' THEN 'P' ELSE 'F' END, k.CONSTRAINT_NAME, "
+                    + "k.REFERENCED_TABLE_SCHEMA, k.REFERENCED_TABLE_NAME, k.REFERENCED_COLUMN_NAME, k.ORDINAL_POSITION "
+                    + "FROM information_schema.KEY_COLUMN_USAGE k "
+                    + "WHERE k.TABLE_SCHEMA = DATABASE() AND (k.CONSTRAINT_NAME = 'PRIMARY' OR k.REFERENCED_TABLE_NAME IS NOT NULL) "
+                    + "ORDER BY k.TABLE_NAME, k.CONSTRAINT_NAME, k.ORDINAL_POSITION";
+            case POSTGRESQL -> "SELECT n.nspname, c.relname, a.attname, CASE con.contype WHEN 'p' THEN 'P' ELSE 'F' END, con.conname, "
+                    + "fn.nspname, fc.relname, fa.attname, k.pos "
+                    + "FROM pg_constraint con "
+                    + "JOIN pg_class c ON c.oid = con.conrelid "
+                    + "JOIN pg_namespace n ON n.oid = c.relnamespace "
+                    + "CROSS JOIN LATERAL unnest(con.conkey, con.confkey) WITH ORDINALITY AS k(attnum, ref_attnum, pos) "
+                    + "JOIN pg_attribute a ON a.attrelid = con.conrelid AND a.attnum = k.attnum "
+                    + "LEFT JOIN pg_class fc ON fc.oid = con.confrelid "
+                    + "LEFT JOIN pg_namespace fn ON fn.oid = fc.relnamespace "
+                    + "LEFT JOIN pg_attribute fa ON fa.attrelid = con.confrelid AND fa.attnum = k.ref_attnum "
+                    + "WHERE con.contype IN ('p', 'f') AND n.nspname NOT IN ('pg_catalog', 'information_schema') "
+                    + "ORDER BY n.nspname, c.relname, con.conname, k.pos";
+            case MSSQL -> "SELECT s.name, t.name, c.name, 'P', kc.name, NULL, NULL, NULL, ic.key_ordinal "
+                    + "FROM sys.key_constraints kc "
+                    + "JOIN sys.tables t ON t.object_id = kc.parent_object_id "
+                    + "JOIN sys.schemas s ON s.schema_id = t.schema_id "
+                    + "JOIN sys.index_columns ic ON ic.object_id = kc.parent_object_id AND ic.index_id = kc.unique_index_id "
+                    + "JOIN sys.columns c ON c.object_id = ic.object_id AND c.column_id = ic.column_id "
+                    + "WHERE kc.type = 'PK' "
+                    + "UNION ALL "
+                    + "SELECT OBJECT_SCHEMA_NAME(fkc.parent_object_id), OBJECT_NAME(fkc.parent_object_id), "
+                    + "COL_NAME(fkc.parent_object_id, fkc.parent_column_id), 'F', OBJECT_NAME(fkc.constraint_object_id), "
+                    + "OBJECT_SCHEMA_NAME(fkc.referenced_object_id), OBJECT_NAME(fkc.referenced_object_id), "
+                    + "COL_NAME(fkc.referenced_object_id, fkc.referenced_column_id), fkc.constraint_column_id "
+                    + "FROM sys.foreign_key_columns fkc "
+                    + "ORDER BY 1, 2, 5, 9";
+            case ORACLE -> "SELECT USER, cc.table_name, cc.column_name, CASE c.constraint_type WHEN 'P' THEN 'P' ELSE 'F' END, "
+                    + "c.constraint_name, rc.owner, rc.table_name, rcc.column_name, cc.position "
+                    + "FROM user_constraints c "
+                    + "JOIN user_cons_columns cc ON cc.constraint_name = c.constraint_name "
+                    + "LEFT JOIN all_constraints rc ON rc.owner = c.r_owner AND rc.constraint_name = c.r_constraint_name "
+                    + "LEFT JOIN all_cons_columns rcc ON rcc.owner = rc.owner AND rcc.constraint_name = rc.constraint_name AND rcc.position = cc.position "
+                    + "WHERE c.constraint_type IN ('P', 'R') "
+                    + "ORDER BY 2, 5, 9";
+            default -> null;
+        };
+    }
+
+    /**
+     * Whether chart queries can be pushed down to this dialect
+     * @return true for every dialect except GENERIC
+     */
+    public boolean supportsChartPushDown() {
+        return this != GENERIC;
+    }
+
+    /**
+     * Quote an identifier, e.g. a column label of the wrapped query
+     * @param identifier Name as returned by the driver
+     * @return quoted identifier
+     */
+    public String quote(String identifier) {
+        return switch (this) {
+            case MYSQL -> "`" + identifier.replace("`", "``") + "`";
+            case MSSQL -> "[" + identifier.replace("]", "]]") + "]";
+            default -> "\"" + identifier.replace("\"", "\"\"") + "\"";
+        };
+    }
+
+    /**
+     * Wrap a query so it can be selected from as a derived table named q: trailing semicolons go, and on
+     * SQL Server a trailing ORDER BY is dropped because it is not allowed there, unless the outer SELECT
+     * has a TOP or the ORDER BY has an OFFSET
+     * @param sql Query to wrap
+     * @return "(sql) q"
+     */
+    public String derivedTable(String sql) {
+        String inner = sql.trim();
+        while (inner.endsWith(";")) {
+            inner = inner.substring(0, inner.length() - 1).trim();
+        }
+        if (this == MSSQL) {
+            Matcher orderBy = TRAILING_ORDER_BY.matcher(inner);
+            if (orderBy.find() && !OFFSET.matcher(orderBy.group()).find() && !outerSelectHasTop(inner)) {
+                inner = inner.substring(0, orderBy.start());
+            }
+        }
+        return "(" + inner + ") q";
+    }
+
+    // Whether the first SELECT outside parentheses and string literals is SELECT [DISTINCT|ALL] TOP
+    private static boolean outerSelectHasTop(String sql) {
+        int depth = 0;
+        boolean inString = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                inString = !inString;
+            } else if (inString) {
+                continue;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (depth == 0 && sql.regionMatches(true, i, "select", 0, 6)
+                    && (i == 0 || !Character.isLetterOrDigit(sql.charAt(i - 1)))) {
+                return SELECT_TOP.matcher(sql).region(i, sql.length()).lookingAt();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Limit a SELECT to its first rows
+     * @param select Statement starting with SELECT
+     * @param rows Row limit
+     * @return limited statement
+     */
+    public String limit(String select, int rows) {
+        return switch (this) {
+            case MSSQL -> "SELECT TOP (" + rows + ")" + select.substring("SELECT".length());
+            case ORACLE -> select + " FETCH FIRST " + rows + " ROWS ONLY";
+            default -> select + " LIMIT " + rows;
+        };
+    }
+
+    /**
+     * Truncate a date or timestamp to the start of its minute, hour, day, week (from Monday), month or year
+     * @param unit Bucket size
+     * @param expression Date or timestamp expression
+     * @return SQL expression, or null for GENERIC (no push-down)
+     */
+    public String dateTrunc(TimeBucket unit, String expression) {
+        return switch (this) {
+            case POSTGRESQL -> "date_trunc('" + unit.name().toLowerCase(Locale.ROOT) + "', " + expression + ")";
+            case H2 -> "DATE_TRUNC(" + (unit == TimeBucket.WEEK ? "ISO_WEEK" : unit.name()) + ", " + expression + ")";
+            case MYSQL -> switch (unit) {
+                case MINUTE -> "DATE_FORMAT(" + expression + ", '%Y-%m-%d %H:%i:00')";
+                case HOUR -> "DATE_FORMAT(" + expression + ", '%Y-%m-%d %H:00:00')";
+                case DAY -> "DATE(" + expression + ")";
+                case WEEK -> "DATE_SUB(DATE(" + expression + "), INTERVAL WEEKDAY(" + expression + ") DAY)";
+                case MONTH -> "DATE_FORMAT(" + expression + ", '%Y-%m-01')";
+                case YEAR -> "DATE_FORMAT(" + expression + ", '%Y-01-01')";
+            };
+            // DATETRUNC needs SQL Server 2022; whole units since day 0 (1900-01-01) work everywhere. Weeks are
+            // counted as 7-day blocks because day 0 is a Monday and DATEDIFF(week) counts Sundays
+            case MSSQL -> {
+                if (unit == TimeBucket.WEEK) {
+                    yield "DATEADD(day, DATEDIFF(day, 0, " + expression + ") / 7 * 7, 0)";
+                }
+                String part = unit.name().toLowerCase(Locale.ROOT);
+                yield "DATEADD(" + part + ", DATEDIFF(" + part + ", 0, " + expression + "), 0)";
+            }
+            case ORACLE -> "TRUNC(" + expression + ", '" + switch (unit) {
+                case MINUTE -> "MI";
+                case HOUR -> "HH";
+                case DAY -> "DD";
+                case WEEK -> "IW";
+                case MONTH -> "MM";
+                case YEAR -> "YYYY";
+            } + "')";
+            case GENERIC -> null;
+        };
+    }
+
+    /**
+     * 1-based equal-width bucket of a value between lo and hi, the maximum falling into the last bucket
+     * @param expression Numeric expression
+     * @param lo Lowest value (SQL literal)
+     * @param hi Highest value (SQL literal), greater than lo
+     * @param buckets Bucket count
+     * @return SQL expression
+     */
+    public String widthBucket(String expression, String lo, String hi, int buckets) {
+        return switch (this) {
+            case POSTGRESQL, ORACLE -> "LEAST(WIDTH_BUCKET(" + expression + ", " + lo + ", " + hi + ", " + buckets + "), " + buckets + ")";
+            default -> "CASE WHEN " + expression + " >= " + hi + " THEN " + buckets
+                + " ELSE FLOOR((" + expression + " - " + lo + ") * " + buckets + " / (" + hi + " - " + lo + ")) + 1 END";
+        };
+    }
+
+    /**
+     * Per-row random number in [0, 1)
+     * @return SQL expression
+     */
+    public String random() {
+        return switch (this) {
+            case POSTGRESQL -> "random()";
+            // RAND() is evaluated once per statement on SQL Server
+            case MSSQL -> "(ABS(CHECKSUM(NEWID())) % 1000000) / 1000000.0";
+            case ORACLE -> "DBMS_RANDOM.VALUE";
+            default -> "RAND()";
+        };
+    }
+
+    /**
+     * Bucket sizes for time series, smallest first
+     */
+    public enum TimeBucket {
+        MINUTE(60_000L),
+        HOUR(3_600_000L),
+        DAY(86_400_000L),
+        WEEK(7 * 86_400_000L),
+        MONTH(30 * 86_400_000L),
+        YEAR(365 * 86_400_000L);
+
+        private final long approxMillis;
+
+        TimeBucket(long approxMillis) {
+            this.approxMillis = approxMillis;
+        }
+
+        /**
+         * Smallest bucket that splits a time span into at most maxBuckets buckets
+         * @param spanMillis Time between the first and last value
+         * @param maxBuckets Bucket limit
+         * @return bucket size (YEAR if nothing smaller fits)
+         */
+        public static TimeBucket fit(long spanMillis, int maxBuckets) {
+            for (TimeBucket bucket : values()) {
+                if (spanMillis / bucket.approxMillis < maxBuckets) {
+                    return bucket;
+                }
+            }
+            return YEAR;
+        }
+    }
+}
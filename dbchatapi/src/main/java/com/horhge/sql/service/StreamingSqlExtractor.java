@@ -0,0 +1,102 @@
+package com.horhge.sql.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the generated SQL in a completion while it is still streaming: either the "SQL" field of the
+ * JSON answer once its closing quote arrives, or a ```sql fenced block once it is closed. Deltas are
+ * appended as they come; the scan resumes where the previous one stopped.
+ */
+public class StreamingSqlExtractor {
+    private static final ObjectMapper mapper = new ObjectMapper();
+    // "SQL": " not preceded by a backslash, so an escaped mention inside another field does not match
+    private static final Pattern SQL_FIELD = Pattern.compile("(?<!\\\\)\"SQL\"\\s*:\\s*\"");
+    private static final Pattern SQL_FENCE = Pattern.compile("```\\s*sql\\s", Pattern.CASE_INSENSITIVE);
+
+    private final StringBuilder text = new StringBuilder();
+    private int valueStart = -1;
+    private int fenceStart = -1;
+    private int scanFrom;
+    private boolean found;
+
+    /**
+     * Append a streamed fragment
+     * @param delta Content fragment
+     * @return true the first time the SQL becomes complete
+     */
+    public boolean append(String delta) {
+        if (found) {
+            return false;
+        }
+        text.append(delta);
+        return found = scan();
+    }
+
+    public boolean isFound() {
+        return found;
+    }
+
+    /**
+     * The extracted SQL, empty when the model left the field blank
+     * @return SQL text, or null if not complete yet
+     */
+    public String getSql() {
+        if (!found) {
+            return null;
+        }
+        if (valueStart >= 0) {
+            try {
+                return mapper.readValue(text.substring(valueStart - 1, scanFrom), String.class).trim();
+            } catch (Exception e) {
+                return null;
+            }
+        }
+        return text.substring(fenceStart, scanFrom - 3).trim();
+    }
+
+    private boolean scan() {
+        if (valueStart < 0 && fenceStart < 0) {
+            // Look back a little so a key split across deltas is still found
+            int from = Math.max(0, scanFrom - 16);
+            Matcher field = SQL_FIELD.matcher(text);
+            Matcher fence = SQL_FENCE.matcher(text);
+            if (field.find(from)) {
+                valueStart = field.end();
+            } else if (fence.find(from)) {
+                fenceStart = fence.end();
+            } else {
+                scanFrom = text.length();
+                return false;
+            }
+            scanFrom = valueStart >= 0 ? valueStart : fenceStart;
+        }
+        if (valueStart >= 0) {
+            // Walk the JSON string to its unescaped closing quote
+            for (int i = scanFrom; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '\\') {
+                    if (i + 1 >= text.length()) {
+                        scanFrom = i;
+                        return false;
+                    }
+                    i++;
+                } else if (c == '"') {
+                    scanFrom = i + 1;
+                    return true;
+                }
+            }
+            scanFrom = text.length();
+            return false;
+        }
+        int close = text.indexOf("```", Math.max(fenceStart, scanFrom - 2));
+        if (close >= 0) {
+            scanFrom = close + 3;
+            return true;
+        }
+        scanFrom = text.length();
+        return false;
+    }
+}
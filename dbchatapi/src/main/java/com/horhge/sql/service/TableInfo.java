@@ -0,0 +1,112 @@
+package com.horhge.sql.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A table as read by SchemaIntrospector, with its columns and key information.
+ */
+public class TableInfo {
+    private final String schema;
+    private final String name;
+    private final String comment;
+    private final List<Column> columns = new ArrayList<>();
+
+    public TableInfo(String schema, String name, String comment) {
+        this.schema = schema;
+        this.name = name;
+        this.comment = comment;
+    }
+
+    public String getSchema() {
+        return schema;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    public List<Column> getColumns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * @return schema.table, or just the table name if there is no schema
+     */
+    public String getQualifiedName() {
+        return qualify(schema, name);
+    }
+
+    public Column getColumn(String columnName) {
+        for (Column column : columns) {
+            if (column.getName().equalsIgnoreCase(columnName)) {
+                return column;
+            }
+        }
+        return null;
+    }
+
+    void addColumn(Column column) {
+        columns.add(column);
+    }
+
+    static String qualify(String schema, String name) {
+        return schema == null || schema.isEmpty() ? name : schema + "." + name;
+    }
+
+    public static class Column {
+        private final String name;
+        private final String type;
+        private final String comment;
+        private boolean primaryKey;
+        private String referencedTable;
+        private String referencedColumn;
+
+        public Column(String name, String type, String comment) {
+            this.name = name;
+            this.type = type;
+            this.comment = comment;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getComment() {
+            return comment;
+        }
+
+        public boolean isPrimaryKey() {
+            return primaryKey;
+        }
+
+        /**
+         * @return qualified name of the table this column references, or null if it is not a foreign key
+         */
+        public String getReferencedTable() {
+            return referencedTable;
+        }
+
+        public String getReferencedColumn() {
+            return referencedColumn;
+        }
+
+        void markPrimaryKey() {
+            this.primaryKey = true;
+        }
+
+        void setReference(String referencedTable, String referencedColumn) {
+            this.referencedTable = referencedTable;
+            this.referencedColumn = referencedColumn;
+        }
+    }
+}
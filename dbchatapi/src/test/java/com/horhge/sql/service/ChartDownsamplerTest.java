@@ -0,0 +1,125 @@
+package com.horhge.sql.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChartDownsamplerTest {
+
+    @Test
+    void lttbKeepsEndsAndSpikes() {
+        double[] y = new double[1000];
+        y[500] = 1000;
+        y[731] = -1000;
+        ColumnarResult rows = rows(y);
+
+        ChartDownsampler.Points points = ChartDownsampler.lttb(rows, 1, 100);
+
+        assertEquals(100, points.size());
+        assertEquals("r0", points.categories.get(0));
+        assertEquals("r999", points.categories.get(99));
+        assertTrue(points.categories.contains("r500"));
+        assertTrue(points.categories.contains("r731"));
+        assertNotNull(points.note);
+    }
+
+    @Test
+    void lttbLeavesSmallResultsAlone() {
+        ChartDownsampler.Points points = ChartDownsampler.lttb(rows(new double[]{3, 1, 2}), 1, 100);
+
+        assertEquals(List.of("r0", "r1", "r2"), points.categories);
+        assertArrayEquals(new double[]{3, 1, 2}, points.values[0]);
+        assertNull(points.note);
+    }
+
+    @Test
+    void minMaxKeepsEachSeriesExtremesInOrder() {
+        double[] a = new double[1000];
+        double[] b = new double[1000];
+        for (int i = 0; i < 1000; i++) {
+            a[i] = i;
+            b[i] = -i;
+        }
+        a[42] = 5000;
+        ColumnarResult rows = rows(a, b);
+
+        ChartDownsampler.Points points = ChartDownsampler.minMax(rows, 1, 3, 10);
+
+        assertEquals(20, points.size());
+        assertEquals(List.of("A", "B"), points.series);
+        // First bucket is rows 0-99: labelled by its first and last row
+        assertEquals("r0", points.categories.get(0));
+        assertEquals("r99", points.categories.get(1));
+        assertEquals(0, points.values[0][0]);
+        assertEquals(5000, points.values[0][1]);
+        // Series b falls, so its maximum comes first
+        assertEquals(0, points.values[1][0]);
+        assertEquals(-99, points.values[1][1]);
+        assertEquals(999, points.values[0][19]);
+        assertNotNull(points.note);
+    }
+
+    @Test
+    void topNKeepsLargestRowsInOrderAndSumsTheRest() {
+        ColumnarResult rows = rows(new double[]{1, 9, 2, -8, 3, 4, 10, 5, 6, 7});
+
+        ChartDownsampler.Points points = ChartDownsampler.topN(rows, 1, 2, 3);
+
+        assertEquals(List.of("r1", "r3", "r6", "Other (7 rows)"), points.categories);
+        assertArrayEquals(new double[]{9, -8, 10, 28}, points.values[0]);
+        assertNotNull(points.note);
+    }
+
+    @Test
+    void topNLeavesOneExtraRowAlone() {
+        ChartDownsampler.Points points = ChartDownsampler.topN(rows(new double[]{1, 2, 3, 4}), 1, 2, 3);
+
+        assertEquals(4, points.size());
+        assertNull(points.note);
+    }
+
+    // Label column r0, r1, ... followed by one DOUBLE column per series, read back from H2
+    private static ColumnarResult rows(double[]... series) {
+        StringBuilder columns = new StringBuilder("id INT, label VARCHAR");
+        StringBuilder select = new StringBuilder("SELECT label");
+        StringBuilder params = new StringBuilder("?, ?");
+        for (int s = 0; s < series.length; s++) {
+            char name = (char) ('a' + s);
+            columns.append(", ").append(name).append(" DOUBLE");
+            select.append(", ").append(name);
+            params.append(", ?");
+        }
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:");
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE r (" + columns + ")");
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO r VALUES (" + params + ")")) {
+                for (int i = 0; i < series[0].length; i++) {
+                    insert.setInt(1, i);
+                    insert.setString(2, "r" + i);
+                    for (int s = 0; s < series.length; s++) {
+                        insert.setDouble(s + 3, series[s][i]);
+                    }
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            try (ResultSet rs = statement.executeQuery(select + " FROM r ORDER BY id")) {
+                return ColumnarResult.read(rs);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.horhge.sql.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LlmBackendGuardTest {
+    private LlmBackendGuard guard;
+
+    @BeforeEach
+    void setUp() {
+        guard = new LlmBackendGuard();
+        set("initialLimit", 8);
+        set("minLimit", 1);
+        set("maxLimit", 64);
+        set("backoffRatio", 0.7);
+        set("latencyThresholdMs", 30_000L);
+        set("maxQueue", 100);
+        set("queueTimeoutMs", 30_000L);
+        set("maxAttempts", 3);
+        set("baseDelayMs", 1L);
+        set("maxDelayMs", 5L);
+        set("maxRetryAfterMs", 30_000L);
+        set("breakerWindow", 4);
+        set("breakerMinimumCalls", 4);
+        set("breakerFailureRate", 0.5);
+        set("breakerOpenMs", 30_000L);
+    }
+
+    @Test
+    void successIsReturnedAndGrowsTheLimit() throws Exception {
+        set("initialLimit", 2);
+
+        assertEquals(200, call(response(200)).statusCode());
+
+        assertEquals(2.5, limiter().get("limit"));
+        assertEquals(0, limiter().get("inFlight"));
+    }
+
+    @Test
+    void overloadShrinksTheLimit() throws Exception {
+        set("maxAttempts", 1);
+
+        assertEquals(429, call(response(429)).statusCode());
+
+        assertEquals(5.6, limiter().get("limit"));
+    }
+
+    @Test
+    void transientErrorsAreRetried() throws Exception {
+        Script script = new Script(response(503), response(502), response(200));
+
+        assertEquals(200, call(script).statusCode());
+
+        assertEquals(3, script.calls.get());
+        assertEquals(2L, guard.state().get("retries"));
+    }
+
+    @Test
+    void lastResponseIsReturnedOnceAttemptsRunOut() throws Exception {
+        Script script = new Script(response(500), response(500), response(500), response(200));
+
+        assertEquals(500, call(script).statusCode());
+        assertEquals(3, script.calls.get());
+    }
+
+    @Test
+    void ioErrorsAreRetriedAndTheLastOneIsThrown() {
+        Script script = new Script(CompletableFuture.failedFuture(new IOException("reset")),
+            CompletableFuture.failedFuture(new IOException("refused")));
+        set("maxAttempts", 2);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> call(script));
+
+        assertInstanceOf(IOException.class, e.getCause());
+        assertEquals("refused", e.getCause().getMessage());
+    }
+
+    @Test
+    void clientErrorsAndNonRetryableCallsAreNotRetried() throws Exception {
+        Script badRequest = new Script(response(400), response(200));
+        assertEquals(400, call(badRequest).statusCode());
+        assertEquals(1, badRequest.calls.get());
+
+        Script streamed = new Script(response(503), response(200));
+        assertEquals(503, guard.send(streamed, () -> false).get(5, TimeUnit.SECONDS).statusCode());
+        assertEquals(1, streamed.calls.get());
+    }
+
+    @Test
+    void retryAfterSecondsAndDatesAreHonoured() throws Exception {
+        String past = ZonedDateTime.now(ZoneOffset.UTC).minusMinutes(1).format(DateTimeFormatter.RFC_1123_DATE_TIME);
+        Script script = new Script(response(429, "0"), response(503, past), response(200));
+
+        assertEquals(200, call(script).statusCode());
+        assertEquals(3, script.calls.get());
+    }
+
+    @Test
+    void longRetryAfterIsNotWaitedFor() throws Exception {
+        Script script = new Script(response(429, "120"), response(200));
+
+        assertEquals(429, call(script).statusCode());
+        assertEquals(1, script.calls.get());
+    }
+
+    @Test
+    void callsOverTheLimitQueueAndTakeFreedSlots() throws Exception {
+        singleSlot();
+        CompletableFuture<HttpResponse<String>> first = new CompletableFuture<>();
+        CompletableFuture<HttpResponse<String>> second = new CompletableFuture<>();
+        Script script = new Script(first, second);
+
+        CompletableFuture<HttpResponse<String>> a = guard.send(script, () -> true);
+        CompletableFuture<HttpResponse<String>> b = guard.send(script, () -> true);
+        assertEquals(1, script.calls.get());
+        assertEquals(1, limiter().get("queued"));
+
+        // The queue holds one call, so a third is rejected straight away
+        ExecutionException full = assertThrows(ExecutionException.class,
+            () -> guard.send(new Script(response(200)), () -> true).get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, full.getCause());
+        assertTrue(full.getCause().getMessage().contains("busy"));
+
+        first.complete(new FakeResponse(200, null));
+        assertEquals(200, a.get(5, TimeUnit.SECONDS).statusCode());
+        assertEquals(2, script.calls.get());
+        assertEquals(1, limiter().get("inFlight"));
+
+        second.complete(new FakeResponse(200, null));
+        assertEquals(200, b.get(5, TimeUnit.SECONDS).statusCode());
+        assertEquals(0, limiter().get("inFlight"));
+        assertEquals(1L, limiter().get("rejected"));
+    }
+
+    @Test
+    void queuedCallTimesOutWithoutLeakingItsSlot() throws Exception {
+        singleSlot();
+        set("queueTimeoutMs", 50L);
+        CompletableFuture<HttpResponse<String>> first = new CompletableFuture<>();
+        Script script = new Script(first, response(200));
+
+        CompletableFuture<HttpResponse<String>> a = guard.send(script, () -> true);
+        CompletableFuture<HttpResponse<String>> b = guard.send(script, () -> true);
+
+        ExecutionException timedOut = assertThrows(ExecutionException.class, () -> b.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, timedOut.getCause());
+        assertTrue(timedOut.getCause().getMessage().startsWith("Timed out"));
+        assertEquals(0, limiter().get("queued"));
+
+        first.complete(new FakeResponse(200, null));
+        assertEquals(200, a.get(5, TimeUnit.SECONDS).statusCode());
+        assertEquals(1, script.calls.get());
+        assertEquals(0, limiter().get("inFlight"));
+    }
+
+    @Test
+    void breakerOpensOnFailuresAndFailsFast() throws Exception {
+        set("maxAttempts", 1);
+        call(response(200));
+        call(response(500));
+        call(response(200));
+        assertEquals(LlmBackendGuard.BreakerState.CLOSED, guard.getBreakerState());
+        call(response(503));
+        assertEquals(LlmBackendGuard.BreakerState.OPEN, guard.getBreakerState());
+
+        Script script = new Script(response(200));
+        ExecutionException open = assertThrows(ExecutionException.class, () -> call(script));
+        assertTrue(open.getCause().getMessage().contains("circuit open"));
+        assertEquals(0, script.calls.get());
+    }
+
+    @Test
+    void throttlingDoesNotOpenTheBreaker() throws Exception {
+        set("maxAttempts", 1);
+        for (int i = 0; i < 8; i++) {
+            call(response(429));
+        }
+
+        assertEquals(LlmBackendGuard.BreakerState.CLOSED, guard.getBreakerState());
+    }
+
+    @Test
+    void halfOpenLetsOneProbeThroughAndClosesOnSuccess() throws Exception {
+        tripBreaker();
+        Thread.sleep(80);
+
+        CompletableFuture<HttpResponse<String>> probe = new CompletableFuture<>();
+        CompletableFuture<HttpResponse<String>> result = guard.send(new Script(probe), () -> true);
+        assertEquals(LlmBackendGuard.BreakerState.HALF_OPEN, guard.getBreakerState());
+        ExecutionException busy = assertThrows(ExecutionException.class, () -> call(response(200)));
+        assertTrue(busy.getCause().getMessage().contains("probe in progress"));
+
+        probe.complete(new FakeResponse(200, null));
+        assertEquals(200, result.get(5, TimeUnit.SECONDS).statusCode());
+        assertEquals(LlmBackendGuard.BreakerState.CLOSED, guard.getBreakerState());
+    }
+
+    @Test
+    void failedProbeOpensTheBreakerAgain() throws Exception {
+        tripBreaker();
+        Thread.sleep(80);
+
+        assertEquals(500, call(response(500)).statusCode());
+
+        assertEquals(LlmBackendGuard.BreakerState.OPEN, guard.getBreakerState());
+        assertEquals(2L, breaker().get("timesOpened"));
+    }
+
+    @Test
+    void throttledProbeKeepsTheBreakerHalfOpen() throws Exception {
+        tripBreaker();
+        Thread.sleep(80);
+
+        assertEquals(429, call(response(429)).statusCode());
+
+        assertEquals(LlmBackendGuard.BreakerState.HALF_OPEN, guard.getBreakerState());
+        assertFalse(breaker().containsKey("retryInMs"));
+        assertEquals(200, call(response(200)).statusCode());
+        assertEquals(LlmBackendGuard.BreakerState.CLOSED, guard.getBreakerState());
+    }
+
+    private void tripBreaker() throws Exception {
+        set("maxAttempts", 1);
+        set("breakerOpenMs", 50L);
+        for (int i = 0; i < 4; i++) {
+            call(response(500));
+        }
+        assertEquals(LlmBackendGuard.BreakerState.OPEN, guard.getBreakerState());
+    }
+
+    private void singleSlot() {
+        set("initialLimit", 1);
+        set("maxLimit", 1);
+        set("maxQueue", 1);
+    }
+
+    private HttpResponse<String> call(CompletableFuture<HttpResponse<String>> response) throws Exception {
+        return call(new Script(response));
+    }
+
+    private HttpResponse<String> call(Script script) throws Exception {
+        return guard.send(script, () -> true).get(5, TimeUnit.SECONDS);
+    }
+
+    private void set(String field, Object value) {
+        ReflectionTestUtils.setField(guard, field, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> limiter() {
+        return (Map<String, Object>) guard.state().get("limiter");
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> breaker() {
+        return (Map<String, Object>) guard.state().get("breaker");
+    }
+
+    private static CompletableFuture<HttpResponse<String>> response(int status) {
+        return response(status, null);
+    }
+
+    private static CompletableFuture<HttpResponse<String>> response(int status, String retryAfter) {
+        return CompletableFuture.completedFuture(new FakeResponse(status, retryAfter));
+    }
+
+    // Hands out one prepared future per attempt
+    private static class Script implements Supplier<CompletableFuture<HttpResponse<String>>> {
+        final List<CompletableFuture<HttpResponse<String>>> attempts;
+        final AtomicInteger calls = new AtomicInteger();
+
+        @SafeVarargs
+        Script(CompletableFuture<HttpResponse<String>>... attempts) {
+            this.attempts = new ArrayList<>(List.of(attempts));
+        }
+
+        @Override
+        public CompletableFuture<HttpResponse<String>> get() {
+            return attempts.get(calls.getAndIncrement());
+        }
+    }
+
+    private static class FakeResponse implements HttpResponse<String> {
+        private final int status;
+        private final HttpHeaders headers;
+
+        FakeResponse(int status, String retryAfter) {
+            this.status = status;
+            this.headers = HttpHeaders.of(retryAfter != null ? Map.of("Retry-After", List.of(retryAfter)) : Map.of(),
+                (name, value) -> true);
+        }
+
+        @Override
+        public int statusCode() {
+            return status;
+        }
+
+        @Override
+        public HttpRequest request() {
+            return HttpRequest.newBuilder(URI.create("http://llm.test/")).build();
+        }
+
+        @Override
+        public Optional<HttpResponse<String>> previousResponse() {
+            return Optional.empty();
+        }
+
+        @Override
+        public HttpHeaders headers() {
+            return headers;
+        }
+
+        @Override
+        public String body() {
+            return "";
+        }
+
+        @Override
+        public Optional<SSLSession> sslSession() {
+            return Optional.empty();
+        }
+
+        @Override
+        public URI uri() {
+            return URI.create("http://llm.test/");
+        }
+
+        @Override
+        public HttpClient.Version version() {
+            return HttpClient.Version.HTTP_1_1;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.horhge.sql.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PromptSimilarityIndexTest {
+    private static final String SCHEMA = "schema-1";
+
+    private PromptSimilarityIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new PromptSimilarityIndex();
+        ReflectionTestUtils.setField(index, "maxEntries", 100);
+    }
+
+    @Test
+    void rephrasedPromptMatches() {
+        index.add(SCHEMA, "revenue by region last month");
+
+        PromptSimilarityIndex.Match match = index.findSimilar(SCHEMA, "show last month's revenue per region");
+
+        assertNotNull(match);
+        assertEquals("revenue by region last month", match.getPrompt());
+    }
+
+    @Test
+    void unrelatedPromptDoesNotMatch() {
+        index.add(SCHEMA, "revenue by region last month");
+
+        assertNull(index.findSimilar(SCHEMA, "list employees hired in 2021"));
+    }
+
+    @Test
+    void samePromptIsLeftToTheExactCache() {
+        index.add(SCHEMA, "revenue by region last month");
+
+        assertNull(index.findSimilar(SCHEMA, "Revenue by region last month"));
+    }
+
+    @Test
+    void differentIntentDoesNotMatch() {
+        index.add(SCHEMA, "show customers");
+        index.add(SCHEMA, "average price of products");
+
+        assertNull(index.findSimilar(SCHEMA, "how many customers"));
+        assertNull(index.findSimilar(SCHEMA, "total price of products"));
+    }
+
+    @Test
+    void differentFilterValueDoesNotMatch() {
+        index.add(SCHEMA, "total revenue per product category for premium customers in Germany last month");
+
+        assertNull(index.findSimilar(SCHEMA, "total revenue per product category for premium customers in France last month"));
+    }
+
+    @Test
+    void differentNumbersDoNotMatch() {
+        index.add(SCHEMA, "top 5 products by sales");
+
+        assertNull(index.findSimilar(SCHEMA, "top 10 products by sales"));
+    }
+
+    @Test
+    void otherSchemaDoesNotMatch() {
+        index.add(SCHEMA, "revenue by region last month");
+
+        assertNull(index.findSimilar("schema-2", "show last month's revenue per region"));
+    }
+
+    @Test
+    void oldestEntryIsEvicted() {
+        ReflectionTestUtils.setField(index, "maxEntries", 1);
+        index.add(SCHEMA, "revenue by region last month");
+        index.add(SCHEMA, "orders per customer");
+
+        assertNull(index.findSimilar(SCHEMA, "show last month's revenue per region"));
+        assertNotNull(index.findSimilar(SCHEMA, "orders for each customer"));
+    }
+
+    @Test
+    void clearForgetsEverything() {
+        index.add(SCHEMA, "revenue by region last month");
+        index.clear();
+
+        assertNull(index.findSimilar(SCHEMA, "show last month's revenue per region"));
+        assertEquals(0, index.stats().get("entries"));
+    }
+
+    @Test
+    void intentsFromWordsAndPhrases() {
+        assertEquals(Set.of("count"), PromptSimilarityIndex.intents("how many customers"));
+        assertEquals(Set.of("count", "group"), PromptSimilarityIndex.intents("number of orders per region"));
+        assertEquals(Set.of("avg"), PromptSimilarityIndex.intents("mean order value"));
+        assertEquals(Set.of(), PromptSimilarityIndex.intents("show customers"));
+    }
+}
@@ -0,0 +1,270 @@
+package com.horhge.sql.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryCostGuardTest {
+    private static final String SQL = "SELECT id, id FROM orders ORDER BY created_at DESC";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, Map<String, Object>> connectionConfigs = new HashMap<>();
+    private final AtomicInteger explains = new AtomicInteger();
+
+    @Test
+    void postgresPlanUsesTheTopNode() throws Exception {
+        QueryCostGuard.Estimate estimate = QueryCostGuard.parsePostgresPlan(mapper, sample("postgres.json"));
+
+        assertNotNull(estimate);
+        assertEquals(48210, estimate.getRows());
+        assertEquals(2456.82, estimate.getCost());
+    }
+
+    @Test
+    void mySqlPlanUsesTheLargestJoinOutput() throws Exception {
+        QueryCostGuard.Estimate estimate = QueryCostGuard.parseMySqlPlan(mapper, sample("mysql-v1.json"));
+
+        assertNotNull(estimate);
+        assertEquals(9880, estimate.getRows());
+        assertEquals(11250.75, estimate.getCost());
+    }
+
+    @Test
+    void mySqlFormatVersion2UsesTheTopEstimates() throws Exception {
+        QueryCostGuard.Estimate estimate = QueryCostGuard.parseMySqlPlan(mapper, sample("mysql-v2.json"));
+
+        assertNotNull(estimate);
+        assertEquals(10001, estimate.getRows());
+        assertEquals(10105.25, estimate.getCost());
+    }
+
+    @Test
+    void showPlanUsesTheLargestStatement() throws Exception {
+        QueryCostGuard.Estimate estimate = QueryCostGuard.parseShowPlan(sample("mssql-showplan.xml"));
+
+        assertNotNull(estimate);
+        assertEquals(100010, estimate.getRows());
+        assertEquals(12.4821, estimate.getCost());
+    }
+
+    @Test
+    void unreadablePlansGiveNoEstimate() throws Exception {
+        assertNull(QueryCostGuard.parsePostgresPlan(mapper, null));
+        assertNull(QueryCostGuard.parsePostgresPlan(mapper, "[]"));
+        assertNull(QueryCostGuard.parseMySqlPlan(mapper, null));
+        assertNull(QueryCostGuard.parseMySqlPlan(mapper, "{}"));
+        assertNull(QueryCostGuard.parseShowPlan(null));
+        assertNull(QueryCostGuard.parseShowPlan("<ShowPlanXML/>"));
+    }
+
+    @Test
+    void supportedDialects() {
+        QueryCostGuard guard = new QueryCostGuard();
+
+        assertTrue(guard.supports(SqlDialect.POSTGRESQL));
+        assertTrue(guard.supports(SqlDialect.MYSQL));
+        assertTrue(guard.supports(SqlDialect.MSSQL));
+        assertFalse(guard.supports(SqlDialect.ORACLE));
+        assertFalse(guard.supports(SqlDialect.H2));
+        assertFalse(guard.supports(SqlDialect.GENERIC));
+    }
+
+    @Test
+    void heldStatementOnlyForSameConnectionAndQuestion() {
+        QueryCostGuard guard = new QueryCostGuard();
+        ReflectionTestUtils.setField(guard, "planTtlMs", 60_000L);
+        ReflectionTestUtils.setField(guard, "maxPlans", 10);
+        guard.hold("token", "conn-1", "All orders", "SELECT * FROM orders", "{}");
+
+        QueryCostGuard.HeldSql held = guard.held("token", "conn-1", "all orders ");
+
+        assertNotNull(held);
+        assertEquals("SELECT * FROM orders", held.getSql());
+        assertNull(guard.held("token", "conn-2", "all orders"));
+        assertNull(guard.held("token", "conn-1", "all customers"));
+        assertNull(guard.held("other", "conn-1", "all orders"));
+    }
+
+    @Test
+    void heldStatementsAreBoundedAndDroppedWithTheConnection() {
+        QueryCostGuard guard = new QueryCostGuard();
+        ReflectionTestUtils.setField(guard, "planTtlMs", 60_000L);
+        ReflectionTestUtils.setField(guard, "maxPlans", 1);
+        guard.hold("first", "conn-1", "all orders", "SELECT * FROM orders", "{}");
+        guard.hold("second", "conn-1", "all customers", "SELECT * FROM customers", "{}");
+
+        assertNull(guard.held("first", "conn-1", "all orders"));
+        assertNotNull(guard.held("second", "conn-1", "all customers"));
+
+        guard.invalidate("conn-1");
+        assertNull(guard.held("second", "conn-1", "all customers"));
+    }
+
+    @Test
+    void statementUnderTheLimitsIsAllowed() {
+        QueryCostGuard guard = guard(new QueryCostGuard.Estimate(500, 10));
+
+        QueryCostGuard.Check check = check(guard, null, null);
+
+        assertEquals("allowed", check.getOutcome());
+        assertEquals(SQL, check.getSql());
+        assertEquals(0, check.getMaxRows());
+        assertNull(check.getMessage());
+        assertNull(check.getConfirmToken());
+        assertEquals(500L, check.getDetails().get("estimatedRows"));
+    }
+
+    @Test
+    void limitedStatementRunsAsWrittenWithARowLimit() {
+        QueryCostGuard guard = guard(new QueryCostGuard.Estimate(5000, 10));
+        ReflectionTestUtils.setField(guard, "defaultAction", "limit");
+
+        QueryCostGuard.Check check = check(guard, null, null);
+
+        assertEquals("limited", check.getOutcome());
+        assertEquals(SQL, check.getSql());
+        assertEquals(100, check.getMaxRows());
+        assertEquals(100, check.getDetails().get("limitRows"));
+        assertTrue(check.getMessage().contains("only the first 100 rows"));
+    }
+
+    @Test
+    void overCostStatementAsksForConfirmationEvenWhenLimiting() {
+        QueryCostGuard guard = guard(new QueryCostGuard.Estimate(50, 5000));
+        ReflectionTestUtils.setField(guard, "defaultAction", "limit");
+        ReflectionTestUtils.setField(guard, "defaultMaxCost", 1000.0);
+
+        QueryCostGuard.Check check = check(guard, null, null);
+
+        assertEquals("confirm", check.getOutcome());
+        assertTrue(check.isHeld());
+        assertNotNull(check.getConfirmToken());
+    }
+
+    @Test
+    void heldStatementRunsWithItsConfirmToken() {
+        QueryCostGuard guard = guard(new QueryCostGuard.Estimate(5000, 10));
+
+        QueryCostGuard.Check held = check(guard, null, null);
+        QueryCostGuard.Check confirmed = check(guard, null, held.getConfirmToken());
+        QueryCostGuard.Check wrongToken = check(guard, null, "0123456789abcdef0123456789abcdef");
+        QueryCostGuard.Check otherConnection = guard.check("conn-2", null, null, SqlDialect.POSTGRESQL, SQL,
+            held.getConfirmToken());
+
+        assertEquals("confirm", held.getOutcome());
+        assertNull(held.getSql());
+        assertEquals("confirmed", confirmed.getOutcome());
+        assertEquals(SQL, confirmed.getSql());
+        assertEquals(0, confirmed.getMaxRows());
+        assertEquals("confirm", wrongToken.getOutcome());
+        assertEquals("confirm", otherConnection.getOutcome());
+    }
+
+    @Test
+    void rejectedStatementCannotBeConfirmed() {
+        QueryCostGuard guard = guard(new QueryCostGuard.Estimate(5000, 10));
+        String token = check(guard, "conn-1", null).getConfirmToken();
+        connectionConfigs.put("conn-1", Map.of(QueryCostGuard.ACTION_KEY, "reject"));
+
+        QueryCostGuard.Check check = check(guard, "conn-1", token);
+
+        assertEquals("rejected", check.getOutcome());
+        assertTrue(check.isHeld());
+        assertNull(check.getConfirmToken());
+        assertTrue(check.getMessage().startsWith("Query rejected"));
+    }
+
+    @Test
+    void connectionOverridesReplaceTheDefaults() {
+        QueryCostGuard guard = guard(new QueryCostGuard.Estimate(5000, 10));
+        connectionConfigs.put("roomy", Map.of(QueryCostGuard.MAX_ROWS_KEY, "10000"));
+        connectionConfigs.put("strict", Map.of(QueryCostGuard.MAX_COST_KEY, 5, QueryCostGuard.ACTION_KEY, "Limit"));
+        connectionConfigs.put("invalid", Map.of(QueryCostGuard.MAX_ROWS_KEY, "lots", QueryCostGuard.ACTION_KEY, "ask"));
+
+        assertEquals("confirm", check(guard, null, null).getOutcome());
+        assertEquals("allowed", check(guard, "roomy", null).getOutcome());
+        // Over both limits: the row limit cannot make it cheaper, so it is held
+        assertEquals("confirm", check(guard, "strict", null).getOutcome());
+        QueryCostGuard.Check invalid = check(guard, "invalid", null);
+        assertEquals("confirm", invalid.getOutcome());
+        assertEquals(1000L, invalid.getDetails().get("maxRows"));
+    }
+
+    @Test
+    void planIsExplainedOncePerConnectionAndStatement() {
+        QueryCostGuard guard = guard(new QueryCostGuard.Estimate(500, 10));
+
+        assertEquals(false, check(guard, null, null).getDetails().get("cachedPlan"));
+        assertEquals(true, check(guard, null, null).getDetails().get("cachedPlan"));
+        guard.invalidate("conn-1");
+        check(guard, null, null);
+
+        assertEquals(2, explains.get());
+    }
+
+    @Test
+    void statementWithoutAnEstimateIsUnchecked() {
+        QueryCostGuard guard = guard(null);
+
+        QueryCostGuard.Check check = check(guard, null, null);
+        QueryCostGuard.Check h2 = guard.check("conn-1", null, null, SqlDialect.H2, SQL, null);
+
+        assertEquals("unchecked", check.getOutcome());
+        assertEquals(SQL, check.getSql());
+        assertNull(check.getDetails());
+        assertEquals("unchecked", h2.getOutcome());
+    }
+
+    private static String sample(String name) throws IOException {
+        try (InputStream in = QueryCostGuardTest.class.getResourceAsStream("/explain/" + name)) {
+            assertNotNull(in, name);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    // Guard with a stubbed EXPLAIN: 1,000 estimated rows allowed, no cost limit, confirm by default
+    private QueryCostGuard guard(QueryCostGuard.Estimate estimate) {
+        QueryCostGuard guard = new QueryCostGuard() {
+            @Override
+            Estimate explain(JdbcTemplate jdbc, SqlDialect dialect, String sql) {
+                explains.incrementAndGet();
+                return estimate;
+            }
+        };
+        ConnectionManager connectionManager = new ConnectionManager() {
+            @Override
+            public Map<String, Object> getConnectionConfig(String connectionId) {
+                return connectionConfigs.get(connectionId);
+            }
+        };
+        ReflectionTestUtils.setField(guard, "connectionManager", connectionManager);
+        ReflectionTestUtils.setField(guard, "registry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(guard, "enabled", true);
+        ReflectionTestUtils.setField(guard, "defaultMaxRows", 1000.0);
+        ReflectionTestUtils.setField(guard, "defaultMaxCost", 0.0);
+        ReflectionTestUtils.setField(guard, "defaultAction", "confirm");
+        ReflectionTestUtils.setField(guard, "limitRows", 100);
+        ReflectionTestUtils.setField(guard, "planTtlMs", 60_000L);
+        ReflectionTestUtils.setField(guard, "maxPlans", 10);
+        return guard;
+    }
+
+    private static QueryCostGuard.Check check(QueryCostGuard guard, String connectionId, String confirmToken) {
+        return guard.check("conn-1", connectionId, null, SqlDialect.POSTGRESQL, SQL, confirmToken);
+    }
+}
@@ -0,0 +1,129 @@
+package com.horhge.sql.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResultProfilerTest {
+
+    @Test
+    void distinctCountsAreWithinHyperLogLogError() throws SQLException {
+        ColumnarResult rows = query("SELECT X AS id, MOD(X, 1000) AS bucket, MOD(X, 10) AS digit "
+            + "FROM SYSTEM_RANGE(1, 100000)");
+
+        Map<String, Object> profile = ResultProfiler.profile(rows, 3, 5);
+
+        assertEquals(100000, profile.get("rowCount"));
+        assertNear(100000, distinct(profile, 0), 0.05);
+        assertNear(1000, distinct(profile, 1), 0.05);
+        assertEquals(10, distinct(profile, 2));
+    }
+
+    @Test
+    void frequentValuesComeFirstAndUniqueValuesAreLeftOut() throws SQLException {
+        ColumnarResult rows = query("SELECT CASE WHEN MOD(X, 10) < 5 THEN 'a' WHEN MOD(X, 10) < 8 THEN 'b' "
+            + "ELSE CAST(X AS VARCHAR) END AS v FROM SYSTEM_RANGE(1, 10000)");
+
+        List<Map<String, Object>> top = topValues(ResultProfiler.profile(rows, 3, 0), 0);
+
+        assertEquals(2, top.size());
+        assertEquals("a", top.get(0).get("value"));
+        assertEquals("b", top.get(1).get("value"));
+        // Space-Saving only ever overestimates
+        assertTrue((long) top.get(0).get("count") >= 5000);
+        assertTrue((long) top.get(1).get("count") >= 3000);
+    }
+
+    @Test
+    void numericStatisticsAndNulls() throws SQLException {
+        ColumnarResult rows = query("SELECT X AS n, CASE WHEN MOD(X, 2) = 0 THEN NULL ELSE X END AS odd "
+            + "FROM SYSTEM_RANGE(1, 1000)");
+
+        Map<String, Object> profile = ResultProfiler.profile(rows, 3, 0);
+        Map<String, Object> n = column(profile, 0);
+        Map<String, Object> odd = column(profile, 1);
+
+        assertEquals("long", n.get("type"));
+        assertEquals(1L, n.get("min"));
+        assertEquals(1000L, n.get("max"));
+        assertEquals(500.5, (double) n.get("mean"), 1e-9);
+        assertEquals(Math.sqrt(1000.0 * 1001 / 12), (double) n.get("stddev"), 1e-9);
+        assertEquals(500L, odd.get("count"));
+        assertEquals(500L, odd.get("nulls"));
+        assertEquals(500.0, (double) odd.get("mean"), 1e-9);
+    }
+
+    @Test
+    void decimalMinAndMaxStayExact() throws SQLException {
+        ColumnarResult rows = query("SELECT CAST(X / 100.0 AS DECIMAL(10, 2)) AS price FROM SYSTEM_RANGE(1, 999)");
+
+        Map<String, Object> price = column(ResultProfiler.profile(rows, 3, 0), 0);
+
+        assertEquals("decimal", price.get("type"));
+        assertEquals(new BigDecimal("0.01"), price.get("min"));
+        assertEquals(new BigDecimal("9.99"), price.get("max"));
+        assertEquals(5.0, (double) price.get("mean"), 1e-9);
+    }
+
+    @Test
+    void largeLongMinAndMaxStayExact() throws SQLException {
+        ColumnarResult rows = query("SELECT CAST(9007199254740993 AS BIGINT) AS n "
+            + "UNION ALL SELECT CAST(9007199254740995 AS BIGINT)");
+
+        Map<String, Object> n = column(ResultProfiler.profile(rows, 3, 0), 0);
+
+        assertEquals("long", n.get("type"));
+        assertEquals(9007199254740993L, n.get("min"));
+        assertEquals(9007199254740995L, n.get("max"));
+    }
+
+    @Test
+    void sampleRowsKeepTheirOrder() throws SQLException {
+        ColumnarResult rows = query("SELECT X AS id FROM SYSTEM_RANGE(1, 500)");
+
+        @SuppressWarnings("unchecked")
+        List<List<Object>> sample = (List<List<Object>>) ResultProfiler.profile(rows, 3, 10).get("sampleRows");
+
+        assertEquals(10, sample.size());
+        for (int i = 1; i < sample.size(); i++) {
+            assertTrue((long) sample.get(i - 1).get(0) < (long) sample.get(i).get(0));
+        }
+    }
+
+    private static ColumnarResult query(String sql) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:");
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(sql)) {
+            return ColumnarResult.read(rs);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> column(Map<String, Object> profile, int column) {
+        return ((List<Map<String, Object>>) profile.get("columns")).get(column);
+    }
+
+    private static long distinct(Map<String, Object> profile, int column) {
+        return (long) column(profile, column).get("approxDistinct");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> topValues(Map<String, Object> profile, int column) {
+        return (List<Map<String, Object>>) column(profile, column).get("topValues");
+    }
+
+    private static void assertNear(long expected, long actual, double relativeError) {
+        assertTrue(Math.abs(actual - expected) <= expected * relativeError,
+            "expected about " + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,53 @@
+package com.horhge.sql.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SchemaIndexTest {
+
+    @Test
+    void ranksMatchingTablesFirst() {
+        SchemaIndex index = new SchemaIndex(List.of(
+            table("orders", "id", "customer_id", "total"),
+            table("customers", "id", "name", "country"),
+            table("audit_log", "id", "message")), null);
+
+        String selected = index.select("customer countries", 1, 10_000);
+
+        assertTrue(selected.startsWith("Schema: null | Table: customers\n"), selected);
+        assertTrue(selected.contains("Other tables (columns omitted): orders, audit_log"), selected);
+    }
+
+    @Test
+    void rebuildReusesUnchangedTablesAndLeavesThePreviousIndexAlone() {
+        SchemaIndex before = new SchemaIndex(List.of(
+            table("orders", "id", "total"),
+            table("customers", "id", "name")), null);
+        assertEquals(2, before.getReindexed());
+
+        SchemaIndex after = new SchemaIndex(List.of(
+            table("orders", "id", "total"),
+            table("customers", "id", "name", "loyalty_tier"),
+            table("invoices", "id", "amount")), before);
+
+        assertEquals(2, after.getReindexed());
+        assertEquals(3, after.size());
+        assertEquals(2, before.size());
+        assertTrue(after.select("loyalty tier", 1, 10_000).contains("loyalty_tier"));
+        assertFalse(before.select("loyalty tier invoices", 2, 10_000).contains("loyalty_tier"));
+        assertFalse(before.select("loyalty tier invoices", 2, 10_000).contains("invoices"));
+    }
+
+    private static TableInfo table(String name, String... columns) {
+        TableInfo table = new TableInfo(null, name, null);
+        for (String column : columns) {
+            table.addColumn(new TableInfo.Column(column, "varchar", null));
+        }
+        return table;
+    }
+}
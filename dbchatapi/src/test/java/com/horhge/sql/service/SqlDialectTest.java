@@ -0,0 +1,216 @@
+package com.horhge.sql.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SqlDialectTest {
+    private static final String D = "\"d\"";
+
+    @Test
+    void fromProductName() {
+        assertEquals(SqlDialect.MYSQL, SqlDialect.fromProductName("MySQL"));
+        assertEquals(SqlDialect.MYSQL, SqlDialect.fromProductName("MariaDB"));
+        assertEquals(SqlDialect.POSTGRESQL, SqlDialect.fromProductName("PostgreSQL"));
+        assertEquals(SqlDialect.MSSQL, SqlDialect.fromProductName("Microsoft SQL Server"));
+        assertEquals(SqlDialect.ORACLE, SqlDialect.fromProductName("Oracle"));
+        assertEquals(SqlDialect.H2, SqlDialect.fromProductName("H2"));
+        assertEquals(SqlDialect.GENERIC, SqlDialect.fromProductName("SQLite"));
+        assertEquals(SqlDialect.GENERIC, SqlDialect.fromProductName(null));
+    }
+
+    @Test
+    void dateTruncMySql() {
+        assertDateTrunc(SqlDialect.MYSQL,
+            "DATE_FORMAT(\"d\", '%Y-%m-%d %H:%i:00')",
+            "DATE_FORMAT(\"d\", '%Y-%m-%d %H:00:00')",
+            "DATE(\"d\")",
+            "DATE_SUB(DATE(\"d\"), INTERVAL WEEKDAY(\"d\") DAY)",
+            "DATE_FORMAT(\"d\", '%Y-%m-01')",
+            "DATE_FORMAT(\"d\", '%Y-01-01')");
+    }
+
+    @Test
+    void dateTruncPostgres() {
+        assertDateTrunc(SqlDialect.POSTGRESQL,
+            "date_trunc('minute', \"d\")",
+            "date_trunc('hour', \"d\")",
+            "date_trunc('day', \"d\")",
+            "date_trunc('week', \"d\")",
+            "date_trunc('month', \"d\")",
+            "date_trunc('year', \"d\")");
+    }
+
+    @Test
+    void dateTruncSqlServer() {
+        assertDateTrunc(SqlDialect.MSSQL,
+            "DATEADD(minute, DATEDIFF(minute, 0, \"d\"), 0)",
+            "DATEADD(hour, DATEDIFF(hour, 0, \"d\"), 0)",
+            "DATEADD(day, DATEDIFF(day, 0, \"d\"), 0)",
+            "DATEADD(day, DATEDIFF(day, 0, \"d\") / 7 * 7, 0)",
+            "DATEADD(month, DATEDIFF(month, 0, \"d\"), 0)",
+            "DATEADD(year, DATEDIFF(year, 0, \"d\"), 0)");
+    }
+
+    @Test
+    void dateTruncOracle() {
+        assertDateTrunc(SqlDialect.ORACLE,
+            "TRUNC(\"d\", 'MI')",
+            "TRUNC(\"d\", 'HH')",
+            "TRUNC(\"d\", 'DD')",
+            "TRUNC(\"d\", 'IW')",
+            "TRUNC(\"d\", 'MM')",
+            "TRUNC(\"d\", 'YYYY')");
+    }
+
+    @Test
+    void dateTruncH2() {
+        assertDateTrunc(SqlDialect.H2,
+            "DATE_TRUNC(MINUTE, \"d\")",
+            "DATE_TRUNC(HOUR, \"d\")",
+            "DATE_TRUNC(DAY, \"d\")",
+            "DATE_TRUNC(ISO_WEEK, \"d\")",
+            "DATE_TRUNC(MONTH, \"d\")",
+            "DATE_TRUNC(YEAR, \"d\")");
+    }
+
+    @Test
+    void dateTruncGenericHasNoPushDown() {
+        for (SqlDialect.TimeBucket unit : SqlDialect.TimeBucket.values()) {
+            assertNull(SqlDialect.GENERIC.dateTrunc(unit, D));
+        }
+    }
+
+    @Test
+    void dateTruncRunsOnH2() throws SQLException {
+        // 2024-03-20 is a Wednesday; its ISO week starts on Monday the 18th
+        String value = "TIMESTAMP '2024-03-20 14:37:21'";
+        assertEquals(List.of("2024-03-20 14:37:00", "2024-03-20 14:00:00", "2024-03-20 00:00:00",
+                "2024-03-18 00:00:00", "2024-03-01 00:00:00", "2024-01-01 00:00:00"),
+            h2(SqlDialect.TimeBucket.values().length, unit -> "CAST(" + SqlDialect.H2.dateTrunc(
+                SqlDialect.TimeBucket.values()[unit], value) + " AS VARCHAR)"));
+    }
+
+    @Test
+    void widthBucket() {
+        String nativeBucket = "LEAST(WIDTH_BUCKET(v, 0, 10, 5), 5)";
+        String portable = "CASE WHEN v >= 10 THEN 5 ELSE FLOOR((v - 0) * 5 / (10 - 0)) + 1 END";
+        assertEquals(nativeBucket, SqlDialect.POSTGRESQL.widthBucket("v", "0", "10", 5));
+        assertEquals(nativeBucket, SqlDialect.ORACLE.widthBucket("v", "0", "10", 5));
+        assertEquals(portable, SqlDialect.MYSQL.widthBucket("v", "0", "10", 5));
+        assertEquals(portable, SqlDialect.MSSQL.widthBucket("v", "0", "10", 5));
+        assertEquals(portable, SqlDialect.H2.widthBucket("v", "0", "10", 5));
+    }
+
+    @Test
+    void widthBucketRunsOnH2() throws SQLException {
+        // Five buckets of width 2; the maximum falls into the last one
+        double[] values = {0, 1.99, 2, 5, 9.99, 10};
+        assertEquals(List.of("1", "1", "2", "3", "5", "5"),
+            h2(values.length, i -> "CAST(" + SqlDialect.H2.widthBucket(
+                "CAST(" + values[i] + " AS DOUBLE)", "0", "10", 5) + " AS INT)"));
+    }
+
+    @Test
+    void limit() {
+        assertEquals("SELECT a FROM t LIMIT 10", SqlDialect.MYSQL.limit("SELECT a FROM t", 10));
+        assertEquals("SELECT a FROM t LIMIT 10", SqlDialect.POSTGRESQL.limit("SELECT a FROM t", 10));
+        assertEquals("SELECT a FROM t LIMIT 10", SqlDialect.H2.limit("SELECT a FROM t", 10));
+        assertEquals("SELECT TOP (10) a FROM t", SqlDialect.MSSQL.limit("SELECT a FROM t", 10));
+        assertEquals("SELECT a FROM t FETCH FIRST 10 ROWS ONLY", SqlDialect.ORACLE.limit("SELECT a FROM t", 10));
+    }
+
+    @Test
+    void quote() {
+        assertEquals("`a\"b``c]d`", SqlDialect.MYSQL.quote("a\"b`c]d"));
+        assertEquals("[a\"b`c]]d]", SqlDialect.MSSQL.quote("a\"b`c]d"));
+        assertEquals("\"a\"\"b`c]d\"", SqlDialect.POSTGRESQL.quote("a\"b`c]d"));
+        assertEquals("\"a\"\"b`c]d\"", SqlDialect.ORACLE.quote("a\"b`c]d"));
+        assertEquals("\"a\"\"b`c]d\"", SqlDialect.H2.quote("a\"b`c]d"));
+    }
+
+    @Test
+    void derivedTableKeepsOrderByOutsideSqlServer() {
+        assertEquals("(SELECT a FROM t ORDER BY a) q", SqlDialect.POSTGRESQL.derivedTable("SELECT a FROM t ORDER BY a;"));
+        assertEquals("(SELECT a FROM t ORDER BY a) q", SqlDialect.MYSQL.derivedTable(" SELECT a FROM t ORDER BY a ;; "));
+    }
+
+    @Test
+    void derivedTableOnSqlServer() {
+        SqlDialect mssql = SqlDialect.MSSQL;
+        assertEquals("(SELECT a FROM t) q", mssql.derivedTable("SELECT a FROM t ORDER BY a;"));
+        assertEquals("(SELECT TOP 5 a FROM t ORDER BY a) q", mssql.derivedTable("SELECT TOP 5 a FROM t ORDER BY a"));
+        assertEquals("(SELECT DISTINCT TOP (5) a FROM t ORDER BY a) q",
+            mssql.derivedTable("SELECT DISTINCT TOP (5) a FROM t ORDER BY a"));
+        assertEquals("(SELECT a FROM t ORDER BY a OFFSET 0 ROWS) q",
+            mssql.derivedTable("SELECT a FROM t ORDER BY a OFFSET 0 ROWS"));
+        assertEquals("(SELECT a FROM t GROUP BY a) q", mssql.derivedTable("SELECT a FROM t GROUP BY a"));
+    }
+
+    @Test
+    void derivedTableOnSqlServerIgnoresNestedTopAndOffset() {
+        SqlDialect mssql = SqlDialect.MSSQL;
+        assertEquals("(SELECT a FROM (SELECT TOP 5 a FROM t ORDER BY a) x) q",
+            mssql.derivedTable("SELECT a FROM (SELECT TOP 5 a FROM t ORDER BY a) x ORDER BY a"));
+        assertEquals("(SELECT a FROM t WHERE x IN (SELECT y FROM u ORDER BY y OFFSET 1 ROWS)) q",
+            mssql.derivedTable("SELECT a FROM t WHERE x IN (SELECT y FROM u ORDER BY y OFFSET 1 ROWS) ORDER BY a"));
+        assertEquals("(SELECT a, 'top' FROM t WHERE b = 'offset') q",
+            mssql.derivedTable("SELECT a, 'top' FROM t WHERE b = 'offset' ORDER BY a"));
+        assertEquals("(SELECT topic FROM t) q", mssql.derivedTable("SELECT topic FROM t ORDER BY topic"));
+    }
+
+    @Test
+    void ddlFingerprintQueries() {
+        assertEquals("SELECT CONCAT(COUNT(*), ':', COALESCE(MAX(t.CREATE_TIME), ''), ':', "
+                + "(SELECT COALESCE(SUM(CRC32(CONCAT_WS('.', c.TABLE_NAME, c.COLUMN_NAME, c.COLUMN_TYPE))), 0) "
+                + "FROM information_schema.COLUMNS c WHERE c.TABLE_SCHEMA = DATABASE())) "
+                + "FROM information_schema.TABLES t WHERE t.TABLE_SCHEMA = DATABASE()",
+            SqlDialect.MYSQL.ddlFingerprintQuery());
+        assertEquals("SELECT md5(COALESCE(string_agg(c.oid::text || ':' || c.relfilenode::text || ':' || c.xmin::text, "
+                + "',' ORDER BY c.oid), '')) "
+                + "FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace "
+                + "WHERE c.relkind IN ('r', 'p', 'v', 'm') "
+                + "AND n.nspname NOT IN ('pg_catalog', 'information_schema') AND n.nspname NOT LIKE 'pg_toast%'",
+            SqlDialect.POSTGRESQL.ddlFingerprintQuery());
+        assertEquals("SELECT CONCAT(COUNT(*), ':', CONVERT(varchar(33), MAX(modify_date), 126)) "
+                + "FROM sys.objects WHERE type IN ('U', 'V') AND is_ms_shipped = 0",
+            SqlDialect.MSSQL.ddlFingerprintQuery());
+        assertEquals("SELECT COUNT(*) || ':' || TO_CHAR(MAX(last_ddl_time), 'YYYYMMDDHH24MISS') "
+                + "FROM user_objects WHERE object_type IN ('TABLE', 'VIEW')",
+            SqlDialect.ORACLE.ddlFingerprintQuery());
+        assertNull(SqlDialect.H2.ddlFingerprintQuery());
+        assertNull(SqlDialect.GENERIC.ddlFingerprintQuery());
+    }
+
+    private static void assertDateTrunc(SqlDialect dialect, String... expected) {
+        SqlDialect.TimeBucket[] units = SqlDialect.TimeBucket.values();
+        for (int i = 0; i < units.length; i++) {
+            assertEquals(expected[i], dialect.dateTrunc(units[i], D), units[i].name());
+        }
+    }
+
+    // Evaluate count expressions on an in-memory H2 database, each as text
+    private static List<String> h2(int count, IntFunction<String> expression) throws SQLException {
+        List<String> results = new ArrayList<>();
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:");
+             Statement statement = connection.createStatement()) {
+            for (int i = 0; i < count; i++) {
+                try (ResultSet rs = statement.executeQuery("SELECT " + expression.apply(i))) {
+                    rs.next();
+                    results.add(rs.getString(1));
+                }
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,78 @@
+package com.horhge.sql.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamingSqlExtractorTest {
+
+    @Test
+    void jsonFieldCompletesAtItsClosingQuote() {
+        StreamingSqlExtractor extractor = new StreamingSqlExtractor();
+
+        assertFalse(extractor.append("{\"SQL\": \"SELECT name FROM t"));
+        assertNull(extractor.getSql());
+        assertTrue(extractor.append(" WHERE a = \\\"x\\\"\", \"Explanation\": \"..."));
+
+        assertEquals("SELECT name FROM t WHERE a = \"x\"", extractor.getSql());
+    }
+
+    @Test
+    void keyAndEscapesSplitAcrossDeltas() {
+        StreamingSqlExtractor extractor = new StreamingSqlExtractor();
+        String completion = "{\"Explanation\": \"none\", \"SQL\": \"SELECT '\\\\n' AS s\\nFROM t\"}";
+
+        boolean done = false;
+        for (int i = 0; i < completion.length(); i++) {
+            boolean completed = extractor.append(completion.substring(i, i + 1));
+            assertFalse(done && completed, "completed twice");
+            done |= completed;
+        }
+
+        assertTrue(done);
+        assertEquals("SELECT '\\n' AS s\nFROM t", extractor.getSql());
+    }
+
+    @Test
+    void escapedMentionInAnotherFieldIsIgnored() {
+        StreamingSqlExtractor extractor = new StreamingSqlExtractor();
+
+        assertFalse(extractor.append("{\"Explanation\": \"see \\\"SQL\\\": \\\"below\\\"\", "));
+        assertTrue(extractor.append("\"SQL\": \"SELECT 1\"}"));
+
+        assertEquals("SELECT 1", extractor.getSql());
+    }
+
+    @Test
+    void fencedBlockCompletesWhenClosed() {
+        StreamingSqlExtractor extractor = new StreamingSqlExtractor();
+
+        assertFalse(extractor.append("Here you go:\n```sql\nSELECT *\nFROM orders\n`"));
+        assertTrue(extractor.append("``\nDone."));
+
+        assertEquals("SELECT *\nFROM orders", extractor.getSql());
+    }
+
+    @Test
+    void emptyFieldIsFoundAsEmpty() {
+        StreamingSqlExtractor extractor = new StreamingSqlExtractor();
+
+        assertTrue(extractor.append("{\"SQL\": \"\", \"Explanation\": \"cannot answer\"}"));
+
+        assertTrue(extractor.isFound());
+        assertEquals("", extractor.getSql());
+    }
+
+    @Test
+    void nothingFoundWithoutSql() {
+        StreamingSqlExtractor extractor = new StreamingSqlExtractor();
+
+        assertFalse(extractor.append("I could not find a matching table."));
+
+        assertFalse(extractor.isFound());
+        assertNull(extractor.getSql());
+    }
+}
@@ -23,10 +23,18 @@ function App() {
     return saved ? JSON.parse(saved) : null;
   });
   const [hoveredTab, setHoveredTab] = useState(null);
+  // Paged results: page 0 arrives with the query, later pages are fetched on demand and kept here
+  const [resultPages, setResultPages] = useState({});
+  const [currentPage, setCurrentPage] = useState(0);
+  const [pageLoading, setPageLoading] = useState(false);
 
-  const handleSubmit = async (e) => {
+  const handleSubmit = (e) => {
     e.preventDefault();
+    runQuery(null);
+  };
 
+  // Run the prompt; confirmToken repeats a query the cost guard held back for confirmation
+  const runQuery = async (confirmToken) => {
     // Check if database connection is configured
     if (!dbConfig || !dbConfig.connectionId) {
       setShowDbConfigModal(true);
@@ -36,45 +44,153 @@ function App() {
     setLoading(true);
     setError('');
     setResult(null);
+    setResultPages({});
+    setCurrentPage(0);
     try {
-      const response = await fetch('/api/query', {
+      // Stream results: each pipeline stage arrives as its own server-sent event
+      const response = await fetch('/api/query/stream', {
         method: 'POST',
-        headers: { 'Content-Type': 'application/json' },
+        headers: { 'Content-Type': 'application/json', Accept: 'text/event-stream' },
         body: JSON.stringify({
           prompt,
           enableChart,
-          connectionId: dbConfig.connectionId
+          connectionId: dbConfig.connectionId,
+          paged: true,
+          confirmToken,
+          // Render charts at the screen's pixel density so they stay sharp on high-DPI displays
+          chartDpi: Math.round(96 * (window.devicePixelRatio || 1))
         }),
       });
-      const data = await response.json();
-      // Check for Hugging Face quota error
-      if (
-        typeof data === 'object' &&
-        (data.error?.includes('exceeded your monthly included credits') ||
-         data.summary?.includes('exceeded your monthly included credits') ||
-         data.insights?.includes('exceeded your monthly included credits'))
-      ) {
-        setError('You have exceeded your monthly included credits for Hugging Face Inference API. Please subscribe or use a different token.');
-      } else if (data.error) {
-        // If error is invalid/expired connection, decryption, or connection error, show modal and clear config
-        const errMsg = typeof data.error === 'string' ? data.error.toLowerCase() : '';
-        if (
-          errMsg.includes('invalid or expired connection id') ||
-          errMsg.includes('failed to decrypt database secret') ||
-          errMsg.includes('connection failed')
-        ) {
-          setShowDbConfigModal(true);
-          setDbConfig(null);
-          localStorage.removeItem('dbConfig');
-        } else {
-          setError(data.error);
-        }
-      } else setResult(data);
+      if (!response.ok || !response.body) {
+        throw new Error(`HTTP ${response.status}`);
+      }
+      await readEventStream(response.body, handleStreamEvent);
     } catch (err) {
       setError('Failed to fetch result.');
     }
     setLoading(false);
   };
+
+  // Parse a text/event-stream body and call onEvent(name, data) for every event
+  const readEventStream = async (body, onEvent) => {
+    const reader = body.getReader();
+    const decoder = new TextDecoder();
+    let buffer = '';
+    for (;;) {
+      const { value, done } = await reader.read();
+      if (done) break;
+      buffer += decoder.decode(value, { stream: true });
+      let boundary;
+      while ((boundary = buffer.indexOf('\n\n')) >= 0) {
+        const raw = buffer.slice(0, boundary);
+        buffer = buffer.slice(boundary + 2);
+        let name = 'message';
+        const dataLines = [];
+        raw.split('\n').forEach(line => {
+          if (line.startsWith('event:')) name = line.slice(6).trim();
+          else if (line.startsWith('data:')) dataLines.push(line.slice(5));
+        });
+        if (dataLines.length > 0) {
+          onEvent(name, JSON.parse(dataLines.join('\n')));
+        }
+      }
+    }
+  };
+
+  const handleStreamEvent = (name, data) => {
+    switch (name) {
+      case 'sql':
+        setResult(prev => ({ ...prev, query: data.query, similarPrompt: data.similarPrompt }));
+        break;
+      case 'rows':
+        setResult(prev => ({
+          ...prev,
+          rowData: data.offset === 0 ? data.rows : [...(prev?.rowData || []), ...data.rows]
+        }));
+        break;
+      case 'paging':
+        setResult(prev => ({
+          ...prev,
+          resultHandle: data.resultHandle,
+          hasMore: data.hasMore,
+          lastFetchedPage: 0
+        }));
+        break;
+      case 'summary':
+        if (data.summary?.includes('exceeded your monthly included credits')) {
+          handleQueryError(data.summary);
+        } else {
+          setResult(prev => ({ ...prev, summary: data.summary }));
+        }
+        break;
+      case 'chart':
+        setResult(prev => ({ ...prev, ...data }));
+        break;
+      case 'cost':
+        setResult(prev => ({ ...prev, cost: data }));
+        break;
+      case 'error':
+        handleQueryError(data.error);
+        break;
+      default:
+        break;
+    }
+  };
+
+  // Show a result page, fetching it from the held-open server cursor the first time
+  const showPage = async (pageNumber) => {
+    if (pageNumber === 0 || resultPages[pageNumber]) {
+      setCurrentPage(pageNumber);
+      return;
+    }
+    if (!result?.resultHandle) return;
+    setPageLoading(true);
+    try {
+      const response = await fetch(`/api/results/${result.resultHandle}?page=${pageNumber}`);
+      const data = await response.json();
+      if (!response.ok || data.error) {
+        setError(data.error || `HTTP ${response.status}`);
+      } else {
+        setResultPages(prev => ({ ...prev, [pageNumber]: data.rowData.slice(1) }));
+        setResult(prev => ({ ...prev, hasMore: data.hasMore, lastFetchedPage: pageNumber }));
+        setCurrentPage(pageNumber);
+      }
+    } catch (err) {
+      setError('Failed to fetch result page.');
+    }
+    setPageLoading(false);
+  };
+
+  const currentPageRows = () => (
+    currentPage === 0 ? result.rowData.slice(1) : (resultPages[currentPage] || [])
+  );
+
+  const hasNextPage = () => (
+    Boolean(resultPages[currentPage + 1]) ||
+    (Boolean(result?.hasMore) && currentPage === (result.lastFetchedPage ?? 0))
+  );
+
+  const handleQueryError = (message) => {
+    const errText = typeof message === 'string' ? message : '';
+    // Check for Hugging Face quota error
+    if (errText.includes('exceeded your monthly included credits')) {
+      setError('You have exceeded your monthly included credits for Hugging Face Inference API. Please subscribe or use a different token.');
+      return;
+    }
+    // If error is invalid/expired connection, decryption, or connection error, show modal and clear config
+    const errMsg = errText.toLowerCase();
+    if (
+      errMsg.includes('invalid or expired connection id') ||
+      errMsg.includes('failed to decrypt database secret') ||
+      errMsg.includes('connection failed')
+    ) {
+      setShowDbConfigModal(true);
+      setDbConfig(null);
+      localStorage.removeItem('dbConfig');
+    } else {
+      setError(message);
+    }
+  };
   useEffect(() => {
     console.log(huggingfaceResult);
   }, [huggingfaceResult]);
@@ -470,7 +586,9 @@ function App() {
                   background: 'linear-gradient(90deg, #dc2626, #b91c1c)'
                 }} />
                 <h2 style={{ marginTop: 0, marginBottom: 16 }}>Summary</h2>
-                {renderSummary(result.summary)}
+                {result.summary !== undefined ? renderSummary(result.summary) : result.cost?.outcome !== 'confirm' && (
+                  <div style={{ color: '#cccccc' }}>Generating summary...</div>
+                )}
                 {result.query && (
                   <div data-type="panel">
                     <div style={{ display: 'flex', justifyContent: 'space-between', alignItems: 'center', marginBottom: 16 }}>
@@ -493,6 +611,40 @@ function App() {
                       </button>
                     </div>
                     <pre style={{ marginTop: 0 }}>{result.query}</pre>
+                    {result.similarPrompt && (
+                      <div style={{ marginTop: 8, fontSize: 13, color: '#a3a3a3' }}>
+                        Reused the query written for "{result.similarPrompt}"
+                      </div>
+                    )}
+                  </div>
+                )}
+                {result.cost?.message && (
+                  <div data-type="panel">
+                    <h2>Estimated cost</h2>
+                    <div style={{ color: '#cccccc', marginBottom: 12 }}>{result.cost.message}</div>
+                    <div style={{ fontSize: 13, color: '#a3a3a3' }}>
+                      Estimated rows: {result.cost.estimatedRows.toLocaleString()}
+                      {' \u00b7 '}Estimated cost: {Math.round(result.cost.estimatedCost).toLocaleString()}
+                    </div>
+                    {result.cost.outcome === 'confirm' && (
+                      <button
+                        onClick={() => runQuery(result.cost.confirmToken)}
+                        disabled={loading}
+                        style={{
+                          marginTop: 16,
+                          padding: '8px 16px',
+                          fontSize: '0.9rem',
+                          backgroundColor: '#dc2626',
+                          color: 'white',
+                          border: 'none',
+                          borderRadius: '6px',
+                          cursor: 'pointer',
+                          fontWeight: 500
+                        }}
+                      >
+                        Run anyway
+                      </button>
+                    )}
                   </div>
                 )}
                 {result.rowData && result.rowData.length > 0 && (
@@ -508,7 +660,7 @@ function App() {
                           </tr>
                         </thead>
                         <tbody>
-                          {result.rowData.slice(1).map((row, i) => (
+                          {currentPageRows().map((row, i) => (
                             <tr key={i}>
                               {row.map((cell, j) => <td key={j}>{cell}</td>)}
                             </tr>
@@ -516,6 +668,43 @@ function App() {
                         </tbody>
                       </table>
                     </div>
+                    {(result.resultHandle || currentPage > 0) && (
+                      <div style={{ display: 'flex', alignItems: 'center', gap: 12, marginTop: 12 }}>
+                        <button
+                          onClick={() => showPage(currentPage - 1)}
+                          disabled={currentPage === 0 || pageLoading}
+                          style={{
+                            padding: '6px 14px',
+                            backgroundColor: '#404040',
+                            color: 'white',
+                            border: 'none',
+                            borderRadius: '6px',
+                            cursor: currentPage === 0 ? 'default' : 'pointer',
+                            opacity: currentPage === 0 ? 0.5 : 1
+                          }}
+                        >
+                          Previous
+                        </button>
+                        <span style={{ color: '#d1d5db' }}>
+                          {pageLoading ? 'Loading...' : `Page ${currentPage + 1}`}
+                        </span>
+                        <button
+                          onClick={() => showPage(currentPage + 1)}
+                          disabled={!hasNextPage() || pageLoading}
+                          style={{
+                            padding: '6px 14px',
+                            backgroundColor: '#404040',
+                            color: 'white',
+                            border: 'none',
+                            borderRadius: '6px',
+                            cursor: hasNextPage() ? 'pointer' : 'default',
+                            opacity: hasNextPage() ? 1 : 0.5
+                          }}
+                        >
+                          Next
+                        </button>
+                      </div>
+                    )}
                   </div>
                 )}
                 {result.insights && (
@@ -529,15 +718,24 @@ function App() {
                     </div>
                   </div>
                 )}
-                {result.chartImage && enableChart && (
+                {(result.chartUrl || result.chartImage) && enableChart && (
                   <div data-type="panel">
                     <h2>Chart</h2>
                     <div style={{ margin: '16px 0', textAlign: 'center' }}>
-                      <img
-                        src={`data:image/png;base64,${result.chartImage}`}
-                        alt="Generated Chart"
-                        style={{ maxWidth: '100%', border: '1px solid #404040', borderRadius: 8, boxShadow: '0 4px 15px rgba(0,0,0,0.3)' }}
-                      />
+                      {result.chartExpired ? (
+                        <div style={{ color: '#cccccc' }}>The chart is no longer cached. Run the query again to redraw it.</div>
+                      ) : (
+                        <img
+                          src={result.chartUrl || `data:image/png;base64,${result.chartImage}`}
+                          width={result.chartWidth}
+                          alt="Generated Chart"
+                          onError={() => setResult(prev => ({ ...prev, chartExpired: true }))}
+                          style={{ maxWidth: '100%', border: '1px solid #404040', borderRadius: 8, boxShadow: '0 4px 15px rgba(0,0,0,0.3)' }}
+                        />
+                      )}
+                      {result.chartNote && (
+                        <div style={{ marginTop: 8, fontSize: 13, color: '#a3a3a3' }}>{result.chartNote}</div>
+                      )}
                     </div>
                   </div>
                 )}